@@ -1,15 +1,28 @@
 package com.davfx.ninio.common;
 
+import java.net.InetSocketAddress;
+
 public final class Address {
 	private final String host;
 	private final int port;
+	private final InetSocketAddress resolved;
+	private final int hash;
 
 	public Address(int port) {
 		this(null, port);
 	}
 	public Address(String host, int port) {
+		this(host, port, null);
+	}
+	// No name resolution is done, the host is the IP address
+	public Address(InetSocketAddress resolved) {
+		this((resolved.getAddress() == null) ? resolved.getHostString() : resolved.getAddress().getHostAddress(), resolved.getPort(), resolved.isUnresolved() ? null : resolved);
+	}
+	private Address(String host, int port, InetSocketAddress resolved) {
 		this.host = host;
 		this.port = port;
+		this.resolved = resolved;
+		hash = (((host == null) ? 0 : host.hashCode()) * 31) + port;
 	}
 	public String getHost() {
 		return host;
@@ -17,6 +30,10 @@ public final class Address {
 	public int getPort() {
 		return port;
 	}
+	// Null if the address has been built from a host name
+	public InetSocketAddress getResolved() {
+		return resolved;
+	}
 
 	@Override
 	public String toString() {
@@ -25,7 +42,7 @@ public final class Address {
 
 	@Override
 	public int hashCode() {
-		return host.hashCode();
+		return hash;
 	}
 
 	@Override
@@ -37,12 +54,18 @@ public final class Address {
 			return false;
 		}
 		Address a = (Address) o;
-		if (!a.host.equals(host)) {
+		if (a.hash != hash) {
 			return false;
 		}
 		if (a.port != port) {
 			return false;
 		}
+		if (a.host == null) {
+			return host == null;
+		}
+		if (!a.host.equals(host)) {
+			return false;
+		}
 		return true;
 	}
 }
@@ -10,6 +10,9 @@ final class AddressUtils {
 		if (address.getHost() == null) {
 			return null;
 		}
+		if (address.getResolved() != null) {
+			return address.getResolved();
+		}
 		InetSocketAddress a = new InetSocketAddress(address.getHost(), address.getPort()); // Note this call blocks to resolve host (DNS resolution)
 		if (a.isUnresolved()) {
 			throw new IOException("Unresolved address: " + address.getHost() + ":" + address.getPort());
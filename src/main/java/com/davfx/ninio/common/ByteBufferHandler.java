@@ -3,5 +3,6 @@ package com.davfx.ninio.common;
 import java.nio.ByteBuffer;
 
 public interface ByteBufferHandler {
+	// The handler becomes the owner of the buffer (see PooledByteBufferAllocator.release)
 	void handle(Address address, ByteBuffer buffer);
 }
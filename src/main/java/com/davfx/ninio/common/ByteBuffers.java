@@ -0,0 +1,16 @@
+package com.davfx.ninio.common;
+
+import java.nio.ByteBuffer;
+
+// Pooled and borrowed buffers may be direct, array() is only to be used when hasArray()
+public final class ByteBuffers {
+	private ByteBuffers() {
+	}
+	
+	// Copy of the remaining bytes, the buffer position is left untouched
+	public static byte[] toArray(ByteBuffer buffer) {
+		byte[] b = new byte[buffer.remaining()];
+		buffer.duplicate().get(b);
+		return b;
+	}
+}
@@ -7,10 +7,16 @@ public final class ClassThreadFactory implements ThreadFactory {
 	private static final AtomicInteger NUMBER = new AtomicInteger(0);
 	private final Class<?> source;
 	private final String suffix;
+	private final boolean daemon;
 	
-	public ClassThreadFactory(Class<?> source, String suffix) {
+	public ClassThreadFactory(Class<?> source, String suffix, boolean daemon) {
 		this.source = source;
 		this.suffix = suffix;
+		this.daemon = daemon;
+	}
+
+	public ClassThreadFactory(Class<?> source, String suffix) {
+		this(source, suffix, false);
 	}
 
 	public ClassThreadFactory(Class<?> source) {
@@ -19,6 +25,8 @@ public final class ClassThreadFactory implements ThreadFactory {
 	
 	@Override
 	public Thread newThread(Runnable r) {
-		return new Thread(r, source.getSimpleName() + ((suffix == null) ? "" : ("-" + suffix)) + "-" + NUMBER.getAndIncrement());
+		Thread t = new Thread(r, source.getSimpleName() + ((suffix == null) ? "" : ("-" + suffix)) + "-" + NUMBER.getAndIncrement());
+		t.setDaemon(daemon);
+		return t;
 	}
 }
@@ -6,12 +6,26 @@ import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.util.ConfigUtils;
+import com.typesafe.config.Config;
 
 public final class DatagramReady implements Ready {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DatagramReady.class);
+
+	private static final Config CONFIG = ConfigUtils.load(DatagramReady.class);
+	private static final int ADDRESS_CACHE_SIZE = CONFIG.getInt("ninio.datagram.cache.addresses");
+
 	private static final class AddressedByteBuffer {
 		Address address;
 		ByteBuffer buffer;
+		int length;
 	}
 
 	private final Selector selector;
@@ -31,6 +45,16 @@ public final class DatagramReady implements Ready {
 				final SelectionKey selectionKey = channel.register(selector, 0);
 				
 				final LinkedList<AddressedByteBuffer> toWriteQueue = new LinkedList<AddressedByteBuffer>();
+				final WriteWatermark watermark = new WriteWatermark(connection);
+				
+				// Senders are cached to reuse the same Address instances, the names are never resolved here
+				final Map<InetSocketAddress, Address> addresses = new LinkedHashMap<InetSocketAddress, Address>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, Address> eldest) {
+						return size() > ADDRESS_CACHE_SIZE;
+					}
+				};
 	
 				selectionKey.attach(new SelectionKeyVisitor() {
 					@Override
@@ -43,16 +67,23 @@ public final class DatagramReady implements Ready {
 							try {
 								InetSocketAddress from = (InetSocketAddress) channel.receive(readBuffer);
 								if (from == null) {
+									PooledByteBufferAllocator.release(readBuffer);
 									try {
 										channel.close();
 									} catch (IOException ee) {
 									}
 									connection.close();
 								} else {
+									Address fromAddress = addresses.get(from);
+									if (fromAddress == null) {
+										fromAddress = new Address(from);
+										addresses.put(from, fromAddress);
+									}
 									readBuffer.flip();
-									connection.handle(new Address(from.getHostName(), from.getPort()), readBuffer);
+									connection.handle(fromAddress, readBuffer);
 								}
 							} catch (IOException e) {
+								PooledByteBufferAllocator.release(readBuffer);
 								try {
 									channel.close();
 								} catch (IOException ee) {
@@ -73,22 +104,26 @@ public final class DatagramReady implements Ready {
 										if (b.address == null) {
 											channel.write(b.buffer);
 										} else {
-											channel.send(b.buffer, AddressUtils.toConnectableInetSocketAddress(b.address));
+											InetSocketAddress to = AddressUtils.toConnectableInetSocketAddress(b.address);
+											if (to == null) {
+												throw new IOException("Invalid address: " + b.address);
+											}
+											channel.send(b.buffer, to);
 										}
 									} catch (IOException e) {
-										try {
-											channel.close();
-										} catch (IOException ee) {
-										}
-										connection.close();
-										break;
+										// Only this packet is lost (unreachable destination...), the channel is kept for the others (it may be shared)
+										LOGGER.debug("Packet dropped, could not be sent to {}: {}", b.address, e.getMessage());
+										PooledByteBufferAllocator.release(toWriteQueue.removeFirst().buffer);
+										watermark.written(b.length);
+										continue;
 									}
 									
 									if (b.buffer.hasRemaining()) {
 										return;
 									}
 									
-									toWriteQueue.removeFirst();
+									PooledByteBufferAllocator.release(toWriteQueue.removeFirst().buffer);
+									watermark.written(b.length);
 								}
 							}
 							if (!selector.isOpen()) {
@@ -142,8 +177,10 @@ public final class DatagramReady implements Ready {
 						AddressedByteBuffer b = new AddressedByteBuffer();
 						b.address = address;
 						b.buffer = buffer;
+						b.length = buffer.remaining();
 						toWriteQueue.addLast(b);
 						selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+						watermark.queued(b.length);
 					}
 					@Override
 					public void close() {
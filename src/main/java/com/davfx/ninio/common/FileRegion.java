@@ -0,0 +1,67 @@
+package com.davfx.ninio.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import com.davfx.util.ConfigUtils;
+import com.typesafe.config.Config;
+
+// A part of a file to be sent without being read in the heap, the region owns the file channel and closes it once sent (or dropped)
+public final class FileRegion {
+	private static final Config CONFIG = ConfigUtils.load(FileRegion.class);
+	public static final int MAPPED_CHUNK = CONFIG.getBytes("ninio.queue.write.file.chunk").intValue();
+
+	// Put in the write queues in place of the regions (as null is for closing)
+	static final ByteBuffer MARKER = ByteBuffer.allocate(0);
+
+	private final FileChannel channel;
+	private long position;
+	private long remaining;
+
+	public FileRegion(FileChannel channel, long position, long count) {
+		this.channel = channel;
+		this.position = position;
+		remaining = count;
+	}
+
+	public long getRemaining() {
+		return remaining;
+	}
+
+	// Sends as much as the target accepts
+	public long transferTo(WritableByteChannel target) throws IOException {
+		long n = channel.transferTo(position, remaining, target);
+		position += n;
+		remaining -= n;
+		return n;
+	}
+
+	// Next chunk of the region, mapped from the file (for targets that cannot be transferred to, as SSL connections)
+	public ByteBuffer map(int max) throws IOException {
+		long n = Math.min(remaining, max);
+		ByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, position, n);
+		position += n;
+		remaining -= n;
+		return b;
+	}
+
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+		}
+	}
+
+	// All the mapped chunks are handled at once, only to be used if the handler cannot transfer the region
+	public static void map(Address address, FileRegion region, ByteBufferHandler handler) throws IOException {
+		try {
+			while (region.getRemaining() > 0L) {
+				handler.handle(address, region.map(MAPPED_CHUNK));
+			}
+		} finally {
+			region.close();
+		}
+	}
+}
@@ -0,0 +1,6 @@
+package com.davfx.ninio.common;
+
+// Whoever is given a region owns it and should close it when done
+public interface FileRegionHandler {
+	void handle(Address address, FileRegion region);
+}
@@ -0,0 +1,92 @@
+package com.davfx.ninio.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.davfx.util.ConfigUtils;
+import com.typesafe.config.Config;
+
+public final class GatheringWriter {
+	private static final Config CONFIG = ConfigUtils.load(GatheringWriter.class);
+	private static final int MAX_COUNT = CONFIG.getInt("ninio.queue.write.gather.max");
+	private static final long MAX_BYTES = CONFIG.getBytes("ninio.queue.write.gather.bytes");
+	
+	private static final AtomicLong WRITES = new AtomicLong(0L);
+	private static final AtomicLong BUFFERS = new AtomicLong(0L);
+
+	// One array per queue thread
+	private static final ThreadLocal<ByteBuffer[]> GATHERED = new ThreadLocal<ByteBuffer[]>() {
+		@Override
+		protected ByteBuffer[] initialValue() {
+			return new ByteBuffer[Math.max(1, MAX_COUNT)];
+		}
+	};
+	
+	private GatheringWriter() {
+	}
+	
+	public static long getWrites() {
+		return WRITES.get();
+	}
+	public static long getBuffers() {
+		return BUFFERS.get();
+	}
+	// Number of write calls avoided by gathering
+	public static long getSavedWrites() {
+		return BUFFERS.get() - WRITES.get();
+	}
+
+	// Writes as many buffers as possible from the head of the queue, up to the first null (close marker) or file region marker, and removes (and releases) the ones completely written
+	// Returns false if a buffer could not be completely written
+	static boolean write(GatheringByteChannel channel, Deque<ByteBuffer> toWriteQueue, WriteWatermark watermark) throws IOException {
+		ByteBuffer[] gathered = GATHERED.get();
+		int count = 0;
+		long bytes = 0L;
+		Iterator<ByteBuffer> i = toWriteQueue.iterator();
+		while (i.hasNext() && (count < gathered.length)) {
+			ByteBuffer b = i.next();
+			if ((b == null) || (b == FileRegion.MARKER)) {
+				break;
+			}
+			if ((count > 0) && ((bytes + b.remaining()) > MAX_BYTES)) {
+				break;
+			}
+			gathered[count] = b;
+			count++;
+			bytes += b.remaining();
+		}
+		
+		long written;
+		try {
+			if (count == 1) {
+				written = channel.write(gathered[0]);
+			} else {
+				written = channel.write(gathered, 0, count);
+			}
+		} finally {
+			WRITES.incrementAndGet();
+			BUFFERS.addAndGet(count);
+			for (int k = 0; k < count; k++) {
+				gathered[k] = null;
+			}
+		}
+		
+		boolean complete = true;
+		while (count > 0) {
+			ByteBuffer b = toWriteQueue.getFirst();
+			if (b.hasRemaining()) {
+				complete = false;
+				break;
+			}
+			PooledByteBufferAllocator.release(toWriteQueue.removeFirst());
+			count--;
+		}
+		
+		watermark.written(written); // May add buffers to the queue
+		return complete;
+	}
+}
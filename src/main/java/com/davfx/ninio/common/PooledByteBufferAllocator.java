@@ -0,0 +1,217 @@
+package com.davfx.ninio.common;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.util.ConfigUtils;
+import com.google.common.collect.MapMaker;
+import com.typesafe.config.Config;
+
+// Whoever is given a pooled buffer owns it and should release it when done (not releasing it is safe, the buffer is simply garbage collected instead of being reused)
+public final class PooledByteBufferAllocator implements ByteBufferAllocator {
+	private static final Logger LOGGER = LoggerFactory.getLogger(PooledByteBufferAllocator.class);
+
+	private static final Config CONFIG = ConfigUtils.load(PooledByteBufferAllocator.class);
+	private static final int BUFFER_SIZE = CONFIG.getBytes("ninio.queue.buffer.size").intValue();
+	private static final List<Long> SIZES = CONFIG.getBytesList("ninio.queue.buffer.pool.sizes");
+	private static final int MAX = CONFIG.getInt("ninio.queue.buffer.pool.max");
+	private static final boolean DIRECT = CONFIG.getBoolean("ninio.queue.buffer.pool.direct");
+	private static final boolean LEAK_DETECTION = CONFIG.getBoolean("ninio.queue.buffer.pool.leakDetection");
+	
+	// Weak keys are compared by identity
+	private static final ConcurrentMap<ByteBuffer, Tracker> TRACKED = new MapMaker().weakKeys().makeMap();
+	private static final ReferenceQueue<ByteBuffer> LEAKED = new ReferenceQueue<ByteBuffer>();
+
+	private static final class Tracker extends WeakReference<ByteBuffer> {
+		public final PooledByteBufferAllocator pool;
+		public final int sizeClass;
+		public final AtomicInteger references = new AtomicInteger(1);
+		public final Throwable allocation;
+		public volatile boolean released = false;
+		public Tracker(ByteBuffer buffer, PooledByteBufferAllocator pool, int sizeClass, boolean leakDetection) {
+			super(buffer, leakDetection ? LEAKED : null);
+			this.pool = pool;
+			this.sizeClass = sizeClass;
+			allocation = leakDetection ? new Throwable("Allocation of " + buffer.capacity() + " bytes") : null;
+		}
+	}
+
+	private final int defaultSize;
+	private final int[] sizes;
+	private final int max;
+	private final boolean direct;
+	private final boolean leakDetection;
+	
+	private final ConcurrentLinkedQueue<ByteBuffer>[] pools;
+	private final AtomicInteger[] pooled;
+	
+	private final AtomicLong allocations = new AtomicLong(0L);
+	private final AtomicLong hits = new AtomicLong(0L);
+	private final AtomicLong releases = new AtomicLong(0L);
+	private final AtomicLong leaks = new AtomicLong(0L);
+
+	public PooledByteBufferAllocator() {
+		this(BUFFER_SIZE, toIntArray(SIZES), MAX, DIRECT, LEAK_DETECTION);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public PooledByteBufferAllocator(int defaultSize, int[] sizes, int max, boolean direct, boolean leakDetection) {
+		this.defaultSize = defaultSize;
+		this.sizes = sizes.clone();
+		Arrays.sort(this.sizes);
+		this.max = max;
+		this.direct = direct;
+		this.leakDetection = leakDetection;
+		pools = (ConcurrentLinkedQueue<ByteBuffer>[]) new ConcurrentLinkedQueue<?>[this.sizes.length]; // No generic array creation, the cast is safe as the array does not escape
+		pooled = new AtomicInteger[this.sizes.length];
+		for (int i = 0; i < this.sizes.length; i++) {
+			pools[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+			pooled[i] = new AtomicInteger(0);
+		}
+	}
+	
+	private static int[] toIntArray(List<Long> l) {
+		int[] a = new int[l.size()];
+		int i = 0;
+		for (Long s : l) {
+			a[i] = s.intValue();
+			i++;
+		}
+		return a;
+	}
+	
+	@Override
+	public ByteBuffer allocate() {
+		return allocate(defaultSize);
+	}
+
+	// The returned buffer capacity can be greater than the requested size, its limit is set to size
+	public ByteBuffer allocate(int size) {
+		if (leakDetection) {
+			detectLeaks();
+		}
+		
+		int sizeClass = -1;
+		for (int i = 0; i < sizes.length; i++) {
+			if (sizes[i] >= size) {
+				sizeClass = i;
+				break;
+			}
+		}
+		if (sizeClass < 0) {
+			return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+		}
+		
+		ByteBuffer b = pools[sizeClass].poll();
+		if (b == null) {
+			allocations.incrementAndGet();
+			b = direct ? ByteBuffer.allocateDirect(sizes[sizeClass]) : ByteBuffer.allocate(sizes[sizeClass]);
+		} else {
+			pooled[sizeClass].decrementAndGet();
+			hits.incrementAndGet();
+			b.clear();
+		}
+		b.limit(size);
+		TRACKED.put(b, new Tracker(b, this, sizeClass, leakDetection));
+		return b;
+	}
+	
+	private void recycle(ByteBuffer b, int sizeClass) {
+		releases.incrementAndGet();
+		if (pooled[sizeClass].incrementAndGet() > max) {
+			pooled[sizeClass].decrementAndGet();
+			return;
+		}
+		b.clear();
+		pools[sizeClass].add(b);
+	}
+	
+	private static void detectLeaks() {
+		while (true) {
+			Tracker t = (Tracker) LEAKED.poll();
+			if (t == null) {
+				break;
+			}
+			if (!t.released) {
+				t.pool.leaks.incrementAndGet();
+				LOGGER.error("Buffer garbage collected without being released", t.allocation);
+			}
+		}
+	}
+	
+	// Does nothing if the buffer does not come from a pool
+	public static void retain(ByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+		Tracker t = TRACKED.get(buffer);
+		if (t == null) {
+			return;
+		}
+		t.references.incrementAndGet();
+	}
+	
+	// Does nothing if the buffer does not come from a pool
+	public static void release(ByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+		Tracker t = TRACKED.get(buffer);
+		if (t == null) {
+			return;
+		}
+		if (t.references.decrementAndGet() > 0) {
+			return;
+		}
+		if (TRACKED.remove(buffer, t)) {
+			t.released = true;
+			t.pool.recycle(buffer, t.sizeClass);
+		}
+	}
+	
+	public long getAllocations() {
+		return allocations.get();
+	}
+	public long getHits() {
+		return hits.get();
+	}
+	public long getReleases() {
+		return releases.get();
+	}
+	public long getLeaks() {
+		return leaks.get();
+	}
+	public int getSizeClassCount() {
+		return sizes.length;
+	}
+	public int getSize(int sizeClass) {
+		return sizes[sizeClass];
+	}
+	public int getPooled(int sizeClass) {
+		return pooled[sizeClass].get();
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		b.append("allocations=").append(allocations.get()).append(", hits=").append(hits.get()).append(", releases=").append(releases.get()).append(", leaks=").append(leaks.get()).append(", pooled=[");
+		for (int i = 0; i < sizes.length; i++) {
+			if (i > 0) {
+				b.append(", ");
+			}
+			b.append(sizes[i]).append(':').append(pooled[i].get());
+		}
+		b.append(']');
+		return b.toString();
+	}
+}
@@ -19,9 +19,14 @@ public final class Queue implements AutoCloseable {
 
 	private static final Config CONFIG = ConfigUtils.load(Queue.class);
 	private static final int BUFFER_SIZE = CONFIG.getBytes("ninio.queue.buffer.size").intValue();
+	private static final boolean POOLED = CONFIG.getBoolean("ninio.queue.buffer.pooled");
+	private static final double TIMER_TICK = ConfigUtils.getDuration(CONFIG, "ninio.queue.timer.tick");
+	private static final int TIMER_SLOTS = CONFIG.getInt("ninio.queue.timer.slots");
 	
 	private final long threadId;
 	private final Selector selector;
+	private final ByteBufferAllocator allocator;
+	private final TimerWheel wheel = new TimerWheel(TIMER_TICK, TIMER_SLOTS);
 	private final ConcurrentLinkedQueue<Runnable> toRun = new ConcurrentLinkedQueue<Runnable>(); // Using LinkedBlockingQueue my prevent OutOfMemory errors but may DEADLOCK
 	
 	public static Selector selector() throws IOException {
@@ -33,6 +38,17 @@ public final class Queue implements AutoCloseable {
 	}
 	public Queue(final Selector selector) {
 		this.selector = selector;
+		
+		if (POOLED) {
+			allocator = new PooledByteBufferAllocator();
+		} else {
+			allocator = new ByteBufferAllocator() {
+				@Override
+				public ByteBuffer allocate() {
+					return ByteBuffer.allocate(BUFFER_SIZE);
+				}
+			};
+		}
 
 		Thread t = new ClassThreadFactory(Queue.class).newThread(new Runnable() {
 			@Override
@@ -42,7 +58,18 @@ public final class Queue implements AutoCloseable {
 						if (!selector.isOpen()) {
 							break;
 						}
-						selector.select();
+						// The select timeout is driven by the timer wheel
+						double next = wheel.next();
+						if (next < 0d) {
+							selector.select();
+						} else {
+							long t = (long) Math.ceil(next * 1000d);
+							if (t == 0L) {
+								selector.selectNow();
+							} else {
+								selector.select(t);
+							}
+						}
 						if (!selector.isOpen()) {
 							break;
 						}
@@ -68,6 +95,8 @@ public final class Queue implements AutoCloseable {
 							LOGGER.error("Error in running task", e);
 						}
 					}
+					
+					wheel.advance();
 				}
 			}
 		});
@@ -77,7 +106,7 @@ public final class Queue implements AutoCloseable {
 		threadId = t.getId();
 	}
 	
-	private boolean isInside() {
+	boolean isInside() {
 		return Thread.currentThread().getId() == threadId;
 	}
 	
@@ -101,13 +130,14 @@ public final class Queue implements AutoCloseable {
 		selector.wakeup();
 	}
 	
+	// Should be called from the queue thread, as well as Timer.cancel
+	public TimerWheel.Timer schedule(double delay, Runnable task) {
+		check();
+		return wheel.schedule(delay, task);
+	}
+	
 	public ByteBufferAllocator allocator() {
-		return new ByteBufferAllocator() {
-			@Override
-			public ByteBuffer allocate() {
-				return ByteBuffer.allocate(BUFFER_SIZE);
-			}
-		};
+		return allocator;
 	}
 	
 	@Override
@@ -3,7 +3,7 @@ package com.davfx.ninio.common;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
-public final class QueueCloseableByteBufferHandler implements FailableCloseableByteBufferHandler {
+public final class QueueCloseableByteBufferHandler implements FailableCloseableByteBufferHandler, FileRegionHandler {
 	private final Queue queue;
 	private final CloseableByteBufferHandler wrappee;
 	public QueueCloseableByteBufferHandler(Queue queue, CloseableByteBufferHandler wrappee) {
@@ -21,6 +21,24 @@ public final class QueueCloseableByteBufferHandler implements FailableCloseableB
 		});
 	}
 	
+	@Override
+	public void handle(final Address address, final FileRegion region) {
+		queue.post(new Runnable() {
+			@Override
+			public void run() {
+				if (wrappee instanceof FileRegionHandler) {
+					((FileRegionHandler) wrappee).handle(address, region);
+					return;
+				}
+				try {
+					FileRegion.map(address, region, wrappee);
+				} catch (IOException e) {
+					wrappee.close();
+				}
+			}
+		});
+	}
+	
 	@Override
 	public void close() {
 		queue.post(new Runnable() {
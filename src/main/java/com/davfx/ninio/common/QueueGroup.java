@@ -0,0 +1,105 @@
+package com.davfx.ninio.common;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.davfx.util.ConfigUtils;
+import com.typesafe.config.Config;
+
+public final class QueueGroup implements AutoCloseable {
+	private static final Config CONFIG = ConfigUtils.load(QueueGroup.class);
+	
+	public static enum Policy {
+		ROUND_ROBIN,
+		LEAST_LOADED,
+		ADDRESS_HASH
+	}
+
+	private final Policy policy;
+	private final Queue[] queues;
+	private final AtomicInteger[] loads;
+	private final AtomicInteger next = new AtomicInteger(0);
+
+	public QueueGroup() throws IOException {
+		this(CONFIG.getInt("ninio.queue.group.size"), Policy.valueOf(CONFIG.getString("ninio.queue.group.policy")));
+	}
+	
+	public QueueGroup(int size, Policy policy) throws IOException {
+		if (size <= 0) {
+			size = Runtime.getRuntime().availableProcessors();
+		}
+		this.policy = policy;
+		queues = new Queue[size];
+		loads = new AtomicInteger[size];
+		try {
+			for (int i = 0; i < size; i++) {
+				queues[i] = new Queue();
+				loads[i] = new AtomicInteger(0);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+	
+	public int size() {
+		return queues.length;
+	}
+	
+	public Queue get(int index) {
+		return queues[index];
+	}
+	
+	public int load(int index) {
+		return loads[index].get();
+	}
+	
+	// The queue running the calling thread, null if called from outside the group
+	public Queue current() {
+		for (Queue q : queues) {
+			if (q.isInside()) {
+				return q;
+			}
+		}
+		return null;
+	}
+	
+	// Each call must be balanced by a call to release(index) once the connection is closed
+	int acquire(Address address) {
+		int index;
+		switch (policy) {
+		case LEAST_LOADED:
+			index = 0;
+			int min = loads[0].get();
+			for (int i = 1; i < loads.length; i++) {
+				int l = loads[i].get();
+				if (l < min) {
+					min = l;
+					index = i;
+				}
+			}
+			break;
+		case ADDRESS_HASH:
+			index = (address == null) ? 0 : ((address.hashCode() & Integer.MAX_VALUE) % queues.length);
+			break;
+		default:
+			index = (next.getAndIncrement() & Integer.MAX_VALUE) % queues.length;
+			break;
+		}
+		loads[index].incrementAndGet();
+		return index;
+	}
+	
+	void release(int index) {
+		loads[index].decrementAndGet();
+	}
+	
+	@Override
+	public void close() {
+		for (Queue q : queues) {
+			if (q != null) {
+				q.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.davfx.ninio.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Connections are spread over the queues of the group (the I/O of a connection always happens in the same queue), callbacks are posted back to the queue given to create
+public final class QueueGroupReadyFactory implements ReadyFactory {
+	private final QueueGroup group;
+	private final ReadyFactory wrappee;
+	private final boolean copy;
+	
+	public QueueGroupReadyFactory(QueueGroup group, ReadyFactory wrappee) {
+		this.group = group;
+		this.wrappee = wrappee;
+		// A borrowed buffer is only valid for the time of the call, it is copied before being posted to the other queue
+		copy = (wrappee instanceof SocketReadyFactory) && (((SocketReadyFactory) wrappee).getReadMode() == ReadMode.BORROW);
+	}
+	
+	@Override
+	public Ready create(final Queue queue) {
+		return new Ready() {
+			@Override
+			public void connect(Address address, ReadyConnection connection) {
+				int index = group.acquire(address);
+				wrappee.create(group.get(index)).connect(address, new InnerConnection(group, index, queue, connection, copy));
+			}
+		};
+	}
+	
+	private static final class InnerConnection implements ReadyConnection, WritabilityListener {
+		private final QueueGroup group;
+		private final int index;
+		private final Queue queue;
+		private final ReadyConnection connection;
+		private final boolean copy;
+		private final AtomicBoolean released = new AtomicBoolean(false);
+
+		public InnerConnection(QueueGroup group, int index, Queue queue, ReadyConnection connection, boolean copy) {
+			this.group = group;
+			this.index = index;
+			this.queue = queue;
+			this.connection = connection;
+			this.copy = copy;
+		}
+		
+		private void release() {
+			if (released.getAndSet(true)) {
+				return;
+			}
+			group.release(index);
+		}
+		
+		@Override
+		public void failed(final IOException e) {
+			release();
+			queue.post(new Runnable() {
+				@Override
+				public void run() {
+					connection.failed(e);
+				}
+			});
+		}
+		@Override
+		public void close() {
+			release();
+			queue.post(new Runnable() {
+				@Override
+				public void run() {
+					connection.close();
+				}
+			});
+		}
+		
+		@Override
+		public void handle(final Address address, ByteBuffer buffer) {
+			final ByteBuffer b = copy ? ReadBuffers.toHandle(ReadMode.COPY, group.get(index).allocator(), buffer) : buffer;
+			queue.post(new Runnable() {
+				@Override
+				public void run() {
+					connection.handle(address, b);
+				}
+			});
+		}
+		
+		@Override
+		public void connected(final FailableCloseableByteBufferHandler write) {
+			queue.post(new Runnable() {
+				@Override
+				public void run() {
+					connection.connected(new FailableCloseableByteBufferHandler() {
+						@Override
+						public void handle(Address address, ByteBuffer buffer) {
+							write.handle(address, buffer);
+						}
+						@Override
+						public void close() {
+							release();
+							write.close();
+						}
+						@Override
+						public void failed(IOException e) {
+							release();
+							write.failed(e);
+						}
+					});
+				}
+			});
+		}
+		
+		@Override
+		public void writable(final boolean writable) {
+			if (!(connection instanceof WritabilityListener)) {
+				return;
+			}
+			queue.post(new Runnable() {
+				@Override
+				public void run() {
+					((WritabilityListener) connection).writable(writable);
+				}
+			});
+		}
+	}
+}
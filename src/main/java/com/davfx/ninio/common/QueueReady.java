@@ -16,47 +16,70 @@ public final class QueueReady implements Ready {
 		queue.post(new Runnable() {
 			@Override
 			public void run() {
-				wrappee.connect(address, new ReadyConnection() {
-					@Override
-					public void failed(final IOException e) {
-						queue.post(new Runnable() {
-							@Override
-							public void run() {
-								connection.failed(e);
-							}
-						});
-					}
-					@Override
-					public void close() {
-						queue.post(new Runnable() {
-							@Override
-							public void run() {
-								connection.close();
-							}
-						});
-					}
-					
-					@Override
-					public void handle(final Address address, final ByteBuffer buffer) {
-						queue.post(new Runnable() {
-							@Override
-							public void run() {
-								connection.handle(address, buffer);
-							}
-						});
-					}
-					
-					@Override
-					public void connected(final FailableCloseableByteBufferHandler write) {
-						queue.post(new Runnable() {
-							@Override
-							public void run() {
-								connection.connected(new QueueCloseableByteBufferHandler(queue, write));
-							}
-						});
-					}
-				});
+				wrappee.connect(address, new InnerConnection(queue, connection));
 			}
 		});
 	}
+	
+	private static final class InnerConnection implements ReadyConnection, WritabilityListener {
+		private final Queue queue;
+		private final ReadyConnection connection;
+		
+		public InnerConnection(Queue queue, ReadyConnection connection) {
+			this.queue = queue;
+			this.connection = connection;
+		}
+		
+		@Override
+		public void failed(final IOException e) {
+			queue.post(new Runnable() {
+				@Override
+				public void run() {
+					connection.failed(e);
+				}
+			});
+		}
+		@Override
+		public void close() {
+			queue.post(new Runnable() {
+				@Override
+				public void run() {
+					connection.close();
+				}
+			});
+		}
+		
+		@Override
+		public void handle(final Address address, final ByteBuffer buffer) {
+			queue.post(new Runnable() {
+				@Override
+				public void run() {
+					connection.handle(address, buffer);
+				}
+			});
+		}
+		
+		@Override
+		public void connected(final FailableCloseableByteBufferHandler write) {
+			queue.post(new Runnable() {
+				@Override
+				public void run() {
+					connection.connected(new QueueCloseableByteBufferHandler(queue, write));
+				}
+			});
+		}
+		
+		@Override
+		public void writable(final boolean writable) {
+			if (!(connection instanceof WritabilityListener)) {
+				return;
+			}
+			queue.post(new Runnable() {
+				@Override
+				public void run() {
+					((WritabilityListener) connection).writable(writable);
+				}
+			});
+		}
+	}
 }
@@ -0,0 +1,47 @@
+package com.davfx.ninio.common;
+
+import java.nio.ByteBuffer;
+
+import com.davfx.util.ConfigUtils;
+import com.typesafe.config.Config;
+
+final class ReadBuffers {
+	private static final Config CONFIG = ConfigUtils.load(ReadBuffers.class);
+	private static final int BUFFER_SIZE = CONFIG.getBytes("ninio.queue.buffer.size").intValue();
+	
+	// One buffer per queue thread
+	private static final ThreadLocal<ByteBuffer> SCRATCH = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	};
+	
+	private ReadBuffers() {
+	}
+	
+	public static ByteBuffer allocate(ReadMode mode, ByteBufferAllocator allocator) {
+		if (mode == ReadMode.ALLOCATE) {
+			return allocator.allocate();
+		}
+		ByteBuffer b = SCRATCH.get();
+		b.clear();
+		return b;
+	}
+	
+	// To be called on the flipped buffer returned by allocate
+	public static ByteBuffer toHandle(ReadMode mode, ByteBufferAllocator allocator, ByteBuffer readBuffer) {
+		if (mode != ReadMode.COPY) {
+			return readBuffer;
+		}
+		ByteBuffer b;
+		if (allocator instanceof PooledByteBufferAllocator) {
+			b = ((PooledByteBufferAllocator) allocator).allocate(readBuffer.remaining());
+		} else {
+			b = ByteBuffer.allocate(readBuffer.remaining());
+		}
+		b.put(readBuffer);
+		b.flip();
+		return b;
+	}
+}
@@ -0,0 +1,10 @@
+package com.davfx.ninio.common;
+
+public enum ReadMode {
+	// A new buffer (from the allocator) is given to the handler on each read
+	ALLOCATE,
+	// Reads in a buffer shared by the queue thread, the handler is given a right-sized copy
+	COPY,
+	// Reads in a buffer shared by the queue thread, the handler is given this very buffer, only valid for the time of the call (the handler must not keep it, nor write it)
+	BORROW
+}
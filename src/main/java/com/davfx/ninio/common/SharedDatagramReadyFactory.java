@@ -0,0 +1,228 @@
+package com.davfx.ninio.common;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.util.ConfigUtils;
+import com.google.common.net.InetAddresses;
+import com.typesafe.config.Config;
+
+// All the connections created on a queue share a few bound datagram channels, packets are dispatched by source address
+public final class SharedDatagramReadyFactory implements ReadyFactory {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SharedDatagramReadyFactory.class);
+
+	private static final Config CONFIG = ConfigUtils.load(SharedDatagramReadyFactory.class);
+	private static final int CHANNELS = CONFIG.getInt("ninio.datagram.shared.channels");
+	private static final int BIND_PORT = CONFIG.getInt("ninio.datagram.shared.bind.port");
+	private static final int RESOLVE_THREADS = CONFIG.getInt("ninio.datagram.shared.resolve.threads");
+
+	// Host names are resolved out of the queue thread (a DNS lookup blocks), the threads do not hold the JVM
+	private static final ThreadPoolExecutor RESOLVER = new ThreadPoolExecutor(RESOLVE_THREADS, RESOLVE_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ClassThreadFactory(SharedDatagramReadyFactory.class, "resolve", true));
+	static {
+		RESOLVER.allowCoreThreadTimeOut(true);
+	}
+
+	private final int channels;
+	private final Address bindAddress;
+	private final Map<Queue, Shared[]> shared = new HashMap<>();
+
+	public SharedDatagramReadyFactory() {
+		this(CHANNELS, new Address(BIND_PORT));
+	}
+	public SharedDatagramReadyFactory(int channels, Address bindAddress) {
+		if (channels <= 0) {
+			throw new IllegalArgumentException("At least one channel is required");
+		}
+		this.channels = channels;
+		this.bindAddress = bindAddress;
+	}
+
+	@Override
+	public Ready create(final Queue queue) {
+		final Shared[] s;
+		synchronized (shared) {
+			Shared[] ss = shared.get(queue);
+			if (ss == null) {
+				ss = new Shared[channels];
+				for (int i = 0; i < ss.length; i++) {
+					ss[i] = new Shared(queue);
+				}
+				shared.put(queue, ss);
+			}
+			s = ss;
+		}
+		return new QueueReady(queue, new Ready() {
+			// The key is the numeric address, as received packets are tagged with it (no reverse resolution)
+			@Override
+			public void connect(final Address address, final ReadyConnection connection) {
+				if (address.getHost() == null) {
+					connection.failed(new IOException("Invalid address: " + address));
+					return;
+				}
+				if (address.getResolved() != null) {
+					dispatch(s, new Address(address.getResolved()), connection);
+					return;
+				}
+				if (InetAddresses.isInetAddress(address.getHost())) {
+					dispatch(s, new Address(new InetSocketAddress(InetAddresses.forString(address.getHost()), address.getPort())), connection);
+					return;
+				}
+				RESOLVER.execute(new Runnable() {
+					@Override
+					public void run() {
+						Address a;
+						IOException error;
+						try {
+							a = new Address(AddressUtils.toConnectableInetSocketAddress(address));
+							error = null;
+						} catch (IOException e) {
+							a = null;
+							error = e;
+						}
+						final Address resolved = a;
+						final IOException resolveError = error;
+						queue.post(new Runnable() {
+							@Override
+							public void run() {
+								if (resolved == null) {
+									connection.failed(resolveError);
+									return;
+								}
+								dispatch(s, resolved, connection);
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	// From the queue thread
+	private static void dispatch(Shared[] s, Address resolved, ReadyConnection connection) {
+		s[(resolved.hashCode() & Integer.MAX_VALUE) % s.length].connect(resolved, connection);
+	}
+
+	// Only accessed from the queue thread
+	private final class Shared {
+		private final Queue queue;
+		private final Map<Address, List<ReadyConnection>> connections = new HashMap<>();
+		private FailableCloseableByteBufferHandler write = null;
+
+		public Shared(Queue queue) {
+			this.queue = queue;
+		}
+
+		private void open() {
+			new DatagramReady(queue.getSelector(), queue.allocator()).connect(bindAddress, new ReadyConnection() {
+				@Override
+				public void handle(Address address, ByteBuffer buffer) {
+					List<ReadyConnection> l = connections.get(address);
+					if (l == null) {
+						LOGGER.trace("Packet received from unknown address: {}", address);
+						PooledByteBufferAllocator.release(buffer);
+						return;
+					}
+					if (l.size() == 1) {
+						l.get(0).handle(address, buffer);
+						return;
+					}
+					for (ReadyConnection c : new LinkedList<>(l)) {
+						ByteBuffer b = ByteBuffer.allocate(buffer.remaining());
+						b.put(buffer.duplicate());
+						b.flip();
+						c.handle(address, b);
+					}
+					PooledByteBufferAllocator.release(buffer);
+				}
+				@Override
+				public void connected(FailableCloseableByteBufferHandler write) {
+					Shared.this.write = write;
+				}
+				// Only on a read failure, a failing send only drops its own packet
+				@Override
+				public void failed(IOException e) {
+					closeAll(e);
+				}
+				@Override
+				public void close() {
+					closeAll(null);
+				}
+			});
+		}
+
+		private void closeAll(IOException e) {
+			write = null;
+			List<ReadyConnection> all = new LinkedList<>();
+			for (List<ReadyConnection> l : connections.values()) {
+				all.addAll(l);
+			}
+			connections.clear();
+			for (ReadyConnection c : all) {
+				if (e == null) {
+					c.close();
+				} else {
+					c.failed(e);
+				}
+			}
+		}
+
+		public void connect(final Address address, final ReadyConnection connection) {
+			if (write == null) {
+				open();
+			}
+			final FailableCloseableByteBufferHandler w = write;
+			if (w == null) {
+				connection.failed(new IOException("Could not bind shared channel: " + bindAddress));
+				return;
+			}
+
+			List<ReadyConnection> l = connections.get(address);
+			if (l == null) {
+				l = new LinkedList<>();
+				connections.put(address, l);
+			}
+			l.add(connection);
+
+			connection.connected(new FailableCloseableByteBufferHandler() {
+				private boolean closed = false;
+				@Override
+				public void handle(Address a, ByteBuffer buffer) {
+					if (closed || (write != w)) {
+						PooledByteBufferAllocator.release(buffer);
+						return;
+					}
+					w.handle((a == null) ? address : a, buffer);
+				}
+				@Override
+				public void close() {
+					if (closed) {
+						return;
+					}
+					closed = true;
+					List<ReadyConnection> l = connections.get(address);
+					if (l != null) {
+						l.remove(connection);
+						if (l.isEmpty()) {
+							connections.remove(address);
+						}
+					}
+				}
+				@Override
+				public void failed(IOException e) {
+					close();
+				}
+			});
+		}
+	}
+}
@@ -8,6 +8,7 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,10 +18,24 @@ public final class SocketListen implements Listen {
 
 	private final Selector selector;
 	private final ByteBufferAllocator byteBufferAllocator;
+	private final QueueGroup group;
+	private final ReadMode readMode;
 	
 	public SocketListen(Selector selector, ByteBufferAllocator byteBufferAllocator) {
+		this(selector, byteBufferAllocator, null, ReadMode.ALLOCATE);
+	}
+	
+	// Accepted connections are spread over the queues of the group, all the callbacks of a connection are called in its own queue
+	// SocketListening.connected is thus called concurrently from the queues of the group
+	public SocketListen(Selector selector, ByteBufferAllocator byteBufferAllocator, QueueGroup group) {
+		this(selector, byteBufferAllocator, group, ReadMode.ALLOCATE);
+	}
+
+	public SocketListen(Selector selector, ByteBufferAllocator byteBufferAllocator, QueueGroup group, ReadMode readMode) {
 		this.byteBufferAllocator = byteBufferAllocator;
 		this.selector = selector;
+		this.group = group;
+		this.readMode = readMode;
 	}
 	
 	@Override
@@ -47,106 +62,50 @@ public final class SocketListen implements Listen {
 							outboundChannel.socket().setKeepAlive(true);
 							final Address clientAddress = new Address(outboundChannel.socket().getInetAddress().getHostAddress(), outboundChannel.socket().getPort());
 							outboundChannel.finishConnect();
-							final SelectionKey selectionKey = outboundChannel.register(selector, 0);
-							
-							final LinkedList<ByteBuffer> toWriteQueue = new LinkedList<ByteBuffer>();
 							
-							final CloseableByteBufferHandler read = listening.connected(clientAddress, new CloseableByteBufferHandler() {
-								@Override
-								public void handle(Address address, ByteBuffer buffer) {
-									if (!outboundChannel.isOpen()) {
-										return;
-									}
-									if (!selectionKey.isValid()) {
-										return;
-									}
-									toWriteQueue.addLast(buffer);
-									selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
-								}
-								@Override
-								public void close() {
-									if (!outboundChannel.isOpen()) {
-										return;
-									}
-									if (!selectionKey.isValid()) {
-										return;
-									}
-									toWriteQueue.addLast(null);
-									selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
-								}
-							});
-							
-							selectionKey.attach(new SelectionKeyVisitor() {
-								@Override
-								public void visit(SelectionKey key) {
-									if (!outboundChannel.isOpen()) {
-										return;
-									}
-									if (key.isReadable()) {
-										ByteBuffer readBuffer = byteBufferAllocator.allocate();
+							if (group == null) {
+								accepted(selector, byteBufferAllocator, readMode, outboundChannel, clientAddress, listening, null);
+							} else {
+								final int index = group.acquire(clientAddress);
+								final Queue queue = group.get(index);
+								queue.post(new Runnable() {
+									@Override
+									public void run() {
+										final AtomicBoolean released = new AtomicBoolean(false);
 										try {
-											int r = outboundChannel.read(readBuffer);
-											if (r < 0) {
-												LOGGER.debug("Closing client socket");
-												try {
-													outboundChannel.close();
-												} catch (IOException ee) {
+											accepted(queue.getSelector(), queue.allocator(), readMode, outboundChannel, clientAddress, new SocketListening() {
+												@Override
+												public void failed(IOException e) {
+													listening.failed(e);
 												}
-												read.close();
-											} else {
-												// LOGGER.debug("Received packet of {} bytes", r);
-												readBuffer.flip();
-												read.handle(clientAddress, readBuffer);
-											}
+												@Override
+												public void close() {
+													listening.close();
+												}
+												@Override
+												public CloseableByteBufferHandler connected(Address address, CloseableByteBufferHandler connection) {
+													return listening.connected(address, new QueueCloseableByteBufferHandler(queue, connection));
+												}
+											}, new Runnable() {
+												@Override
+												public void run() {
+													if (!released.getAndSet(true)) {
+														group.release(index);
+													}
+												}
+											});
 										} catch (IOException e) {
-											LOGGER.debug("Error on client socket", e);
+											if (!released.getAndSet(true)) {
+												group.release(index);
+											}
 											try {
 												outboundChannel.close();
 											} catch (IOException ee) {
 											}
-											read.close();
-										}
-									} else if (key.isWritable()) {
-										while (!toWriteQueue.isEmpty()) {
-											ByteBuffer b = toWriteQueue.getFirst();
-											if (b == null) {
-												try {
-													outboundChannel.close();
-												} catch (IOException ee) {
-												}
-												return;
-											} else {
-												// LOGGER.debug("Sending packet of {} bytes", b.remaining());
-												try {
-													outboundChannel.write(b);
-												} catch (IOException e) {
-													try {
-														outboundChannel.close();
-													} catch (IOException ee) {
-													}
-													read.close();
-													return;
-												}
-												
-												if (b.hasRemaining()) {
-													return;
-												}
-												
-												toWriteQueue.removeFirst();
-											}
 										}
-										if (!outboundChannel.isOpen()) {
-											return;
-										}
-										if (!selectionKey.isValid()) {
-											return;
-										}
-										selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
 									}
-								}
-							});
-		
-							selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+								});
+							}
 						} catch (IOException e) {
 							try {
 								outboundChannel.close();
@@ -170,4 +129,140 @@ public final class SocketListen implements Listen {
 			listening.failed(e);
 		}
 	}
+	
+	private static void accepted(Selector selector, final ByteBufferAllocator byteBufferAllocator, final ReadMode readMode, final SocketChannel outboundChannel, final Address clientAddress, SocketListening listening, final Runnable onClose) throws IOException {
+		final SelectionKey selectionKey = outboundChannel.register(selector, 0);
+		
+		final LinkedList<ByteBuffer> toWriteQueue = new LinkedList<ByteBuffer>();
+		final LinkedList<FileRegion> toWriteRegions = new LinkedList<FileRegion>(); // In the order of their markers in toWriteQueue
+		final WriteWatermark watermark = new WriteWatermark(null);
+		
+		final class Write implements CloseableByteBufferHandler, FileRegionHandler {
+			@Override
+			public void handle(Address address, FileRegion region) {
+				if (!outboundChannel.isOpen() || !selectionKey.isValid()) {
+					region.close();
+					return;
+				}
+				toWriteQueue.addLast(FileRegion.MARKER);
+				toWriteRegions.addLast(region);
+				selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+				watermark.queued(region.getRemaining());
+			}
+			@Override
+			public void handle(Address address, ByteBuffer buffer) {
+				if (!outboundChannel.isOpen()) {
+					return;
+				}
+				if (!selectionKey.isValid()) {
+					return;
+				}
+				toWriteQueue.addLast(buffer);
+				selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+				watermark.queued(buffer.remaining());
+			}
+			@Override
+			public void close() {
+				if (!outboundChannel.isOpen()) {
+					return;
+				}
+				if (!selectionKey.isValid()) {
+					return;
+				}
+				toWriteQueue.addLast(null);
+				selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+		
+		final CloseableByteBufferHandler read = listening.connected(clientAddress, new Write());
+		
+		watermark.setListener(read);
+		
+		selectionKey.attach(new SelectionKeyVisitor() {
+			private void closeChannel() {
+				try {
+					outboundChannel.close();
+				} catch (IOException ee) {
+				}
+				for (FileRegion r : toWriteRegions) {
+					r.close();
+				}
+				toWriteRegions.clear();
+				if (onClose != null) {
+					onClose.run();
+				}
+			}
+			
+			@Override
+			public void visit(SelectionKey key) {
+				if (!outboundChannel.isOpen()) {
+					return;
+				}
+				if (key.isReadable()) {
+					ByteBuffer readBuffer = ReadBuffers.allocate(readMode, byteBufferAllocator);
+					try {
+						int r = outboundChannel.read(readBuffer);
+						if (r < 0) {
+							LOGGER.debug("Closing client socket");
+							PooledByteBufferAllocator.release(readBuffer);
+							closeChannel();
+							read.close();
+						} else {
+							// LOGGER.debug("Received packet of {} bytes", r);
+							readBuffer.flip();
+							read.handle(clientAddress, ReadBuffers.toHandle(readMode, byteBufferAllocator, readBuffer));
+						}
+					} catch (IOException e) {
+						LOGGER.debug("Error on client socket", e);
+						PooledByteBufferAllocator.release(readBuffer);
+						closeChannel();
+						read.close();
+					}
+				} else if (key.isWritable()) {
+					while (!toWriteQueue.isEmpty()) {
+						ByteBuffer b = toWriteQueue.getFirst();
+						if (b == null) {
+							closeChannel();
+							return;
+						} else if (b == FileRegion.MARKER) {
+							// Sent from the file, as the socket drains
+							FileRegion r = toWriteRegions.getFirst();
+							try {
+								watermark.written(r.transferTo(outboundChannel));
+							} catch (IOException e) {
+								closeChannel();
+								read.close();
+								return;
+							}
+							if (r.getRemaining() > 0L) {
+								return;
+							}
+							toWriteRegions.removeFirst();
+							toWriteQueue.removeFirst();
+							r.close();
+						} else {
+							try {
+								if (!GatheringWriter.write(outboundChannel, toWriteQueue, watermark)) {
+									return;
+								}
+							} catch (IOException e) {
+								closeChannel();
+								read.close();
+								return;
+							}
+						}
+					}
+					if (!outboundChannel.isOpen()) {
+						return;
+					}
+					if (!selectionKey.isValid()) {
+						return;
+					}
+					selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+				}
+			}
+		});
+
+		selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+	}
 }
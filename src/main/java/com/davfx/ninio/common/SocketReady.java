@@ -12,10 +12,15 @@ import java.util.LinkedList;
 public final class SocketReady implements Ready {
 	private final Selector selector;
 	private final ByteBufferAllocator byteBufferAllocator;
+	private final ReadMode readMode;
 	
 	public SocketReady(Selector selector, ByteBufferAllocator byteBufferAllocator) {
+		this(selector, byteBufferAllocator, ReadMode.ALLOCATE);
+	}
+	public SocketReady(Selector selector, ByteBufferAllocator byteBufferAllocator, ReadMode readMode) {
 		this.selector = selector;
 		this.byteBufferAllocator = byteBufferAllocator;
+		this.readMode = readMode;
 	}
 	
 	@Override
@@ -37,6 +42,7 @@ public final class SocketReady implements Ready {
 							final SelectionKey selectionKey = channel.register(selector, 0);
 							
 							final LinkedList<ByteBuffer> toWriteQueue = new LinkedList<ByteBuffer>();
+							final WriteWatermark watermark = new WriteWatermark(connection);
 	
 							selectionKey.attach(new SelectionKeyVisitor() {
 								@Override
@@ -45,9 +51,10 @@ public final class SocketReady implements Ready {
 										return;
 									}
 									if (key.isReadable()) {
-										ByteBuffer readBuffer = byteBufferAllocator.allocate();
+										ByteBuffer readBuffer = ReadBuffers.allocate(readMode, byteBufferAllocator);
 										try {
 											if (channel.read(readBuffer) < 0) {
+												PooledByteBufferAllocator.release(readBuffer);
 												try {
 													channel.close();
 												} catch (IOException ee) {
@@ -55,9 +62,10 @@ public final class SocketReady implements Ready {
 												connection.close();
 											} else {
 												readBuffer.flip();
-												connection.handle(address, readBuffer);
+												connection.handle(address, ReadBuffers.toHandle(readMode, byteBufferAllocator, readBuffer));
 											}
 										} catch (IOException e) {
+											PooledByteBufferAllocator.release(readBuffer);
 											try {
 												channel.close();
 											} catch (IOException ee) {
@@ -75,7 +83,9 @@ public final class SocketReady implements Ready {
 												return;
 											} else {
 												try {
-													channel.write(b);
+													if (!GatheringWriter.write(channel, toWriteQueue, watermark)) {
+														return;
+													}
 												} catch (IOException e) {
 													try {
 														channel.close();
@@ -84,12 +94,6 @@ public final class SocketReady implements Ready {
 													connection.close();
 													return;
 												}
-												
-												if (b.hasRemaining()) {
-													return;
-												}
-												
-												toWriteQueue.removeFirst();
 											}
 										}
 										if (!selector.isOpen()) {
@@ -122,6 +126,7 @@ public final class SocketReady implements Ready {
 									}
 									toWriteQueue.addLast(buffer);
 									selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_WRITE);
+									watermark.queued(buffer.remaining());
 								}
 								@Override
 								public void close() {
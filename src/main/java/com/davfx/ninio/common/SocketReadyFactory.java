@@ -1,10 +1,18 @@
 package com.davfx.ninio.common;
 
 public final class SocketReadyFactory implements ReadyFactory {
+	private final ReadMode readMode;
 	public SocketReadyFactory() {
+		this(ReadMode.ALLOCATE);
+	}
+	public SocketReadyFactory(ReadMode readMode) {
+		this.readMode = readMode;
+	}
+	public ReadMode getReadMode() {
+		return readMode;
 	}
 	@Override
 	public Ready create(Queue queue) {
-		return new QueueReady(queue, new SocketReady(queue.getSelector(), queue.allocator()));
+		return new QueueReady(queue, new SocketReady(queue.getSelector(), queue.allocator(), readMode));
 	}
 }
@@ -56,7 +56,7 @@ public final class SslReady implements Ready {
 			return;
 		}
 		
-		wrappee.connect(address, new ReadyConnection() {
+		wrappee.connect(address, new WritabilityReadyConnection() {
 			private CloseableByteBufferHandler write;
 			private final Deque<ByteBuffer> sent = new LinkedList<ByteBuffer>();
 			private final Deque<ByteBuffer> received = new LinkedList<ByteBuffer>();
@@ -103,7 +103,7 @@ public final class SslReady implements Ready {
 				try {
 					SSLEngineResult r = engine.unwrap(b, unwrapBuffer);
 					if (!b.hasRemaining()) {
-						received.removeFirst();
+						PooledByteBufferAllocator.release(received.removeFirst());
 					}
 					
 					if (r.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
@@ -122,6 +122,8 @@ public final class SslReady implements Ready {
 							b0.get(b01.array(), 0, l0);
 							b1.get(b01.array(), l0, l1);
 							b01.limit(l0 + l1);
+							PooledByteBufferAllocator.release(b0);
+							PooledByteBufferAllocator.release(b1);
 							received.addFirst(b01);
 						}
 					}
@@ -134,6 +136,8 @@ public final class SslReady implements Ready {
 				unwrapBuffer.flip();
 				if (unwrapBuffer.hasRemaining()) {
 					connection.handle(address, unwrapBuffer);
+				} else {
+					PooledByteBufferAllocator.release(unwrapBuffer);
 				}
 				return !underflow;
 			}
@@ -148,7 +152,7 @@ public final class SslReady implements Ready {
 				try {
 					SSLEngineResult r = engine.wrap(b, wrapBuffer);
 					if (!b.hasRemaining()) {
-						sent.removeFirst();
+						PooledByteBufferAllocator.release(sent.removeFirst());
 					}
 
 					if (r.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
@@ -167,6 +171,8 @@ public final class SslReady implements Ready {
 				wrapBuffer.flip();
 				if (wrapBuffer.hasRemaining()) {
 					write.handle(address, wrapBuffer);
+				} else {
+					PooledByteBufferAllocator.release(wrapBuffer);
 				}
 				return true;
 			}
@@ -218,6 +224,13 @@ public final class SslReady implements Ready {
 				doContinue();
 			}
 			
+			@Override
+			public void writable(boolean writable) {
+				if (connection instanceof WritabilityListener) {
+					((WritabilityListener) connection).writable(writable);
+				}
+			}
+			
 			@Override
 			public void connected(final FailableCloseableByteBufferHandler write) {
 				this.write = write;
@@ -106,7 +106,7 @@ public final class SslSocketListening implements SocketListening {
 			try {
 				SSLEngineResult r = engine.unwrap(b, unwrapBuffer);
 				if (!b.hasRemaining()) {
-					received.removeFirst();
+					PooledByteBufferAllocator.release(received.removeFirst());
 				}
 				
 				if (r.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
@@ -125,6 +125,8 @@ public final class SslSocketListening implements SocketListening {
 						b0.get(b01.array(), 0, l0);
 						b1.get(b01.array(), l0, l1);
 						b01.limit(l0 + l1);
+						PooledByteBufferAllocator.release(b0);
+						PooledByteBufferAllocator.release(b1);
 						received.addFirst(b01);
 					}
 				}
@@ -137,6 +139,8 @@ public final class SslSocketListening implements SocketListening {
 			unwrapBuffer.flip();
 			if (unwrapBuffer.hasRemaining()) {
 				write.handle(address, unwrapBuffer);
+			} else {
+				PooledByteBufferAllocator.release(unwrapBuffer);
 			}
 			return !underflow;
 		}
@@ -154,7 +158,7 @@ public final class SslSocketListening implements SocketListening {
 			try {
 				SSLEngineResult r = engine.wrap(b, wrapBuffer);
 				if (!b.hasRemaining()) {
-					sent.removeFirst();
+					PooledByteBufferAllocator.release(sent.removeFirst());
 				}
 
 				if (r.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
@@ -173,6 +177,8 @@ public final class SslSocketListening implements SocketListening {
 			wrapBuffer.flip();
 			if (wrapBuffer.hasRemaining()) {
 				connection.handle(address, wrapBuffer);
+			} else {
+				PooledByteBufferAllocator.release(wrapBuffer);
 			}
 			return true;
 		}
@@ -220,20 +226,32 @@ public final class SslSocketListening implements SocketListening {
 			doContinue();
 		}
 		
-		CloseableByteBufferHandler handler(final CloseableByteBufferHandler write) {
+		CloseableByteBufferHandler handler(CloseableByteBufferHandler write) {
 			this.write = write;
-			return new CloseableByteBufferHandler() {
-				@Override
-				public void close() {
-					closeEngine();
-					write.close();
-				}
-				@Override
-				public void handle(Address address, ByteBuffer buffer) {
-					received.addLast(buffer);
-					doContinue();
+			return new Handler(write);
+		}
+		
+		private final class Handler implements CloseableByteBufferHandler, WritabilityListener {
+			private final CloseableByteBufferHandler write;
+			public Handler(CloseableByteBufferHandler write) {
+				this.write = write;
+			}
+			@Override
+			public void close() {
+				closeEngine();
+				write.close();
+			}
+			@Override
+			public void handle(Address address, ByteBuffer buffer) {
+				received.addLast(buffer);
+				doContinue();
+			}
+			@Override
+			public void writable(boolean writable) {
+				if (write instanceof WritabilityListener) {
+					((WritabilityListener) write).writable(writable);
 				}
-			};
+			}
 		}
 	}
 }
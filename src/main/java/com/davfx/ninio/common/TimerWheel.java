@@ -0,0 +1,157 @@
+package com.davfx.ninio.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// Hashed timer wheel, scheduling and cancelling are O(1), expiration cost only depends on the expiring timers
+// Not thread safe, should only be accessed from the thread advancing it
+public final class TimerWheel {
+	private static final Logger LOGGER = LoggerFactory.getLogger(TimerWheel.class);
+
+	public static interface Timer {
+		void cancel();
+	}
+
+	private final class Entry implements Timer {
+		private final long deadline;
+		private final Runnable task;
+		private Entry previous = null;
+		private Entry next = null;
+		private int slot = -1;
+		private boolean cancelled = false; // Checked before running, the timer may be cancelled by a task of the same expired batch
+
+		public Entry(long deadline, Runnable task) {
+			this.deadline = deadline;
+			this.task = task;
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			if (slot < 0) {
+				return;
+			}
+			unlink(this);
+		}
+	}
+
+	private final long tickNanos;
+	private final Entry[] slots;
+	private final int mask;
+	private final long start = System.nanoTime();
+	private long currentTick = 0L;
+	private long firstTick = 0L; // The slots of the ticks from currentTick to firstTick (excluded) are known to be empty
+	private int size = 0;
+
+	public TimerWheel(double tick, int slotCount) {
+		tickNanos = Math.max(1L, (long) (tick * 1000000000d));
+		int n = 1;
+		while (n < slotCount) {
+			n <<= 1;
+		}
+		slots = new Entry[n];
+		mask = n - 1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Timer schedule(double delay, Runnable task) {
+		long deadline = ((System.nanoTime() - start) + (long) (delay * 1000000000d) + tickNanos - 1L) / tickNanos;
+		if (deadline < currentTick) {
+			deadline = currentTick;
+		}
+		Entry e = new Entry(deadline, task);
+		link(e);
+		return e;
+	}
+
+	// Time before the next tick with timers to check (0 if some are late, may be early), or a negative value if nothing is scheduled
+	public double next() {
+		if (size == 0) {
+			return -1d;
+		}
+		long nowTick = (System.nanoTime() - start) / tickNanos;
+		for (long t = firstTick; t < (currentTick + slots.length); t++) {
+			if (slots[(int) (t & mask)] != null) {
+				firstTick = t;
+				if (t <= nowTick) {
+					return 0d;
+				}
+				return ((t * tickNanos) - (System.nanoTime() - start)) / 1000000000d;
+			}
+		}
+		return 0d;
+	}
+
+	public void advance() {
+		long nowTick = (System.nanoTime() - start) / tickNanos;
+		long last = Math.min(nowTick, currentTick + slots.length - 1L);
+		
+		// Expired timers are unlinked first, so that tasks can freely schedule and cancel
+		Entry expired = null;
+		currentTick = Math.max(currentTick, firstTick);
+		while (currentTick <= last) {
+			int slot = (int) (currentTick & mask);
+			Entry e = slots[slot];
+			while (e != null) {
+				Entry next = e.next;
+				if (e.deadline <= nowTick) {
+					unlink(e);
+					e.next = expired;
+					expired = e;
+				}
+				e = next;
+			}
+			currentTick++;
+		}
+		currentTick = nowTick + 1L;
+		firstTick = Math.max(firstTick, currentTick);
+		
+		while (expired != null) {
+			Entry e = expired;
+			expired = e.next;
+			e.next = null;
+			if (e.cancelled) {
+				continue;
+			}
+			try {
+				e.task.run();
+			} catch (Throwable t) {
+				LOGGER.error("Error in running timer", t);
+			}
+		}
+	}
+
+	private void link(Entry e) {
+		int slot = (int) (e.deadline & mask);
+		e.slot = slot;
+		long tick = currentTick + ((e.deadline - currentTick) & mask); // Tick of the slot in the current turn of the wheel
+		if (tick < firstTick) {
+			firstTick = tick;
+		}
+		e.previous = null;
+		e.next = slots[slot];
+		if (e.next != null) {
+			e.next.previous = e;
+		}
+		slots[slot] = e;
+		size++;
+	}
+
+	private void unlink(Entry e) {
+		if (e.previous == null) {
+			slots[e.slot] = e.next;
+		} else {
+			e.previous.next = e.next;
+		}
+		if (e.next != null) {
+			e.next.previous = e.previous;
+		}
+		e.previous = null;
+		e.next = null;
+		e.slot = -1;
+		size--;
+	}
+}
@@ -0,0 +1,7 @@
+package com.davfx.ninio.common;
+
+// Can be implemented by a ReadyConnection (or by the handler returned by SocketListening.connected) to be told when the connection write queue gets too big
+public interface WritabilityListener {
+	// Called with false when the pending bytes reach the high watermark, then with true once they are back under the low watermark
+	void writable(boolean writable);
+}
@@ -0,0 +1,4 @@
+package com.davfx.ninio.common;
+
+public interface WritabilityReadyConnection extends ReadyConnection, WritabilityListener {
+}
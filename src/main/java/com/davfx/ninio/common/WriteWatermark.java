@@ -0,0 +1,46 @@
+package com.davfx.ninio.common;
+
+import com.davfx.util.ConfigUtils;
+import com.typesafe.config.Config;
+
+final class WriteWatermark {
+	private static final Config CONFIG = ConfigUtils.load(WriteWatermark.class);
+	private static final long HIGH = CONFIG.getBytes("ninio.queue.write.watermark.high");
+	private static final long LOW = CONFIG.getBytes("ninio.queue.write.watermark.low");
+
+	private Object listener;
+	private long pending = 0L;
+	private boolean writable = true;
+	
+	public WriteWatermark(Object listener) {
+		this.listener = listener;
+	}
+	
+	public void setListener(Object listener) {
+		this.listener = listener;
+	}
+	
+	public long getPending() {
+		return pending;
+	}
+	
+	public void queued(long bytes) {
+		pending += bytes;
+		if (writable && (pending >= HIGH)) {
+			writable = false;
+			if (listener instanceof WritabilityListener) {
+				((WritabilityListener) listener).writable(false);
+			}
+		}
+	}
+
+	public void written(long bytes) {
+		pending -= bytes;
+		if (!writable && (pending <= LOW)) {
+			writable = true;
+			if (listener instanceof WritabilityListener) {
+				((WritabilityListener) listener).writable(true);
+			}
+		}
+	}
+}
@@ -131,8 +131,15 @@ final class GzipReader {
 		}
 		
 		if (r > 0) {
-			inflater.setInput(deflated.array(), deflated.position(), r);
-			deflated.position(deflated.position() + r);
+			if (deflated.hasArray()) {
+				inflater.setInput(deflated.array(), deflated.arrayOffset() + deflated.position(), r);
+				deflated.position(deflated.position() + r);
+			} else {
+				// The inflater keeps a reference to its input, a copy is given
+				byte[] d = new byte[r];
+				deflated.get(d);
+				inflater.setInput(d);
+			}
 			if (totalRemainingToRead >= 0) {
 				totalRemainingToRead -= r;
 			}
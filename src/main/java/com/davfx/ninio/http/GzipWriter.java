@@ -1,77 +1,136 @@
 package com.davfx.ninio.http;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.List;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 
+import com.davfx.ninio.common.ByteBufferAllocator;
 import com.davfx.ninio.common.ByteBufferHandler;
+import com.davfx.ninio.common.PooledByteBufferAllocator;
+import com.davfx.util.ConfigUtils;
+import com.typesafe.config.Config;
 
+// The compressed content is accumulated and only handed over in buffers of the configured size (and on close)
 final class GzipWriter {
-	private static final int BUFFER_SIZE = 4 * 1024;
+	private static final Config CONFIG = ConfigUtils.load(GzipWriter.class);
+	private static final int LEVEL = CONFIG.getInt("http.server.gzip.level");
+	private static final int BUFFER_SIZE = CONFIG.getBytes("http.server.gzip.buffer").intValue();
+	private static final long MIN = CONFIG.getBytes("http.server.gzip.min");
+	private static final List<String> TYPES = CONFIG.getStringList("http.server.gzip.types");
 
 	private static final int OS_TYPE_UNKNOWN = 0xFF;
+	private static final int FOOTER_SIZE = 8;
 
+	private final ByteBufferAllocator allocator;
 	private final ByteBufferHandler handler;
-	private boolean gzipHeaderWritten = false;
-	private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	private final Deflater deflater = new Deflater(LEVEL, true);
 	private final CRC32 crc = new CRC32();
+	private final byte[] output = new byte[BUFFER_SIZE];
+	private int length = 0;
+	private byte[] input = null; // Reused to copy the buffers without array
 
-	public GzipWriter(ByteBufferHandler handler) {
+	public GzipWriter(ByteBufferAllocator allocator, ByteBufferHandler handler) {
+		this.allocator = allocator;
 		this.handler = handler;
+		writeHeader();
 	}
-
-	private ByteBuffer buildGzipFooter() {
-		ByteBuffer b = ByteBuffer.allocate(8);
-		b.order(ByteOrder.LITTLE_ENDIAN);
-		b.putInt((int) (crc.getValue() & 0xFFFFFFFFL));
-		b.putInt(deflater.getTotalIn());
-		b.flip();
-		return b;
+	
+	// Compressed by the server without being asked by the handler (contentLength is -1 if unknown)
+	public static boolean compressible(String contentType, long contentLength) {
+		if ((contentType == null) || (contentLength < MIN)) {
+			return false;
+		}
+		for (String t : TYPES) {
+			if (contentType.regionMatches(true, 0, t, 0, t.length())) {
+				return true;
+			}
+		}
+		return false;
 	}
 
-	private static ByteBuffer buildGzipHeaders() {
+	private void writeHeader() {
 		int time = (int) (System.currentTimeMillis() / 1000L);
-		ByteBuffer b = ByteBuffer.allocate(10);
-		b.order(ByteOrder.LITTLE_ENDIAN);
-		b.putShort((short) GzipReader.GZIP_MAGIC);
-		b.put((byte) Deflater.DEFLATED);
-		b.put((byte) 0);
-		b.putInt(time);
-		b.put((byte) 0);
-		b.put((byte) OS_TYPE_UNKNOWN);
-		b.flip();
-		return b;
+		output[length++] = (byte) (GzipReader.GZIP_MAGIC & 0xFF);
+		output[length++] = (byte) ((GzipReader.GZIP_MAGIC >> 8) & 0xFF);
+		output[length++] = (byte) Deflater.DEFLATED;
+		output[length++] = 0;
+		writeInt(time);
+		output[length++] = 0;
+		output[length++] = (byte) OS_TYPE_UNKNOWN;
+	}
+	
+	// Little endian
+	private void writeInt(int v) {
+		output[length++] = (byte) (v & 0xFF);
+		output[length++] = (byte) ((v >> 8) & 0xFF);
+		output[length++] = (byte) ((v >> 16) & 0xFF);
+		output[length++] = (byte) ((v >> 24) & 0xFF);
 	}
 
 	public void handle(ByteBuffer buffer) {
-		deflater.setInput(buffer.array(), buffer.position(), buffer.remaining());
-		crc.update(buffer.array(), buffer.position(), buffer.remaining());
+		int n = buffer.remaining();
+		if (n == 0) {
+			return;
+		}
+		if (buffer.hasArray()) {
+			deflater.setInput(buffer.array(), buffer.arrayOffset() + buffer.position(), n);
+			crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), n);
+		} else {
+			// Direct or mapped buffer
+			if ((input == null) || (input.length < n)) {
+				input = new byte[Math.max(n, BUFFER_SIZE)];
+			}
+			buffer.get(input, 0, n);
+			deflater.setInput(input, 0, n);
+			crc.update(input, 0, n);
+		}
+		while (!deflater.needsInput()) {
+			deflate();
+		}
 		buffer.position(buffer.limit());
-		write();
+		PooledByteBufferAllocator.release(buffer);
 	}
 
 	public void close() {
 		deflater.finish();
-		write();
-		handler.handle(null, buildGzipFooter());
+		while (!deflater.finished()) {
+			deflate();
+		}
+		if ((output.length - length) < FOOTER_SIZE) {
+			flush();
+		}
+		writeInt((int) (crc.getValue() & 0xFFFFFFFFL));
+		writeInt(deflater.getTotalIn());
+		flush();
+		deflater.end();
+	}
+	
+	// Native memory is freed, nothing more is written
+	public void abort() {
+		deflater.end();
 	}
 
-	private void write() {
-		if (!gzipHeaderWritten) {
-			handler.handle(null, buildGzipHeaders());
-			gzipHeaderWritten = true;
+	private void deflate() {
+		if (length == output.length) {
+			flush();
 		}
-		while (true) {
-			ByteBuffer deflated = ByteBuffer.allocate(BUFFER_SIZE);
-			int c = deflater.deflate(deflated.array(), deflated.position(),
-					deflated.remaining());
-			if (c <= 0) {
-				break;
-			}
-			deflated.position(deflated.position() + c);
-			deflated.flip();
-			handler.handle(null, deflated);
+		length += deflater.deflate(output, length, output.length - length);
+	}
+	
+	private void flush() {
+		if (length == 0) {
+			return;
 		}
+		ByteBuffer b;
+		if (allocator instanceof PooledByteBufferAllocator) {
+			b = ((PooledByteBufferAllocator) allocator).allocate(length);
+		} else {
+			b = ByteBuffer.allocate(length);
+		}
+		b.put(output, 0, length);
+		b.flip();
+		length = 0;
+		handler.handle(null, b);
 	}
 }
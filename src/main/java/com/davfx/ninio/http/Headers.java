@@ -1,11 +1,11 @@
 package com.davfx.ninio.http;
 
-import java.util.HashMap;
 import java.util.Map;
 
+// Names are case-insensitive (as in HttpHeaders)
 public final class Headers {
 	private final Headers wrappee;
-	private final Map<String, String> map = new HashMap<String, String>();
+	private final Map<String, String> map = new HttpHeaders();
 	
 	public Headers() {
 		this(null);
@@ -17,7 +17,7 @@ public final class Headers {
 	
 	public String get(String key) {
 		String v = map.get(key);
-		if (v == null) {
+		if ((v == null) && (wrappee != null)) {
 			return wrappee.get(key);
 		}
 		return v;
@@ -27,6 +27,9 @@ public final class Headers {
 		return this;
 	}
 	public Iterable<String> keys() {
+		if (wrappee == null) {
+			return map.keySet();
+		}
 		return new UnionIterable<String>(map.keySet(), wrappee.keys());
 	}
 }
@@ -31,6 +31,19 @@ public interface Http {
 	String LOCATION = "Location";
 	String USER_AGENT = "User-Agent";
 	String ACCEPT = "Accept";
+	String DATE = "Date";
+	String SERVER = "Server";
+	String LAST_MODIFIED = "Last-Modified";
+	String ETAG = "ETag";
+	String IF_MODIFIED_SINCE = "If-Modified-Since";
+	String IF_NONE_MATCH = "If-None-Match";
+	String IF_RANGE = "If-Range";
+	String RANGE = "Range";
+	String CONTENT_RANGE = "Content-Range";
+	String ACCEPT_RANGES = "Accept-Ranges";
+	String BYTES = "bytes";
+	String VARY = "Vary";
+	String ALLOW = "Allow";
 
 	String DEFAULT_USER_AGENT = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_10_0) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/38.0.2125.111 Safari/537.36";
 	String DEFAULT_ACCEPT = "*/*";
@@ -64,14 +77,24 @@ public interface Http {
 	
 	interface Status {
 		int OK = 200;
+		int NO_CONTENT = 204;
+		int PARTIAL_CONTENT = 206;
+		int NOT_MODIFIED = 304;
+		int RANGE_NOT_SATISFIABLE = 416;
 		int INTERNAL_SERVER_ERROR = 500;
 		int NOT_FOUND = 404;
+		int METHOD_NOT_ALLOWED = 405;
 		int FORBIDDEN = 403;
 	}
 	interface Message {
 		String OK = "OK";
+		String NO_CONTENT = "No Content";
+		String PARTIAL_CONTENT = "Partial Content";
+		String NOT_MODIFIED = "Not Modified";
+		String RANGE_NOT_SATISFIABLE = "Range Not Satisfiable";
 		String INTERNAL_SERVER_ERROR = "Internal Server Error";
 		String NOT_FOUND = "Not found";
+		String METHOD_NOT_ALLOWED = "Method Not Allowed";
 		String FORBIDDEN = "Forbidden";
 	}
 	
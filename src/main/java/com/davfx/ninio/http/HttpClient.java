@@ -2,24 +2,25 @@ package com.davfx.ninio.http;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Date;
 import java.util.Deque;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.davfx.ninio.common.Address;
+import com.davfx.ninio.common.ByteBuffers;
 import com.davfx.ninio.common.Closeable;
 import com.davfx.ninio.common.CloseableByteBufferHandler;
 import com.davfx.ninio.common.FailableCloseableByteBufferHandler;
 import com.davfx.ninio.common.Ready;
 import com.davfx.ninio.common.ReadyConnection;
-import com.davfx.util.DateUtils;
+import com.davfx.ninio.common.TimerWheel;
 
 public final class HttpClient implements Closeable {
 	
@@ -29,52 +30,136 @@ public final class HttpClient implements Closeable {
 		public HttpResponseReader reader;
 		public HttpClientHandler handler;
 		public CloseableByteBufferHandler write;
-		public Date closeDate = null;
+		public TimerWheel.Timer closeTimer = null;
 		public boolean closed = false;
+		public final Deque<Pipelined> pipelined = new LinkedList<>(); // Requests written after the current one, responses come in the same order
+	}
+	
+	private static final class Pending {
+		public final HttpRequest request;
+		public final HttpClientHandler handler;
+		public final ReplayableWrite replay; // Null if ready has not been called yet
+		public Pending(HttpRequest request, HttpClientHandler handler, ReplayableWrite replay) {
+			this.request = request;
+			this.handler = handler;
+			this.replay = replay;
+		}
+	}
+	
+	private static final class Pipelined {
+		public final HttpRequest request;
+		public final HttpClientHandler handler;
+		public final HttpResponseReader reader;
+		public final ReplayableWrite replay;
+		public Pipelined(HttpRequest request, HttpClientHandler handler, HttpResponseReader reader, ReplayableWrite replay) {
+			this.request = request;
+			this.handler = handler;
+			this.reader = reader;
+			this.replay = replay;
+		}
+	}
+	
+	// Given to the handler of a pipelined request: what it writes is kept, to be written again if the request is sent again on another connection (ready is not called again)
+	private static final class ReplayableWrite implements CloseableByteBufferHandler {
+		private CloseableByteBufferHandler write;
+		private final List<ByteBuffer> written = new LinkedList<>();
+		public ReplayableWrite(CloseableByteBufferHandler write) {
+			this.write = write;
+		}
+		@Override
+		public void handle(Address address, ByteBuffer buffer) {
+			written.add(ByteBuffer.wrap(ByteBuffers.toArray(buffer))); // Copied, the buffer may be pooled
+			write.handle(address, buffer);
+		}
+		@Override
+		public void close() {
+			write.close();
+		}
+		// Called once the head has been written again
+		public void replay(CloseableByteBufferHandler to) {
+			write = to;
+			for (ByteBuffer b : written) {
+				to.handle(null, b.duplicate());
+			}
+		}
+	}
+	
+	private static final class Key {
+		public final Address address;
+		public final boolean secure;
+		public Key(Address address, boolean secure) {
+			this.address = address;
+			this.secure = secure;
+		}
+		@Override
+		public int hashCode() {
+			return Objects.hash(address, secure);
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return address.equals(other.address) && (secure == other.secure);
+		}
+	}
+	
+	// Connections to one address (open ones are either idle or in use), and requests waiting for a connection
+	private static final class Pool {
+		public final Deque<Recycler> idle = new LinkedList<>();
+		public final Deque<Pending> pending = new LinkedList<>();
+		public int connections = 0;
+		public final List<Recycler> pipelinable = new LinkedList<>(); // Recycled connections in use, known to keep alive
+		public boolean pipelining = true; // Set to false once the server is known not to support pipelining
 	}
 
 	private final HttpClientConfigurator configurator;
-	private final Map<Address, Deque<Recycler>> recyclers = new HashMap<Address, Deque<Recycler>>();
-	private volatile boolean closed = false;
+	private final Map<Key, Pool> pools = new HashMap<>(); // Only accessed from the queue thread
+	
+	private final AtomicLong hits = new AtomicLong(0L);
+	private final AtomicLong misses = new AtomicLong(0L);
+	private final AtomicLong evictions = new AtomicLong(0L);
+	private final AtomicLong waits = new AtomicLong(0L);
+	private final AtomicLong pipelined = new AtomicLong(0L);
 
 	public HttpClient(final HttpClientConfigurator configurator) {
 		this.configurator = configurator;
-		
-		configurator.recyclersCloserExecutor.scheduleAtFixedRate(new Runnable() {
-			@Override
-			public void run() {
-				if (closed) {
-					throw new RuntimeException("Stop requested");
-				}
-				
-				configurator.queue.post(new Runnable() {
-					@Override
-					public void run() {
-						Date now = new Date();
-						Iterator<Deque<Recycler>> recyclersIterator = recyclers.values().iterator();
-						while (recyclersIterator.hasNext()) {
-							Deque<Recycler> l = recyclersIterator.next();
-							Iterator<Recycler> i = l.iterator();
-							while (i.hasNext()) {
-								Recycler r = i.next();
-								if ((r.closeDate != null) && r.closeDate.before(now)) {
-									r.write.close();
-									i.remove();
-								}
-							}
-							if (l.isEmpty()) {
-								recyclersIterator.remove();
-							}
-						}
-					}
-				});
-			}
-		}, 0, (long) (configurator.recyclersCheckTime * 1000d), TimeUnit.MILLISECONDS);
 	}
 	
 	@Override
 	public void close() {
-		closed = true;
+		// Nothing to do, idle connections are closed by timers on the queue
+	}
+	
+	// Requests sent on a recycled connection
+	public long getHits() {
+		return hits.get();
+	}
+	// Requests that opened a new connection
+	public long getMisses() {
+		return misses.get();
+	}
+	// Idle connections closed by the pool (time to live or too many idle connections)
+	public long getEvictions() {
+		return evictions.get();
+	}
+	// Requests that waited for a connection because the address was at its limit
+	public long getWaits() {
+		return waits.get();
+	}
+	
+	// Requests written on a connection still waiting for a previous response
+	public long getPipelined() {
+		return pipelined.get();
+	}
+	
+	@Override
+	public String toString() {
+		return "HttpClient[hits=" + hits.get() + ", misses=" + misses.get() + ", evictions=" + evictions.get() + ", waits=" + waits.get() + ", pipelined=" + pipelined.get() + "]";
 	}
 	
 	public void send(HttpRequest request, HttpClientHandler clientHandler) {
@@ -86,177 +171,251 @@ public final class HttpClient implements Closeable {
 		configurator.queue.post(new Runnable() {
 			@Override
 			public void run() {
-				final HttpResponseReader reader = new HttpResponseReader(handler);
-				if (request.getMethod() != HttpRequest.Method.GET) {
-					Ready ready;
-					if (request.isSecure()) {
-						ready = configurator.secureReadyFactory.create(configurator.queue);
-					} else {
-						ready = configurator.readyFactory.create(configurator.queue);
-					}
-					ready.connect(request.getAddress(), new ReadyConnection() {
-						@Override
-						public void handle(Address address, ByteBuffer buffer) {
-							reader.handle(buffer, null);
-						}
-						
-						@Override
-						public void failed(IOException e) {
-							reader.failed(e);
-						}
-						
-						@Override
-						public void connected(final FailableCloseableByteBufferHandler write) {
-							write.handle(null, createRequest(request));
-							handler.ready(write);
-						}
-						
-						@Override
-						public void close() {
-							reader.close();
-						}
-					});
-					return;
+				Key key = new Key(request.getAddress(), request.isSecure());
+				Pool pool = pools.get(key);
+				if (pool == null) {
+					pool = new Pool();
+					pools.put(key, pool);
 				}
-				
-				Deque<Recycler> oldRecyclers = recyclers.get(request.getAddress());
+				// Pending requests go first, to keep the order
+				if (!pool.pending.isEmpty() || !send(key, pool, request, handler, null)) {
+					waits.incrementAndGet();
+					pool.pending.addLast(new Pending(request, handler, null));
+				}
+			}
+		});
+	}
+	
+	// Sends the pending requests that can be sent now
+	private void sendPending(Key key, Pool pool) {
+		while (!pool.pending.isEmpty()) {
+			Pending p = pool.pending.removeFirst(); // Removed before sending, as sending can be reentrant
+			if (!send(key, pool, p.request, p.handler, p.replay)) {
+				pool.pending.addFirst(p);
+				break;
+			}
+		}
+		if ((pool.connections == 0) && pool.pending.isEmpty() && (pools.get(key) == pool)) {
+			pools.remove(key);
+		}
+	}
+	
+	private void closed(Key key, Pool pool, Recycler recycler) {
+		if (recycler.closed) {
+			return;
+		}
+		recycler.closed = true;
+		if (recycler.closeTimer != null) {
+			recycler.closeTimer.cancel();
+			recycler.closeTimer = null;
+		}
+		pool.idle.remove(recycler);
+		pool.pipelinable.remove(recycler);
+		pool.connections--;
+		if (!recycler.pipelined.isEmpty()) {
+			// Requests not answered are sent again, without pipelining (only idempotent requests are pipelined), with what their handlers have already written
+			LOGGER.debug("Connection to {} closed with pipelined requests, pipelining disabled", key.address);
+			pool.pipelining = false;
+			while (!recycler.pipelined.isEmpty()) {
+				Pipelined p = recycler.pipelined.removeLast();
+				pool.pending.addFirst(new Pending(p.request, p.handler, p.replay));
+			}
+		}
+		sendPending(key, pool);
+	}
+	
+	// Returns false if the address is at its limit (nothing is done in this case)
+	private boolean send(final Key key, final Pool pool, final HttpRequest request, HttpClientHandler handler, final ReplayableWrite replay) {
+		final HttpResponseReader reader = new HttpResponseReader(handler);
+		
+		while (!pool.idle.isEmpty()) {
+			Recycler oldRecycler = pool.idle.removeFirst();
+			if (!oldRecycler.closed) {
+				LOGGER.trace("Recycling connection to {}", request.getAddress());
+				hits.incrementAndGet();
+				oldRecycler.reader = reader;
+				oldRecycler.handler = handler;
+				if (oldRecycler.closeTimer != null) {
+					oldRecycler.closeTimer.cancel();
+					oldRecycler.closeTimer = null;
+				}
+				if (configurator.pipelining && pool.pipelining) {
+					pool.pipelinable.add(oldRecycler);
+				}
+				oldRecycler.write.handle(null, createRequest(request));
+				if (replay == null) {
+					oldRecycler.handler.ready(oldRecycler.write);
+				} else {
+					replay.replay(oldRecycler.write);
+				}
+				return true;
+			}
+		}
+		
+		if (configurator.pipelining && pool.pipelining && (request.getMethod() == HttpRequest.Method.GET)) {
+			Recycler busyRecycler = null;
+			for (Recycler r : pool.pipelinable) {
+				if (r.pipelined.size() >= (configurator.pipeliningDepth - 1)) {
+					continue;
+				}
+				if ((busyRecycler == null) || (r.pipelined.size() < busyRecycler.pipelined.size())) {
+					busyRecycler = r;
+				}
+			}
+			if (busyRecycler != null) {
+				LOGGER.trace("Pipelining request to {}", request.getAddress());
+				hits.incrementAndGet();
+				pipelined.incrementAndGet();
+				ReplayableWrite w = (replay == null) ? new ReplayableWrite(busyRecycler.write) : replay;
+				busyRecycler.pipelined.addLast(new Pipelined(request, handler, reader, w));
+				busyRecycler.write.handle(null, createRequest(request));
+				if (replay == null) {
+					handler.ready(w);
+				} else {
+					replay.replay(busyRecycler.write);
+				}
+				return true;
+			}
+		}
+		
+		if ((configurator.maxConnectionsPerAddress > 0) && (pool.connections >= configurator.maxConnectionsPerAddress)) {
+			LOGGER.trace("Too many connections to {}, request is pending", request.getAddress());
+			return false;
+		}
+		
+		misses.incrementAndGet();
+		pool.connections++;
 
-				if (oldRecyclers != null) {
-					while (!oldRecyclers.isEmpty()) {
-						LOGGER.trace("Recycling connection to {}", request.getAddress());
-						Recycler oldRecycler = oldRecyclers.removeFirst();
-						if (oldRecyclers.isEmpty()) {
-							recyclers.remove(request.getAddress());
-						}
-						if (!oldRecycler.closed) {
-							oldRecycler.reader = reader;
-							oldRecycler.handler = handler;
-							oldRecycler.closeDate = null;
-							oldRecycler.write.handle(null, createRequest(request));
-							oldRecycler.handler.ready(oldRecycler.write);
-							return;
-						}
+		final Recycler newRecycler = new Recycler();
+		newRecycler.reader = reader;
+		newRecycler.handler = handler;
+		Ready ready;
+		if (request.isSecure()) {
+			ready = configurator.secureReadyFactory.create(configurator.queue);
+		} else {
+			ready = configurator.readyFactory.create(configurator.queue);
+		}
+		ready.connect(request.getAddress(), new ReadyConnection() {
+			private HttpResponseReader.RecyclingHandler recyclingHandler;
+			@Override
+			public void handle(Address address, ByteBuffer buffer) {
+				// With pipelining, the buffer can contain several responses
+				while (newRecycler.reader != null) {
+					HttpResponseReader r = newRecycler.reader;
+					r.handle(buffer, recyclingHandler);
+					if ((newRecycler.reader == r) || !buffer.hasRemaining()) {
+						break;
 					}
 				}
-
-				final Recycler newRecycler = new Recycler();
-				newRecycler.reader = reader;
-				newRecycler.handler = handler;
-				newRecycler.closeDate = null;
-				Ready ready;
-				if (request.isSecure()) {
-					ready = configurator.secureReadyFactory.create(configurator.queue);
-				} else {
-					ready = configurator.readyFactory.create(configurator.queue);
+				
+				// Run after the end of the response has been handled, the connection may have been recycled
+				sendPending(key, pool);
+			}
+			
+			@Override
+			public void failed(IOException e) {
+				HttpResponseReader r = newRecycler.reader;
+				closed(key, pool, newRecycler);
+				if (r == null) {
+					return;
+				}
+				r.failed(e);
+			}
+			
+			@Override
+			public void connected(final FailableCloseableByteBufferHandler write) {
+				if (newRecycler.handler == null) {
+					return;
 				}
-				ready.connect(request.getAddress(), new ReadyConnection() {
-					private HttpResponseReader.RecyclingHandler recyclingHandler;
+				
+				recyclingHandler = new HttpResponseReader.RecyclingHandler() {
 					@Override
-					public void handle(Address address, ByteBuffer buffer) {
-						if (newRecycler.reader == null) {
+					public void recycle() {
+						if (!newRecycler.pipelined.isEmpty()) {
+							Pipelined p = newRecycler.pipelined.removeFirst();
+							newRecycler.reader = p.reader;
+							newRecycler.handler = p.handler;
 							return;
 						}
 						
-						newRecycler.reader.handle(buffer, recyclingHandler);
-					}
-					
-					@Override
-					public void failed(IOException e) {
-						newRecycler.closed = true;
-						if (newRecycler.reader == null) {
+						newRecycler.reader = null;
+						newRecycler.handler = null;
+						pool.pipelinable.remove(newRecycler);
+						if (newRecycler.closed) {
 							return;
 						}
-						newRecycler.reader.failed(e);
-					}
-					
-					@Override
-					public void connected(final FailableCloseableByteBufferHandler write) {
-						if (newRecycler.handler == null) {
+						
+						if (pool.pending.isEmpty() && (pool.idle.size() >= configurator.maxIdlePerAddress)) {
+							LOGGER.trace("Too many idle connections to {}", request.getAddress());
+							evictions.incrementAndGet();
+							newRecycler.write.close();
 							return;
 						}
 						
-						recyclingHandler = new HttpResponseReader.RecyclingHandler() {
-							@Override
-							public void recycle() {
-								newRecycler.reader = null;
-								newRecycler.handler = null;
-								newRecycler.closeDate = DateUtils.from(DateUtils.from(new Date()) + configurator.recyclersTimeToLive);
-								Deque<Recycler> oldRecyclers = recyclers.get(request.getAddress());
-								if (oldRecyclers == null) {
-									oldRecyclers = new LinkedList<Recycler>();
-									recyclers.put(request.getAddress(), oldRecyclers);
-								}
-								oldRecyclers.add(newRecycler);
-							}
+						pool.idle.addLast(newRecycler);
+						newRecycler.closeTimer = configurator.queue.schedule(configurator.recyclersTimeToLive, new Runnable() {
 							@Override
-							public void close() {
-								write.close();
-							}
-						};
-
-						newRecycler.write = new CloseableByteBufferHandler() {
-							@Override
-							public void handle(Address address, ByteBuffer buffer) {
-								write.handle(address, buffer);
-							}
-							@Override
-							public void close() {
-								write.close();
-								newRecycler.closed = true;
-								if (newRecycler.reader == null) {
+							public void run() {
+								newRecycler.closeTimer = null;
+								if (!pool.idle.contains(newRecycler)) {
 									return;
 								}
-								newRecycler.reader.close();
+								evictions.incrementAndGet();
+								newRecycler.write.close();
 							}
-						};
-						write.handle(null, createRequest(request));
-						newRecycler.handler.ready(newRecycler.write);
+						});
 					}
-					
 					@Override
 					public void close() {
-						newRecycler.closed = true;
-						if (newRecycler.reader == null) {
+						write.close();
+						closed(key, pool, newRecycler);
+					}
+				};
+
+				newRecycler.write = new CloseableByteBufferHandler() {
+					@Override
+					public void handle(Address address, ByteBuffer buffer) {
+						write.handle(address, buffer);
+					}
+					@Override
+					public void close() {
+						write.close();
+						HttpResponseReader r = newRecycler.reader;
+						closed(key, pool, newRecycler);
+						if (r == null) {
 							return;
 						}
-						newRecycler.reader.close();
+						r.close();
 					}
-				});
+				};
+				write.handle(null, createRequest(request));
+				if (replay == null) {
+					newRecycler.handler.ready(newRecycler.write);
+				} else {
+					replay.replay(newRecycler.write);
+				}
+			}
+			
+			@Override
+			public void close() {
+				HttpResponseReader r = newRecycler.reader;
+				closed(key, pool, newRecycler);
+				if (r == null) {
+					return;
+				}
+				r.close();
 			}
 		});
+		return true;
 	}
 	
-	private static void appendHeader(StringBuilder buffer, String key, String value) {
-		buffer.append(key).append(Http.HEADER_KEY_VALUE_SEPARATOR).append(Http.HEADER_BEFORE_VALUE).append(value).append(Http.CR).append(Http.LF);
-	}
 	private static ByteBuffer createRequest(HttpRequest request) {
-		StringBuilder header = new StringBuilder();
-		header.append(request.getMethod().toString()).append(Http.START_LINE_SEPARATOR).append(request.getPath()).append(Http.START_LINE_SEPARATOR).append(Http.HTTP11).append(Http.CR).append(Http.LF);
-		
-		Map<String, String> headers = request.getHeaders();
-		
-		for (Map.Entry<String, String> h : headers.entrySet()) {
-			appendHeader(header, h.getKey(), h.getValue());
-		}
-		if (!headers.containsKey(Http.HOST)) {
-			appendHeader(header, Http.HOST, request.getAddress().getHost()); // Adding the port looks to fail with Apache/Coyote // + Http.PORT_SEPARATOR + request.getAddress().getPort());
-		}
-		if (!headers.containsKey(Http.ACCEPT_ENCODING)) {
-			appendHeader(header, Http.ACCEPT_ENCODING, Http.GZIP);
+		byte[] head = request.getPreparedHead();
+		if (head == null) {
+			head = HttpRequestHead.create(request.getMethod(), request.getPath(), request.getAddress(), request.getHeaders());
 		}
-		if (!headers.containsKey(Http.CONNECTION)) {
-			appendHeader(header, Http.CONNECTION, Http.KEEP_ALIVE);
-		}
-		if (!headers.containsKey(Http.USER_AGENT)) {
-			appendHeader(header, Http.USER_AGENT, Http.DEFAULT_USER_AGENT);
-		}
-		if (!headers.containsKey(Http.ACCEPT)) {
-			appendHeader(header, Http.ACCEPT, Http.DEFAULT_ACCEPT);
-		}
-		
-		header.append(Http.CR).append(Http.LF);
-		LOGGER.trace("Header: {}", header);
-		return ByteBuffer.wrap(header.toString().getBytes(Http.USASCII_CHARSET));
+		// Wrapped each time, as a prepared head is shared by all the sends
+		return ByteBuffer.wrap(head);
 	}
 	
 	private static class RedirectHandler implements HttpClientHandler {
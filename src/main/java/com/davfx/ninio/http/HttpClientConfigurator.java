@@ -1,13 +1,13 @@
 package com.davfx.ninio.http;
 
 import java.io.IOException;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
 import com.davfx.ninio.common.Address;
-import com.davfx.ninio.common.ClassThreadFactory;
 import com.davfx.ninio.common.Closeable;
 import com.davfx.ninio.common.Queue;
+import com.davfx.ninio.common.QueueGroup;
+import com.davfx.ninio.common.QueueGroupReadyFactory;
 import com.davfx.ninio.common.ReadyFactory;
 import com.davfx.ninio.common.SocketReadyFactory;
 import com.davfx.ninio.common.SslReadyFactory;
@@ -21,35 +21,42 @@ public final class HttpClientConfigurator implements Closeable {
 	
 	public final Queue queue;
 	private final boolean queueToClose;
+	// Not used anymore (idle connections are closed by timers on the queue), null unless given by the caller (who shuts it down)
+	@Deprecated
 	public final ScheduledExecutorService recyclersCloserExecutor;
-	private final boolean recyclersCloserExecutorToShutdown;
 	
 	public int maxRedirectLevels = CONFIG.getInt("http.redirect.max");
 	public double recyclersTimeToLive = ConfigUtils.getDuration(CONFIG, "http.recyclers.ttl");
+	// Not used anymore, idle connections are closed by timers on the queue (see Queue.schedule)
 	public double recyclersCheckTime = ConfigUtils.getDuration(CONFIG, "http.recyclers.check");
+	public int maxConnectionsPerAddress = CONFIG.getInt("http.pool.connections.max");
+	public int maxIdlePerAddress = CONFIG.getInt("http.pool.idle.max");
+	public boolean pipelining = CONFIG.getBoolean("http.pipelining.enabled");
+	public int pipeliningDepth = CONFIG.getInt("http.pipelining.depth");
 
 	public ReadyFactory readyFactory = new SocketReadyFactory();
 	public ReadyFactory secureReadyFactory = null;
 	public Trust trust = null;
 	public Address address = new Address("localhost", Http.DEFAULT_PORT);
 
-	private HttpClientConfigurator(Queue queue, boolean queueToClose, ScheduledExecutorService recyclersCloserExecutor, boolean recyclersCloserExecutorToShutdown) {
+	@SuppressWarnings("deprecation")
+	private HttpClientConfigurator(Queue queue, boolean queueToClose, ScheduledExecutorService recyclersCloserExecutor) {
 		this.queue = queue;
 		this.queueToClose = queueToClose;
 		this.recyclersCloserExecutor = recyclersCloserExecutor;
-		this.recyclersCloserExecutorToShutdown = recyclersCloserExecutorToShutdown;
 	}
 	
 	public HttpClientConfigurator() throws IOException {
-		this(new Queue(), true, Executors.newSingleThreadScheduledExecutor(new ClassThreadFactory(HttpClientConfigurator.class)), true);
+		this(new Queue(), true, null);
 	}
 
 	public HttpClientConfigurator(Queue queue) {
-		this(queue, false, Executors.newSingleThreadScheduledExecutor(new ClassThreadFactory(HttpClientConfigurator.class)), true);
+		this(queue, false, null);
 	}
 
+	@Deprecated
 	public HttpClientConfigurator(Queue queue, ScheduledExecutorService recyclersCloserExecutor) {
-		this(queue, false, recyclersCloserExecutor, false);
+		this(queue, false, recyclersCloserExecutor);
 	}
 
 	@Override
@@ -57,9 +64,6 @@ public final class HttpClientConfigurator implements Closeable {
 		if (queueToClose) {
 			queue.close();
 		}
-		if (recyclersCloserExecutorToShutdown) {
-			recyclersCloserExecutor.shutdown();
-		}
 	}
 	
 	public HttpClientConfigurator withTrust(Trust trust) {
@@ -68,6 +72,32 @@ public final class HttpClientConfigurator implements Closeable {
 		return this;
 	}
 
+	public HttpClientConfigurator withQueueGroup(QueueGroup queueGroup) {
+		readyFactory = new QueueGroupReadyFactory(queueGroup, readyFactory);
+		if (secureReadyFactory != null) {
+			secureReadyFactory = new QueueGroupReadyFactory(queueGroup, secureReadyFactory);
+		}
+		return this;
+	}
+
+	public HttpClientConfigurator withMaxConnectionsPerAddress(int maxConnectionsPerAddress) {
+		this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+		return this;
+	}
+	public HttpClientConfigurator withMaxIdlePerAddress(int maxIdlePerAddress) {
+		this.maxIdlePerAddress = maxIdlePerAddress;
+		return this;
+	}
+
+	public HttpClientConfigurator withPipelining(boolean pipelining) {
+		this.pipelining = pipelining;
+		return this;
+	}
+	public HttpClientConfigurator withPipeliningDepth(int pipeliningDepth) {
+		this.pipeliningDepth = pipeliningDepth;
+		return this;
+	}
+
 	public HttpClientConfigurator withHost(String host) {
 		address = new Address(host, address.getPort());
 		return this;
@@ -0,0 +1,219 @@
+package com.davfx.ninio.http;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Incremental parser of the start line and headers, shared by HttpRequestReader and HttpResponseReader
+// Bytes are scanned for LF directly in the received buffers and copied once, lines are handled as byte slices and only decoded on demand
+final class HttpHeadParser {
+
+	private static final int INITIAL_CAPACITY = 512;
+
+	private static final HttpRequest.Method[] METHODS = HttpRequest.Method.values();
+	private static final byte[][] METHOD_BYTES = new byte[METHODS.length][];
+	static {
+		for (int i = 0; i < METHODS.length; i++) {
+			METHOD_BYTES[i] = METHODS[i].toString().getBytes(Http.USASCII_CHARSET);
+		}
+	}
+
+	private static final byte[] HTTP10 = Http.HTTP10.getBytes(Http.USASCII_CHARSET);
+	private static final byte[] HTTP11 = Http.HTTP11.getBytes(Http.USASCII_CHARSET);
+
+	// Received names are replaced by these ones, whatever their case
+	private static final String[] KNOWN_HEADERS = {
+		Http.CONTENT_LENGTH,
+		Http.CONTENT_ENCODING,
+		Http.CONTENT_TYPE,
+		Http.ACCEPT_ENCODING,
+		Http.TRANSFER_ENCODING,
+		Http.HOST,
+		Http.CONNECTION,
+		Http.LOCATION,
+		Http.USER_AGENT,
+		Http.ACCEPT,
+	};
+	private static final byte[][] KNOWN_HEADERS_LOWER_CASE = new byte[KNOWN_HEADERS.length][];
+	static {
+		for (int i = 0; i < KNOWN_HEADERS.length; i++) {
+			KNOWN_HEADERS_LOWER_CASE[i] = KNOWN_HEADERS[i].toLowerCase().getBytes(Http.USASCII_CHARSET);
+		}
+	}
+
+	private byte[] bytes = new byte[INITIAL_CAPACITY];
+	private int length = 0;
+	private int lineEnd = -1; // Set when a full line has been read
+
+	public HttpHeadParser() {
+	}
+
+	// Returns false if more bytes are needed, the line is then accessible with the following methods (CRLF excluded)
+	public boolean readLine(ByteBuffer buffer) {
+		if (lineEnd >= 0) {
+			length = 0;
+			lineEnd = -1;
+		}
+
+		int position = buffer.position();
+		int limit = buffer.limit();
+		int lf = -1;
+		if (buffer.hasArray()) {
+			byte[] a = buffer.array();
+			int offset = buffer.arrayOffset();
+			for (int i = position; i < limit; i++) {
+				if (a[offset + i] == Http.LF) {
+					lf = i;
+					break;
+				}
+			}
+		} else {
+			for (int i = position; i < limit; i++) {
+				if (buffer.get(i) == Http.LF) {
+					lf = i;
+					break;
+				}
+			}
+		}
+
+		int n = ((lf < 0) ? limit : (lf + 1)) - position;
+		if ((length + n) > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + n));
+		}
+		buffer.get(bytes, length, n);
+		length += n;
+
+		if (lf < 0) {
+			return false;
+		}
+
+		lineEnd = length - 1;
+		if ((lineEnd > 0) && (bytes[lineEnd - 1] == Http.CR)) {
+			lineEnd--;
+		}
+		return true;
+	}
+
+	public boolean isLineEmpty() {
+		return lineEnd == 0;
+	}
+
+	public int lineLength() {
+		return lineEnd;
+	}
+
+	// -1 if not found
+	public int indexOf(char c, int from) {
+		for (int i = from; i < lineEnd; i++) {
+			if (bytes[i] == c) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public String string(int from, int to) {
+		return new String(bytes, from, to - from, Http.DEFAULT_CHARSET);
+	}
+
+	// As String.trim does (bytes are signed)
+	private static boolean isSpace(byte b) {
+		return (b >= 0) && (b <= ' ');
+	}
+
+	// The value is added without being decoded, false if the line is not a header
+	public boolean header(HttpHeaders headers) {
+		int i = indexOf(Http.HEADER_KEY_VALUE_SEPARATOR, 0);
+		if (i < 0) {
+			return false;
+		}
+		int s = i + 1;
+		int e = lineEnd;
+		while ((s < e) && isSpace(bytes[s])) {
+			s++;
+		}
+		while ((e > s) && isSpace(bytes[e - 1])) {
+			e--;
+		}
+		headers.add(headerName(0, i), bytes, s, e);
+		return true;
+	}
+
+	public String lineToString() {
+		return string(0, lineLength());
+	}
+
+	private boolean equals(int from, int to, byte[] b) {
+		if ((to - from) != b.length) {
+			return false;
+		}
+		for (int i = 0; i < b.length; i++) {
+			if (bytes[from + i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean equalsIgnoreCase(int from, int to, byte[] lowerCase) {
+		if ((to - from) != lowerCase.length) {
+			return false;
+		}
+		for (int i = 0; i < lowerCase.length; i++) {
+			int c = bytes[from + i];
+			if ((c >= 'A') && (c <= 'Z')) {
+				c += 'a' - 'A';
+			}
+			if (c != lowerCase[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Null if unknown
+	public HttpRequest.Method method(int from, int to) {
+		for (int i = 0; i < METHOD_BYTES.length; i++) {
+			if (equals(from, to, METHOD_BYTES[i])) {
+				return METHODS[i];
+			}
+		}
+		return null;
+	}
+
+	// Null if not HTTP/1.0 nor HTTP/1.1
+	public Boolean http11(int from, int to) {
+		if (equals(from, to, HTTP11)) {
+			return true;
+		}
+		if (equals(from, to, HTTP10)) {
+			return false;
+		}
+		return null;
+	}
+
+	// -1 if not a positive number
+	public int number(int from, int to) {
+		if ((from == to) || ((to - from) > 9)) {
+			return -1;
+		}
+		int n = 0;
+		for (int i = from; i < to; i++) {
+			int d = bytes[i] - '0';
+			if ((d < 0) || (d > 9)) {
+				return -1;
+			}
+			n = (n * 10) + d;
+		}
+		return n;
+	}
+
+	// Well-known names are not decoded, the constant is returned
+	private String headerName(int from, int to) {
+		for (int i = 0; i < KNOWN_HEADERS_LOWER_CASE.length; i++) {
+			if (equalsIgnoreCase(from, to, KNOWN_HEADERS_LOWER_CASE[i])) {
+				return KNOWN_HEADERS[i];
+			}
+		}
+		return string(from, to);
+	}
+}
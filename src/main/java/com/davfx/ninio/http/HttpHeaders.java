@@ -0,0 +1,296 @@
+package com.davfx.ninio.http;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// Ordered, case-insensitive headers, a name can have several values
+// As a Map, each name appears once with its first value (as returned by get), all() and getAll(name) give all the values
+// Well-known names are the Http constants (received ones are replaced by them), they are compared by reference first
+// Received values are kept as bytes and only decoded when accessed
+// Arrays are only allocated with the first header
+public final class HttpHeaders extends AbstractMap<String, String> {
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int INITIAL_RAW_CAPACITY = 512;
+
+	private String[] names = null;
+	private String[] values = null; // Null if not decoded yet
+	private int[] rawFrom = null;
+	private int[] rawTo = null;
+	private byte[] raw = null;
+	private int rawLength = 0;
+	private int size = 0;
+	private boolean locked = false;
+
+	public HttpHeaders() {
+	}
+
+	public HttpHeaders(Map<String, String> headers) {
+		Iterable<Map.Entry<String, String>> i = (headers instanceof HttpHeaders) ? ((HttpHeaders) headers).all() : headers.entrySet();
+		for (Map.Entry<String, String> h : i) {
+			add(h.getKey(), h.getValue());
+		}
+	}
+
+	// Modifications are not allowed anymore
+	void lock() {
+		locked = true;
+	}
+
+	private void checkLocked() {
+		if (locked) {
+			throw new UnsupportedOperationException("Headers cannot be modified");
+		}
+	}
+
+	private void ensure() {
+		if (names == null) {
+			names = new String[INITIAL_CAPACITY];
+			values = new String[INITIAL_CAPACITY];
+			rawFrom = new int[INITIAL_CAPACITY];
+			rawTo = new int[INITIAL_CAPACITY];
+		} else if (size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+			rawFrom = Arrays.copyOf(rawFrom, size * 2);
+			rawTo = Arrays.copyOf(rawTo, size * 2);
+		}
+	}
+
+	private int indexOf(Object name, int from) {
+		if (!(name instanceof String)) {
+			return -1;
+		}
+		String n = (String) name;
+		for (int i = from; i < size; i++) {
+			String s = names[i];
+			if ((s == n) || s.equalsIgnoreCase(n)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private String value(int i) {
+		String v = values[i];
+		if (v == null) {
+			v = new String(raw, rawFrom[i], rawTo[i] - rawFrom[i], Http.DEFAULT_CHARSET);
+			values[i] = v;
+		}
+		return v;
+	}
+
+	private void removeAt(int i) {
+		int n = size - i - 1;
+		System.arraycopy(names, i + 1, names, i, n);
+		System.arraycopy(values, i + 1, values, i, n);
+		System.arraycopy(rawFrom, i + 1, rawFrom, i, n);
+		System.arraycopy(rawTo, i + 1, rawTo, i, n);
+		size--;
+		names[size] = null;
+		values[size] = null;
+	}
+
+	public void add(String name, String value) {
+		checkLocked();
+		if ((name == null) || (value == null)) {
+			throw new NullPointerException();
+		}
+		ensure();
+		names[size] = name;
+		values[size] = value;
+		size++;
+	}
+
+	// Used by the readers, the bytes are copied
+	void add(String name, byte[] bytes, int from, int to) {
+		ensure();
+		int n = to - from;
+		if (raw == null) {
+			raw = new byte[Math.max(INITIAL_RAW_CAPACITY, n)];
+		} else if ((rawLength + n) > raw.length) {
+			raw = Arrays.copyOf(raw, Math.max(raw.length * 2, rawLength + n));
+		}
+		System.arraycopy(bytes, from, raw, rawLength, n);
+		names[size] = name;
+		values[size] = null;
+		rawFrom[size] = rawLength;
+		rawTo[size] = rawLength + n;
+		rawLength += n;
+		size++;
+	}
+
+	private boolean first(int i) {
+		return indexOf(names[i], 0) == i;
+	}
+
+	// All the values of a name, in order
+	public List<String> getAll(String name) {
+		List<String> l = new ArrayList<>();
+		int i = indexOf(name, 0);
+		while (i >= 0) {
+			l.add(value(i));
+			i = indexOf(name, i + 1);
+		}
+		return l;
+	}
+
+	// The first value
+	@Override
+	public String get(Object name) {
+		int i = indexOf(name, 0);
+		if (i < 0) {
+			return null;
+		}
+		return value(i);
+	}
+
+	@Override
+	public boolean containsKey(Object name) {
+		return indexOf(name, 0) >= 0;
+	}
+
+	// Replaces all the values of the name
+	@Override
+	public String put(String name, String value) {
+		checkLocked();
+		int i = indexOf(name, 0);
+		if (i < 0) {
+			add(name, value);
+			return null;
+		}
+		String previous = value(i);
+		values[i] = value;
+		int j = indexOf(name, i + 1);
+		while (j >= 0) {
+			removeAt(j);
+			j = indexOf(name, j);
+		}
+		return previous;
+	}
+
+	// Removes all the values of the name, the first one is returned
+	@Override
+	public String remove(Object name) {
+		checkLocked();
+		int i = indexOf(name, 0);
+		if (i < 0) {
+			return null;
+		}
+		String previous = value(i);
+		while (i >= 0) {
+			removeAt(i);
+			i = indexOf(name, i);
+		}
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		checkLocked();
+		if (names != null) {
+			Arrays.fill(names, 0, size, null);
+			Arrays.fill(values, 0, size, null);
+		}
+		size = 0;
+		rawLength = 0;
+	}
+
+	// Number of distinct names
+	@Override
+	public int size() {
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			if (first(i)) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	// Iterates over the names with their first value, removing an entry removes all the values of its name
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		return new AbstractSet<Map.Entry<String, String>>() {
+			@Override
+			public int size() {
+				return HttpHeaders.this.size();
+			}
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return new EntryIterator(true);
+			}
+		};
+	}
+
+	// All the headers, in order, several times the same name if it has several values
+	public Iterable<Map.Entry<String, String>> all() {
+		return new Iterable<Map.Entry<String, String>>() {
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return new EntryIterator(false);
+			}
+		};
+	}
+
+	private final class EntryIterator implements Iterator<Map.Entry<String, String>> {
+		private final boolean distinct;
+		private int next = 0;
+		private int current = -1;
+		public EntryIterator(boolean distinct) {
+			this.distinct = distinct;
+			skip();
+		}
+		private void skip() {
+			if (distinct) {
+				while ((next < size) && !first(next)) {
+					next++;
+				}
+			}
+		}
+		@Override
+		public boolean hasNext() {
+			return next < size;
+		}
+		@Override
+		public Map.Entry<String, String> next() {
+			if (next >= size) {
+				throw new NoSuchElementException();
+			}
+			current = next;
+			next++;
+			skip();
+			return new AbstractMap.SimpleImmutableEntry<>(names[current], value(current));
+		}
+		@Override
+		public void remove() {
+			if (current < 0) {
+				throw new IllegalStateException();
+			}
+			checkLocked();
+			if (distinct) {
+				String name = names[current];
+				int removed = 0;
+				int i = current;
+				while (i >= 0) {
+					if (i < next) {
+						removed++;
+					}
+					removeAt(i);
+					i = indexOf(name, i);
+				}
+				next -= removed;
+			} else {
+				removeAt(current);
+				next--;
+			}
+			current = -1;
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package com.davfx.ninio.http;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import com.davfx.ninio.common.Address;
@@ -28,18 +27,24 @@ public final class HttpRequest {
 	private final boolean secure;
 	private final Method method;
 	private final String path;
-	private final Map<String, String> headers;
+	private final HttpHeaders headers;
+	private final byte[] head;
 	
-	public HttpRequest(Address address, boolean secure, Method method, String path, Map<String, String> headers) {
+	private HttpRequest(Address address, boolean secure, Method method, String path, HttpHeaders headers, byte[] head) {
 		this.address = address;
 		this.secure = secure;
 		this.method = method;
 		this.path = path;
 		this.headers = headers;
+		this.head = head;
+	}
+	
+	public HttpRequest(Address address, boolean secure, Method method, String path, Map<String, String> headers) {
+		this(address, secure, method, path, (headers instanceof HttpHeaders) ? (HttpHeaders) headers : new HttpHeaders(headers), null);
 	}
 	
 	public HttpRequest(Address address, boolean secure, Method method, String path) {
-		this(address, secure, method, path, new HashMap<String, String>());
+		this(address, secure, method, path, new HttpHeaders());
 	}
 	
 	public Address getAddress() {
@@ -54,7 +59,22 @@ public final class HttpRequest {
 	public String getPath() {
 		return path;
 	}
-	public Map<String, String> getHeaders() {
+	public HttpHeaders getHeaders() {
 		return headers;
 	}
+	
+	// The returned request is serialized once and can be sent repeatedly without any serialization (its headers cannot be modified anymore)
+	public HttpRequest prepare() {
+		if (head != null) {
+			return this;
+		}
+		HttpHeaders h = new HttpHeaders(headers);
+		h.lock();
+		return new HttpRequest(address, secure, method, path, h, HttpRequestHead.create(method, path, address, h));
+	}
+	
+	// Null if not prepared
+	byte[] getPreparedHead() {
+		return head;
+	}
 }
@@ -0,0 +1,91 @@
+package com.davfx.ninio.http;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.davfx.ninio.common.Address;
+
+// Writes the request line and headers directly as US-ASCII bytes, the default header lines are encoded once
+final class HttpRequestHead {
+	
+	private static final byte[] CRLF = { (byte) Http.CR, (byte) Http.LF };
+	private static final byte[] HEADER_SEPARATOR = { (byte) Http.HEADER_KEY_VALUE_SEPARATOR, (byte) Http.HEADER_BEFORE_VALUE };
+	private static final byte[] VERSION = ascii(Http.START_LINE_SEPARATOR + Http.HTTP11 + Http.CR + Http.LF);
+	private static final byte[] HOST = ascii(Http.HOST + Http.HEADER_KEY_VALUE_SEPARATOR + Http.HEADER_BEFORE_VALUE);
+	private static final byte[] ACCEPT_ENCODING_LINE = line(Http.ACCEPT_ENCODING, Http.GZIP);
+	private static final byte[] CONNECTION_LINE = line(Http.CONNECTION, Http.KEEP_ALIVE);
+	private static final byte[] USER_AGENT_LINE = line(Http.USER_AGENT, Http.DEFAULT_USER_AGENT);
+	private static final byte[] ACCEPT_LINE = line(Http.ACCEPT, Http.DEFAULT_ACCEPT);
+	
+	private static final int INITIAL_CAPACITY = 512;
+
+	private static byte[] ascii(String s) {
+		return s.getBytes(Http.USASCII_CHARSET);
+	}
+	private static byte[] line(String key, String value) {
+		return ascii(key + Http.HEADER_KEY_VALUE_SEPARATOR + Http.HEADER_BEFORE_VALUE + value + Http.CR + Http.LF);
+	}
+	
+	private byte[] bytes = new byte[INITIAL_CAPACITY];
+	private int length = 0;
+	
+	private HttpRequestHead() {
+	}
+	
+	private void ensure(int n) {
+		if ((length + n) > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + n));
+		}
+	}
+	private void write(byte[] b) {
+		ensure(b.length);
+		System.arraycopy(b, 0, bytes, length, b.length);
+		length += b.length;
+	}
+	private void write(String s) {
+		int n = s.length();
+		ensure(n);
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			bytes[length] = (c < 0x80) ? (byte) c : (byte) '?'; // As String.getBytes(US-ASCII) does
+			length++;
+		}
+	}
+	
+	public static byte[] create(HttpRequest.Method method, String path, Address address, HttpHeaders headers) {
+		HttpRequestHead head = new HttpRequestHead();
+		head.write(method.toString());
+		head.ensure(1);
+		head.bytes[head.length] = (byte) Http.START_LINE_SEPARATOR;
+		head.length++;
+		head.write(path);
+		head.write(VERSION);
+		
+		for (Map.Entry<String, String> h : headers.all()) {
+			head.write(h.getKey());
+			head.write(HEADER_SEPARATOR);
+			head.write(h.getValue());
+			head.write(CRLF);
+		}
+		if (!headers.containsKey(Http.HOST)) {
+			head.write(HOST);
+			head.write(address.getHost()); // Adding the port looks to fail with Apache/Coyote // + Http.PORT_SEPARATOR + request.getAddress().getPort());
+			head.write(CRLF);
+		}
+		if (!headers.containsKey(Http.ACCEPT_ENCODING)) {
+			head.write(ACCEPT_ENCODING_LINE);
+		}
+		if (!headers.containsKey(Http.CONNECTION)) {
+			head.write(CONNECTION_LINE);
+		}
+		if (!headers.containsKey(Http.USER_AGENT)) {
+			head.write(USER_AGENT_LINE);
+		}
+		if (!headers.containsKey(Http.ACCEPT)) {
+			head.write(ACCEPT_LINE);
+		}
+		
+		head.write(CRLF);
+		return Arrays.copyOf(head.bytes, head.length);
+	}
+}
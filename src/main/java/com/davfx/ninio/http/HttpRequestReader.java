@@ -2,20 +2,25 @@ package com.davfx.ninio.http;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.davfx.ninio.common.Address;
+import com.davfx.ninio.common.ByteBufferAllocator;
 import com.davfx.ninio.common.ByteBufferHandler;
 import com.davfx.ninio.common.CloseableByteBufferHandler;
+import com.davfx.ninio.common.FileRegion;
+import com.davfx.ninio.common.FileRegionHandler;
+import com.davfx.ninio.common.PooledByteBufferAllocator;
+import com.davfx.ninio.common.WritabilityListener;
 
-final class HttpRequestReader implements CloseableByteBufferHandler {
+final class HttpRequestReader implements CloseableByteBufferHandler, WritabilityListener {
 	private static final Logger LOGGER = LoggerFactory.getLogger(HttpRequestReader.class);
 
-	private final LineReader lineReader = new LineReader();
+	private final HttpHeadParser parser = new HttpHeadParser();
 	private boolean headersRead = false;
 	private boolean requestLineRead = false;
 	private long contentLength;
@@ -24,77 +29,60 @@ final class HttpRequestReader implements CloseableByteBufferHandler {
 	private String requestPath;
 	private boolean http11;
 	private boolean enableGzip = false;
-	private final Map<String, String> headers = new HashMap<String, String>();
+	private HttpHeaders headers = null; // New for each request
 	private boolean failClose = false;
 	private boolean closed = false;
 	private final Address address;
 	private final boolean secure;
+	private final boolean compress; // Compressible responses are compressed on the fly, without being asked by the handler
 
 	private final HttpServerHandler handler;
 	private final CloseableByteBufferHandler write;
+	private final ByteBufferAllocator allocator;
+	private InnerWrite currentWrite = null;
+	private boolean writable = true;
 	
-	private final Map<String, String> headerSanitization = new HashMap<String, String>();
-	
-	public HttpRequestReader(Address address, boolean secure, HttpServerHandler handler, CloseableByteBufferHandler write) {
+	public HttpRequestReader(Address address, boolean secure, boolean compress, HttpServerHandler handler, CloseableByteBufferHandler write, ByteBufferAllocator allocator) {
 		this.address = address;
 		this.secure = secure;
+		this.compress = compress;
 		this.handler = handler;
 		this.write = write;
-
-		headerSanitization.put(Http.CONTENT_LENGTH.toLowerCase(), Http.CONTENT_LENGTH);
-		headerSanitization.put(Http.CONTENT_ENCODING.toLowerCase(), Http.CONTENT_ENCODING);
-		headerSanitization.put(Http.CONTENT_TYPE.toLowerCase(), Http.CONTENT_TYPE);
-		headerSanitization.put(Http.ACCEPT_ENCODING.toLowerCase(), Http.ACCEPT_ENCODING);
-		headerSanitization.put(Http.TRANSFER_ENCODING.toLowerCase(), Http.TRANSFER_ENCODING);
+		this.allocator = allocator;
 	}
 	
-	private void addHeader(String headerLine) throws IOException {
-		int i = headerLine.indexOf(Http.HEADER_KEY_VALUE_SEPARATOR);
-		if (i < 0) {
-			throw new IOException("Invalid header: " + headerLine);
+	private void addHeader() throws IOException {
+		if (!parser.header(headers)) {
+			throw new IOException("Invalid header: " + parser.lineToString());
 		}
-		String key = headerLine.substring(0, i);
-		String sanitizedKey = headerSanitization.get(key.toLowerCase());
-		if (sanitizedKey != null) {
-			key = sanitizedKey;
-		}
-		String value = headerLine.substring(i + 1).trim();
-		headers.put(key, value);
 	}
-	private void setRequestLine(String requestLine) throws IOException {
-		int i = requestLine.indexOf(Http.START_LINE_SEPARATOR);
+	private void setRequestLine() throws IOException {
+		int i = parser.indexOf(Http.START_LINE_SEPARATOR, 0);
 		if (i < 0) {
-			throw new IOException("Invalid request: " + requestLine);
+			throw new IOException("Invalid request: " + parser.lineToString());
 		}
-		int j = requestLine.indexOf(Http.START_LINE_SEPARATOR, i + 1);
+		int j = parser.indexOf(Http.START_LINE_SEPARATOR, i + 1);
 		if (j < 0) {
-			throw new IOException("Invalid request: " + requestLine);
-		}
-		requestMethod = null;
-		String m = requestLine.substring(0, i);
-		for (HttpRequest.Method method : HttpRequest.Method.values()) {
-			if (method.toString().equals(m)) {
-				requestMethod = method;
-				break;
-			}
+			throw new IOException("Invalid request: " + parser.lineToString());
 		}
+		requestMethod = parser.method(0, i);
 		if (requestMethod == null) {
-			throw new IOException("Invalid request: " + requestLine);
+			throw new IOException("Invalid request: " + parser.lineToString());
 		}
-		requestPath = requestLine.substring(i + 1, j);
-		String requestVersion = requestLine.substring(j + 1);
-		if (requestVersion.equals(Http.HTTP10)) {
-			http11 = false;
-		} else if (requestVersion.equals(Http.HTTP11)) {
-			http11 = true;
-		} else {
+		requestPath = parser.string(i + 1, j);
+		Boolean v = parser.http11(j + 1, parser.lineLength());
+		if (v == null) {
 			throw new IOException("Unsupported version");
 		}
+		http11 = v;
 	}
 	
 	@Override
 	public void close() {
 		LOGGER.debug("Closing");
+		if (currentWrite != null) {
+			currentWrite.release();
+		}
 		if (failClose) {
 			if (!closed) {
 				closed = true;
@@ -108,6 +96,17 @@ final class HttpRequestReader implements CloseableByteBufferHandler {
 		}
 	}
 	
+	@Override
+	public void writable(boolean writable) {
+		this.writable = writable;
+		if (writable && (currentWrite != null)) {
+			currentWrite.pumpRegions();
+		}
+		if (handler instanceof WritabilityListener) {
+			((WritabilityListener) handler).writable(writable);
+		}
+	}
+	
 	@Override
 	public void handle(Address address, ByteBuffer buffer) {
 		if (!buffer.hasRemaining()) {
@@ -117,21 +116,22 @@ final class HttpRequestReader implements CloseableByteBufferHandler {
 			failClose = true;
 			
 			while (!requestLineRead) {
-				String line = lineReader.handle(buffer);
-				if (line == null) {
+				if (!parser.readLine(buffer)) {
 					return;
 				}
-				LOGGER.trace("Request line: {}", line);
-				setRequestLine(line);
+				if (LOGGER.isTraceEnabled()) {
+					LOGGER.trace("Request line: {}", parser.lineToString());
+				}
+				setRequestLine();
 				requestLineRead = true;
+				headers = new HttpHeaders();
 			}
 	
 			while (!headersRead) {
-				String line = lineReader.handle(buffer);
-				if (line == null) {
+				if (!parser.readLine(buffer)) {
 					return;
 				}
-				if (line.isEmpty()) {
+				if (parser.isLineEmpty()) {
 					LOGGER.trace("Header line empty");
 					headersRead = true;
 					String accept = headers.get(Http.ACCEPT_ENCODING);
@@ -157,11 +157,14 @@ final class HttpRequestReader implements CloseableByteBufferHandler {
 						}
 					} else {
 						contentLength = 0;
-						handler.ready(new InnerWrite()); // Yes, can be so cool for ws://
+						currentWrite = new InnerWrite();
+						handler.ready(currentWrite); // Yes, can be so cool for ws://
 					}
 				} else {
-					LOGGER.trace("Header line: {}", line);
-					addHeader(line);
+					if (LOGGER.isTraceEnabled()) {
+						LOGGER.trace("Header line: {}", parser.lineToString());
+					}
+					addHeader();
 				}
 			}
 
@@ -189,7 +192,8 @@ final class HttpRequestReader implements CloseableByteBufferHandler {
 					countRead = 0;
 					requestLineRead = false; // another connection possible
 					headersRead = false;
-					handler.ready(new InnerWrite());
+					currentWrite = new InnerWrite();
+					handler.ready(currentWrite);
 				}
 			}
 		} catch (IOException e) {
@@ -201,21 +205,94 @@ final class HttpRequestReader implements CloseableByteBufferHandler {
 		}
 	}
 	
-	private final class InnerWrite implements HttpServerHandler.Write {
+	private final class InnerWrite implements HttpServerHandler.Write, FileRegionHandler {
 		private long countWrite = 0;
 		private long writeContentLength = -1;
 		private boolean chunked = false;
+		private boolean noContent = false;
 		private GzipWriter gzipWriter;
 		private boolean innerClosed = false;
+		private ByteBuffer pending = null; // Head waiting for the content, to be written in the same buffer
+		private final LinkedList<FileRegion> regions = new LinkedList<>(); // Mapped in chunks as the connection drains
+		private boolean closeRequested = false;
 		
 		public InnerWrite() {
 		}
 		
+		// Transferred from the file if the connection supports it (not with SSL, gzip or chunks)
+		@Override
+		public void handle(Address address, FileRegion region) {
+			if (innerClosed || closeRequested) {
+				region.close();
+				return;
+			}
+			if (regions.isEmpty() && (gzipWriter == null) && !chunked && (write instanceof FileRegionHandler)) {
+				countWrite += region.getRemaining();
+				flush();
+				((FileRegionHandler) write).handle(null, region);
+				return;
+			}
+			regions.addLast(region);
+			pumpRegions();
+		}
+		
+		void pumpRegions() {
+			try {
+				while (writable && !regions.isEmpty()) {
+					FileRegion r = regions.getFirst();
+					ByteBuffer b = r.map(FileRegion.MAPPED_CHUNK);
+					if (r.getRemaining() == 0L) {
+						regions.removeFirst();
+						r.close();
+					}
+					if (gzipWriter != null) {
+						gzipWriter.handle(b);
+					} else {
+						doWrite(b);
+					}
+				}
+			} catch (IOException ioe) {
+				LOGGER.error("Could not read file", ioe);
+				failed(ioe);
+				return;
+			}
+			if (regions.isEmpty() && closeRequested) {
+				closeRequested = false;
+				close();
+			}
+		}
+		
+		// Files and compression memory, when the response is interrupted
+		void release() {
+			for (FileRegion r : regions) {
+				r.close();
+			}
+			regions.clear();
+			if (gzipWriter != null) {
+				gzipWriter.abort();
+				gzipWriter = null;
+			}
+		}
+		
+		private void flush() {
+			if (pending == null) {
+				return;
+			}
+			ByteBuffer b = pending;
+			pending = null;
+			b.flip();
+			write.handle(null, b);
+		}
+		
 		@Override
 		public void close() {
 			if (innerClosed) {
 				return;
 			}
+			if (!regions.isEmpty()) {
+				closeRequested = true; // Closed once the regions are sent
+				return;
+			}
 			
 			innerClosed = true;
 			
@@ -223,14 +300,14 @@ final class HttpRequestReader implements CloseableByteBufferHandler {
 				gzipWriter.close();
 			}
 			
+			flush();
+			
 			if (http11) {
 				if (chunked) {
-					write.handle(address, LineReader.toBuffer(Integer.toHexString(0)));
-					write.handle(address, LineReader.toBuffer(""));
-					return;
+					write.handle(address, HttpResponseHead.lastChunk());
 				}
 				
-				if ((writeContentLength >= 0) && (countWrite == writeContentLength)) {
+				if (chunked || noContent || ((writeContentLength >= 0) && (countWrite == writeContentLength))) {
 					failClose = false;
 					countRead = 0;
 					requestLineRead = false; // another connection possible
@@ -250,6 +327,9 @@ final class HttpRequestReader implements CloseableByteBufferHandler {
 				return;
 			}
 			
+			PooledByteBufferAllocator.release(pending);
+			pending = null;
+			release();
 			closed = true;
 			write.close();
 		}
@@ -260,9 +340,28 @@ final class HttpRequestReader implements CloseableByteBufferHandler {
 				return;
 			}
 			
-			if (http11) {
-				if (enableGzip && Http.GZIP.equalsIgnoreCase(response.getHeaders().get(Http.CONTENT_ENCODING))) {
-					gzipWriter = new GzipWriter(new ByteBufferHandler() {
+			// No content follows, whatever the headers
+			noContent = (requestMethod == HttpRequest.Method.HEAD) || (response.getStatus() == Http.Status.NO_CONTENT) || (response.getStatus() == Http.Status.NOT_MODIFIED);
+			
+			String contentLengthValue = response.getHeaders().get(Http.CONTENT_LENGTH);
+			if (contentLengthValue != null) {
+				try {
+					writeContentLength = Long.parseLong(contentLengthValue);
+				} catch (NumberFormatException e) {
+				}
+			} else {
+				// Don't fallback anymore because of websockets // chunked = true; // Forced
+			}
+			
+			String contentEncoding = response.getHeaders().get(Http.CONTENT_ENCODING);
+			// Already compressed if its length is given
+			boolean encoded = Http.GZIP.equalsIgnoreCase(contentEncoding) && (contentLengthValue != null);
+			// Compressed without being asked by the handler, depending on the type and length of the content
+			boolean compressible = compress && !noContent && (response.getStatus() == Http.Status.OK) && (contentEncoding == null) && GzipWriter.compressible(response.getHeaders().get(Http.CONTENT_TYPE), writeContentLength);
+			
+			if (http11 && !noContent) {
+				if (enableGzip && ((!encoded && Http.GZIP.equalsIgnoreCase(contentEncoding)) || compressible)) {
+					gzipWriter = new GzipWriter(allocator, new ByteBufferHandler() {
 						@Override
 						public void handle(Address address, ByteBuffer buffer) {
 							doWrite(buffer);
@@ -275,39 +374,18 @@ final class HttpRequestReader implements CloseableByteBufferHandler {
 				}
 			}
 			
-			String contentLengthValue = response.getHeaders().get(Http.CONTENT_LENGTH);
-			if (contentLengthValue != null) {
-				try {
-					writeContentLength = Integer.parseInt(contentLengthValue);
-				} catch (NumberFormatException e) {
-				}
-			} else {
-				// Don't fallback anymore because of websockets // chunked = true; // Forced
-			}
-			
-			write.handle(null, LineReader.toBuffer((http11 ? Http.HTTP11 : Http.HTTP10) + Http.START_LINE_SEPARATOR + response.getStatus() + Http.START_LINE_SEPARATOR + response.getReason()));
-			for (Map.Entry<String, String> h : response.getHeaders().entrySet()) {
-				String k = h.getKey();
-				String v = h.getValue();
-				if (gzipWriter != null) {
-					if (k.equals(Http.CONTENT_LENGTH)) {
-						continue;
-					}
-					if (k.equals(Http.TRANSFER_ENCODING)) {
-						continue;
-					}
-				}
-				if (!http11) {
-					if (k.equals(Http.CONTENT_ENCODING)) {
-						continue;
-					}
-				}
-				write.handle(null, LineReader.toBuffer(k + Http.HEADER_KEY_VALUE_SEPARATOR + Http.HEADER_BEFORE_VALUE + v));
+			// A small content is expected right after the head, both are sent together
+			int extra = 0;
+			if (!chunked && !noContent && (writeContentLength > 0) && (writeContentLength <= HttpResponseHead.COALESCE)) {
+				extra = (int) writeContentLength;
 			}
-			if (chunked) {
-				write.handle(null, LineReader.toBuffer(Http.TRANSFER_ENCODING + Http.HEADER_KEY_VALUE_SEPARATOR + Http.HEADER_BEFORE_VALUE + Http.CHUNKED));
+			ByteBuffer head = HttpResponseHead.create(allocator, response, http11, chunked, gzipWriter != null, encoded, compressible, extra);
+			if (extra > 0) {
+				pending = head;
+			} else {
+				head.flip();
+				write.handle(null, head);
 			}
-			write.handle(null, LineReader.toBuffer(""));
 		}
 		
 		@Override
@@ -327,14 +405,34 @@ final class HttpRequestReader implements CloseableByteBufferHandler {
 			if (!buffer.hasRemaining()) {
 				return;
 			}
-			if (chunked) {
-				write.handle(null, LineReader.toBuffer(Integer.toHexString(buffer.remaining())));
+			int n = buffer.remaining();
+			countWrite += n;
+			
+			if (pending != null) {
+				if (n <= pending.remaining()) {
+					pending.put(buffer);
+					PooledByteBufferAllocator.release(buffer);
+					if (!pending.hasRemaining()) {
+						flush();
+					}
+					return;
+				}
+				flush();
 			}
-			countWrite += buffer.remaining();
-			write.handle(null, buffer);
+			
 			if (chunked) {
-				write.handle(null, LineReader.toBuffer(""));
+				if (n <= HttpResponseHead.COALESCE) {
+					write.handle(null, HttpResponseHead.chunk(allocator, buffer));
+					PooledByteBufferAllocator.release(buffer);
+				} else {
+					write.handle(null, HttpResponseHead.chunkStart(n));
+					write.handle(null, buffer);
+					write.handle(null, HttpResponseHead.chunkEnd());
+				}
+				return;
 			}
+			
+			write.handle(null, buffer);
 		}
 	}
 	
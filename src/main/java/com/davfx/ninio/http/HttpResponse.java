@@ -1,21 +1,20 @@
 package com.davfx.ninio.http;
 
-import java.util.HashMap;
 import java.util.Map;
 
 public final class HttpResponse {
 	
 	private final int status;
 	private final String reason;
-	private final Map<String, String> headers;
+	private final HttpHeaders headers;
 	
 	public HttpResponse(int status, String reason, Map<String, String> headers) {
 		this.status = status;
 		this.reason = reason;
-		this.headers = headers;
+		this.headers = (headers instanceof HttpHeaders) ? (HttpHeaders) headers : new HttpHeaders(headers);
 	}
 	public HttpResponse(int status, String reason) {
-		this(status, reason, new HashMap<String, String>());
+		this(status, reason, new HttpHeaders());
 	}
 
 	public int getStatus() {
@@ -26,7 +25,7 @@ public final class HttpResponse {
 		return reason;
 	}
 	
-	public Map<String, String> getHeaders() {
+	public HttpHeaders getHeaders() {
 		return headers;
 	}
 }
\ No newline at end of file
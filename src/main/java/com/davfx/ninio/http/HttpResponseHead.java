@@ -0,0 +1,210 @@
+package com.davfx.ninio.http;
+
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import com.davfx.ninio.common.ByteBufferAllocator;
+import com.davfx.ninio.common.PooledByteBufferAllocator;
+import com.davfx.util.ConfigUtils;
+import com.typesafe.config.Config;
+
+// Writes the status line and headers of a response in a single buffer, and the chunk framing around the payloads
+final class HttpResponseHead {
+
+	private static final Config CONFIG = ConfigUtils.load(HttpResponseHead.class);
+	private static final String SERVER = CONFIG.getString("http.server.name");
+	public static final int COALESCE = CONFIG.getBytes("http.server.coalesce").intValue();
+
+	private static final byte[] CRLF = { (byte) Http.CR, (byte) Http.LF };
+	private static final byte[] HEADER_SEPARATOR = { (byte) Http.HEADER_KEY_VALUE_SEPARATOR, (byte) Http.HEADER_BEFORE_VALUE };
+	private static final byte[] HTTP10 = (Http.HTTP10 + Http.START_LINE_SEPARATOR).getBytes(Http.USASCII_CHARSET);
+	private static final byte[] HTTP11 = (Http.HTTP11 + Http.START_LINE_SEPARATOR).getBytes(Http.USASCII_CHARSET);
+	private static final byte[] CHUNKED_LINE = line(Http.TRANSFER_ENCODING, Http.CHUNKED);
+	private static final byte[] SERVER_LINE = line(Http.SERVER, SERVER);
+	private static final byte[] GZIP_LINE = line(Http.CONTENT_ENCODING, Http.GZIP);
+	private static final byte[] VARY_LINE = line(Http.VARY, Http.ACCEPT_ENCODING);
+	private static final byte[] LAST_CHUNK = (Integer.toHexString(0) + Http.CR + Http.LF + Http.CR + Http.LF).getBytes(Http.USASCII_CHARSET);
+
+	private static byte[] line(String key, String value) {
+		return (key + Http.HEADER_KEY_VALUE_SEPARATOR + Http.HEADER_BEFORE_VALUE + value + Http.CR + Http.LF).getBytes(Http.USASCII_CHARSET);
+	}
+
+	// The Date line only changes every second
+	private static final class DateLine {
+		public final long second;
+		public final byte[] line;
+		public DateLine(long second) {
+			this.second = second;
+			SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			line = line(Http.DATE, format.format(new Date(second * 1000L)));
+		}
+	}
+	private static volatile DateLine dateLine = new DateLine(System.currentTimeMillis() / 1000L);
+
+	private static byte[] dateLine() {
+		long second = System.currentTimeMillis() / 1000L;
+		DateLine d = dateLine;
+		if (d.second != second) {
+			d = new DateLine(second);
+			dateLine = d;
+		}
+		return d.line;
+	}
+
+	private HttpResponseHead() {
+	}
+
+	private static ByteBuffer allocate(ByteBufferAllocator allocator, int size) {
+		if (allocator instanceof PooledByteBufferAllocator) {
+			return ((PooledByteBufferAllocator) allocator).allocate(size);
+		}
+		return ByteBuffer.allocate(size);
+	}
+
+	private static void put(ByteBuffer buffer, String s) {
+		int n = s.length();
+		for (int i = 0; i < n; i++) {
+			char c = s.charAt(i);
+			buffer.put((c < 0x80) ? (byte) c : (byte) '?'); // As String.getBytes(US-ASCII) does
+		}
+	}
+
+	private static boolean skip(String key, boolean http11, boolean chunked, boolean gzip, boolean encoded) {
+		if (key.equalsIgnoreCase(Http.TRANSFER_ENCODING)) {
+			return chunked; // Replaced
+		}
+		if (key.equalsIgnoreCase(Http.CONTENT_LENGTH)) {
+			return gzip;
+		}
+		if (key.equalsIgnoreCase(Http.CONTENT_ENCODING)) {
+			return !http11 && !encoded;
+		}
+		return false;
+	}
+
+	// The entity tag of the compressed content differs from the one given for the identity content (as in FileHttpServerHandler)
+	private static String gzipEtag(String etag) {
+		String suffix = "-" + Http.GZIP + "\"";
+		if (!etag.endsWith("\"") || etag.endsWith(suffix) || (etag.length() < 2)) {
+			return etag;
+		}
+		return etag.substring(0, etag.length() - 1) + suffix;
+	}
+
+	private static String value(Map.Entry<String, String> header, boolean gzip) {
+		if (gzip && header.getKey().equalsIgnoreCase(Http.ETAG)) {
+			return gzipEtag(header.getValue());
+		}
+		return header.getValue();
+	}
+
+	private static boolean varies(String vary) {
+		if (vary == null) {
+			return false;
+		}
+		for (String s : vary.split("\\" + Http.MULTIPLE_SEPARATOR)) {
+			s = s.trim();
+			if (s.equals(Http.WILDCARD) || s.equalsIgnoreCase(Http.ACCEPT_ENCODING)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// The returned buffer is not flipped, extra bytes are left after the head (to be filled with the content)
+	// gzip if the content is compressed on the fly, encoded if it is already compressed, compressible if it depends on the client
+	public static ByteBuffer create(ByteBufferAllocator allocator, HttpResponse response, boolean http11, boolean chunked, boolean gzip, boolean encoded, boolean compressible, int extra) {
+		String status = String.valueOf(response.getStatus());
+		HttpHeaders headers = response.getHeaders();
+		byte[] date = headers.containsKey(Http.DATE) ? null : dateLine();
+		boolean server = !headers.containsKey(Http.SERVER);
+		boolean contentEncoding = gzip && !headers.containsKey(Http.CONTENT_ENCODING);
+		boolean vary = (compressible || gzip) && !varies(headers.get(Http.VARY)); // Another Vary line is added if the given one does not list Accept-Encoding
+
+		int size = HTTP11.length + status.length() + 1 + response.getReason().length() + CRLF.length;
+		for (Map.Entry<String, String> h : headers.all()) {
+			if (skip(h.getKey(), http11, chunked, gzip, encoded)) {
+				continue;
+			}
+			size += h.getKey().length() + HEADER_SEPARATOR.length + value(h, gzip).length() + CRLF.length;
+		}
+		if (date != null) {
+			size += date.length;
+		}
+		if (server) {
+			size += SERVER_LINE.length;
+		}
+		if (chunked) {
+			size += CHUNKED_LINE.length;
+		}
+		if (contentEncoding) {
+			size += GZIP_LINE.length;
+		}
+		if (vary) {
+			size += VARY_LINE.length;
+		}
+		size += CRLF.length;
+
+		ByteBuffer b = allocate(allocator, size + extra);
+		b.put(http11 ? HTTP11 : HTTP10);
+		put(b, status);
+		b.put((byte) Http.START_LINE_SEPARATOR);
+		put(b, response.getReason());
+		b.put(CRLF);
+		for (Map.Entry<String, String> h : headers.all()) {
+			if (skip(h.getKey(), http11, chunked, gzip, encoded)) {
+				continue;
+			}
+			put(b, h.getKey());
+			b.put(HEADER_SEPARATOR);
+			put(b, value(h, gzip));
+			b.put(CRLF);
+		}
+		if (date != null) {
+			b.put(date);
+		}
+		if (server) {
+			b.put(SERVER_LINE);
+		}
+		if (chunked) {
+			b.put(CHUNKED_LINE);
+		}
+		if (contentEncoding) {
+			b.put(GZIP_LINE);
+		}
+		if (vary) {
+			b.put(VARY_LINE);
+		}
+		b.put(CRLF);
+		return b;
+	}
+
+	// Size line, payload and CRLF in one buffer (the payload is consumed)
+	public static ByteBuffer chunk(ByteBufferAllocator allocator, ByteBuffer payload) {
+		String size = Integer.toHexString(payload.remaining());
+		ByteBuffer b = allocate(allocator, size.length() + CRLF.length + payload.remaining() + CRLF.length);
+		put(b, size);
+		b.put(CRLF);
+		b.put(payload);
+		b.put(CRLF);
+		b.flip();
+		return b;
+	}
+
+	public static ByteBuffer chunkStart(int size) {
+		return ByteBuffer.wrap((Integer.toHexString(size) + Http.CR + Http.LF).getBytes(Http.USASCII_CHARSET));
+	}
+
+	public static ByteBuffer chunkEnd() {
+		return ByteBuffer.wrap(CRLF);
+	}
+
+	public static ByteBuffer lastChunk() {
+		return ByteBuffer.wrap(LAST_CHUNK);
+	}
+}
@@ -2,8 +2,6 @@ package com.davfx.ninio.http;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,7 +14,7 @@ final class HttpResponseReader {
 		void close();
 	}
 	
-	private final LineReader lineReader = new LineReader();
+	private final HttpHeadParser parser = new HttpHeadParser();
 	private boolean headersRead = false;
 	private boolean responseLineRead = false;
 	private boolean chunked;
@@ -31,7 +29,7 @@ final class HttpResponseReader {
 //	private String responseVersion;
 	private int responseCode;
 	private String responseReason;
-	private final Map<String, String> headers = new HashMap<String, String>();
+	private final HttpHeaders headers = new HttpHeaders();
 	private boolean failClose = false;
 	private boolean closed = false;
 	private boolean ended = false;
@@ -43,39 +41,30 @@ final class HttpResponseReader {
 		this.handler = handler;
 	}
 	
-	private void addHeader(String headerLine) throws IOException {
-		int i = headerLine.indexOf(Http.HEADER_KEY_VALUE_SEPARATOR);
-		if (i < 0) {
-			throw new IOException("Invalid header: " + headerLine);
+	private void addHeader() throws IOException {
+		if (!parser.header(headers)) {
+			throw new IOException("Invalid header: " + parser.lineToString());
 		}
-		String key = headerLine.substring(0, i);
-		String value = headerLine.substring(i + 1).trim();
-		headers.put(key, value);
 	}
-	private void setResponseLine(String responseLine) throws IOException {
-		int i = responseLine.indexOf(Http.START_LINE_SEPARATOR);
+	private void setResponseLine() throws IOException {
+		int i = parser.indexOf(Http.START_LINE_SEPARATOR, 0);
 		if (i < 0) {
-			throw new IOException("Invalid response: " + responseLine);
+			throw new IOException("Invalid response: " + parser.lineToString());
 		}
-		int j = responseLine.indexOf(Http.START_LINE_SEPARATOR, i + 1);
+		int j = parser.indexOf(Http.START_LINE_SEPARATOR, i + 1);
 		if (j < 0) {
-			throw new IOException("Invalid response: " + responseLine);
+			throw new IOException("Invalid response: " + parser.lineToString());
 		}
-		String responseVersion = responseLine.substring(0, i);
-		if (responseVersion.equals(Http.HTTP10)) {
-			http11 = false;
-		} else if (responseVersion.equals(Http.HTTP11)) {
-			http11 = true;
-		} else {
+		Boolean v = parser.http11(0, i);
+		if (v == null) {
 			throw new IOException("Unsupported version");
 		}
-		String code = responseLine.substring(i + 1, j);
-		try {
-			responseCode = Integer.parseInt(code);
-		} catch (NumberFormatException e) {
-			throw new IOException("Invalid status code: " + code);
+		http11 = v;
+		responseCode = parser.number(i + 1, j);
+		if (responseCode < 0) {
+			throw new IOException("Invalid status code: " + parser.string(i + 1, j));
 		}
-		responseReason = responseLine.substring(j + 1);
+		responseReason = parser.string(j + 1, parser.lineLength());
 	}
 	
 	public void close() {
@@ -111,20 +100,20 @@ final class HttpResponseReader {
 			
 			failClose = true;
 			while (!responseLineRead) {
-				String line = lineReader.handle(buffer);
-				if (line == null) {
+				if (!parser.readLine(buffer)) {
 					return;
 				}
-				LOGGER.trace("Response line: {}", line);
-				setResponseLine(line);
+				if (LOGGER.isTraceEnabled()) {
+					LOGGER.trace("Response line: {}", parser.lineToString());
+				}
+				setResponseLine();
 				responseLineRead = true;
 			}
 			while (!headersRead) {
-				String line = lineReader.handle(buffer);
-				if (line == null) {
+				if (!parser.readLine(buffer)) {
 					return;
 				}
-				if (line.isEmpty()) {
+				if (parser.isLineEmpty()) {
 					LOGGER.trace("Header line empty");
 					headersRead = true;
 					String contentLengthValue = headers.get(Http.CONTENT_LENGTH);
@@ -146,8 +135,10 @@ final class HttpResponseReader {
 					keepAlive = http11 && Http.KEEP_ALIVE.equalsIgnoreCase(headers.get(Http.CONNECTION));
 					handler.received(new HttpResponse(responseCode, responseReason, headers));
 				} else {
-					LOGGER.trace("Header line: {}", line);
-					addHeader(line);
+					if (LOGGER.isTraceEnabled()) {
+						LOGGER.trace("Header line: {}", parser.lineToString());
+					}
+					addHeader();
 				}
 			}
 			
@@ -156,11 +147,10 @@ final class HttpResponseReader {
 				while (true) {
 				
 					while (!chunkFooterRead) {
-						String line = lineReader.handle(buffer);
-						if (line == null) {
+						if (!parser.readLine(buffer)) {
 							return;
 						}
-						if (!line.isEmpty()) {
+						if (!parser.isLineEmpty()) {
 							throw new IOException("Invalid chunk footer");
 						}
 						chunkFooterRead = true;
@@ -179,19 +169,20 @@ final class HttpResponseReader {
 								ended = true;
 								handler.close();
 							}
+							return; // Remaining bytes belong to the next (pipelined) response
 						}
 					}
 
 					while (!chunkHeaderRead) {
-						String line = lineReader.handle(buffer);
-						if (line == null) {
+						if (!parser.readLine(buffer)) {
 							return;
 						}
 						failClose = true;
-						int i = line.indexOf(Http.EXTENSION_SEPARATOR);
-						if (i > 0) { // extensions ignored
-							line = line.substring(0, i);
-						}
+						int i = parser.indexOf(Http.EXTENSION_SEPARATOR, 0);
+						if (i < 0) {
+							i = parser.lineLength();
+						} // else extensions ignored
+						String line = parser.string(0, i);
 						try {
 							chunkLength = Integer.parseInt(line, 16);
 						} catch (NumberFormatException e) {
@@ -4,14 +4,26 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import com.davfx.ninio.common.Address;
+import com.davfx.ninio.common.ByteBufferAllocator;
 import com.davfx.ninio.common.CloseableByteBufferHandler;
 import com.davfx.ninio.common.Listen;
+import com.davfx.ninio.common.Queue;
 import com.davfx.ninio.common.QueueListen;
+import com.davfx.ninio.common.ReadMode;
 import com.davfx.ninio.common.SocketListen;
 import com.davfx.ninio.common.SocketListening;
 import com.davfx.ninio.common.SslSocketListening;
 
 public final class HttpServer {
+	// The allocator of the queue handling the connection being accepted
+	private static ByteBufferAllocator allocator(HttpServerConfigurator configurator) {
+		if (configurator.queueGroup == null) {
+			return configurator.queue.allocator();
+		}
+		Queue queue = configurator.queueGroup.current();
+		return (queue == null) ? configurator.queue.allocator() : queue.allocator();
+	}
+	
 	public HttpServer(final HttpServerConfigurator configurator, final HttpServerHandlerFactory factory) {
 		SocketListening listening = new SocketListening() {
 			@Override
@@ -36,7 +48,7 @@ public final class HttpServer {
 						}
 					};
 				}
-				return new HttpRequestReader(address, configurator.trust != null, h, connection);
+				return new HttpRequestReader(address, configurator.trust != null, configurator.gzip, h, connection, allocator(configurator));
 			}
 			
 			@Override
@@ -50,12 +62,46 @@ public final class HttpServer {
 			}
 		};
 		
+		ReadMode readMode = configurator.readMode;
 		if (configurator.trust != null) {
-			listening = new SslSocketListening(configurator.trust, configurator.queue.allocator(), listening);
+			if (configurator.queueGroup == null) {
+				listening = new SslSocketListening(configurator.trust, configurator.queue.allocator(), listening);
+			} else {
+				final SocketListening l = listening;
+				listening = new SocketListening() {
+					@Override
+					public CloseableByteBufferHandler connected(Address address, CloseableByteBufferHandler connection) {
+						return new SslSocketListening(configurator.trust, allocator(configurator), l).connected(address, connection);
+					}
+					@Override
+					public void failed(IOException e) {
+						l.failed(e);
+					}
+					@Override
+					public void close() {
+						l.close();
+					}
+				};
+			}
+			if (readMode == ReadMode.BORROW) {
+				readMode = ReadMode.COPY; // SSL keeps the received buffers
+			}
 		}
 		
-		Listen listen = new SocketListen(configurator.queue.getSelector(), configurator.queue.allocator());
-		listen = new QueueListen(configurator.queue, listen);
-		listen.listen(configurator.address, listening);
+		if (configurator.queueGroup == null) {
+			Listen listen = new SocketListen(configurator.queue.getSelector(), configurator.queue.allocator(), null, readMode);
+			listen = new QueueListen(configurator.queue, listen);
+			listen.listen(configurator.address, listening);
+		} else {
+			// Connections are handled in the queues of the group, only the accepting socket stays in the configurator queue
+			final Listen listen = new SocketListen(configurator.queue.getSelector(), configurator.queue.allocator(), configurator.queueGroup, readMode);
+			final SocketListening l = listening;
+			configurator.queue.post(new Runnable() {
+				@Override
+				public void run() {
+					listen.listen(configurator.address, l);
+				}
+			});
+		}
 	}
 }
@@ -5,14 +5,23 @@ import java.io.IOException;
 import com.davfx.ninio.common.Address;
 import com.davfx.ninio.common.Closeable;
 import com.davfx.ninio.common.Queue;
+import com.davfx.ninio.common.QueueGroup;
+import com.davfx.ninio.common.ReadMode;
 import com.davfx.ninio.common.Trust;
+import com.davfx.util.ConfigUtils;
+import com.typesafe.config.Config;
 
 public final class HttpServerConfigurator implements Closeable {
+	private static final Config CONFIG = ConfigUtils.load(HttpServerConfigurator.class);
+
 	public final Queue queue;
 	private final boolean queueToClose;
 
 	public Trust trust = null;
+	public QueueGroup queueGroup = null;
+	public ReadMode readMode = ReadMode.ALLOCATE; // With BORROW, the handlers must copy the posted data they want to keep
 	public Address address = new Address("0.0.0.0", Http.DEFAULT_PORT);
+	public boolean gzip = CONFIG.getBoolean("http.server.gzip.enabled"); // Compressible responses are compressed on the fly when the client accepts it
 	
 	private HttpServerConfigurator(Queue queue, boolean queueToClose) {
 		this.queue = queue;
@@ -39,6 +48,21 @@ public final class HttpServerConfigurator implements Closeable {
 		return this;
 	}
 
+	public HttpServerConfigurator withQueueGroup(QueueGroup queueGroup) {
+		this.queueGroup = queueGroup;
+		return this;
+	}
+
+	public HttpServerConfigurator withReadMode(ReadMode readMode) {
+		this.readMode = readMode;
+		return this;
+	}
+
+	public HttpServerConfigurator withGzip(boolean gzip) {
+		this.gzip = gzip;
+		return this;
+	}
+
 	public HttpServerConfigurator withHost(String host) {
 		address = new Address(host, address.getPort());
 		return this;
@@ -3,6 +3,7 @@ package com.davfx.ninio.http;
 import java.io.IOException;
 
 public interface HttpServerHandlerFactory {
+	// With a queue group (HttpServerConfigurator.withQueueGroup), called concurrently from the queues of the group, in the queue of the connection
 	HttpServerHandler create();
 
 	void closed();
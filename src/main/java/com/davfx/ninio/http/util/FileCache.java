@@ -0,0 +1,330 @@
+package com.davfx.ninio.http.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.common.ClassThreadFactory;
+import com.davfx.ninio.common.Closeable;
+import com.davfx.ninio.http.Http;
+import com.davfx.ninio.http.HttpResponse;
+import com.davfx.util.ConfigUtils;
+import com.typesafe.config.Config;
+
+// Least recently used files kept in memory, with their gzipped variant when it is smaller
+// Entries are dropped when the file system reports a change in their directory (or checked against the file system if it cannot be watched)
+// Can be shared by several handlers, on several queues
+// Files are read and compressed by a loading thread, not by the queues (a miss is served from the file meanwhile)
+public final class FileCache implements Closeable {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FileCache.class);
+
+	private static final Config CONFIG = ConfigUtils.load(FileCache.class);
+
+	static final class Entry {
+		public final long length;
+		public final long lastModified;
+		public final String contentType;
+		public final byte[] content;
+		public final byte[] gzipped; // Null if not worth it
+		// Built once, shared by the responses (only read when written)
+		public final String etag;
+		public final String gzipEtag;
+		public final String lastModifiedValue;
+		public final HttpResponse response;
+		public final HttpResponse gzipResponse; // Null if not gzipped
+		public final HttpResponse notModified;
+		public final HttpResponse gzipNotModified;
+		public Entry(long length, long lastModified, String contentType, byte[] content, byte[] gzipped) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.contentType = contentType;
+			this.content = content;
+			this.gzipped = gzipped;
+			etag = FileHttpServerHandler.etag(length, lastModified, false);
+			gzipEtag = FileHttpServerHandler.etag(length, lastModified, true);
+			lastModifiedValue = FileHttpServerHandler.lastModified(lastModified);
+			response = FileHttpServerHandler.content(new HttpResponse(Http.Status.OK, Http.Message.OK), length, false, contentType, etag, lastModifiedValue);
+			gzipResponse = (gzipped == null) ? null : FileHttpServerHandler.content(new HttpResponse(Http.Status.OK, Http.Message.OK), gzipped.length, true, contentType, gzipEtag, lastModifiedValue);
+			notModified = FileHttpServerHandler.notModified(etag, lastModifiedValue);
+			gzipNotModified = FileHttpServerHandler.notModified(gzipEtag, lastModifiedValue);
+		}
+		public int size() {
+			return content.length + ((gzipped == null) ? 0 : gzipped.length);
+		}
+	}
+
+	private final long maxSize;
+	private final long maxFileSize;
+	private final boolean gzip;
+
+	private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long size = 0L;
+	private long generation = 0L; // Incremented on each invalidation, a file read meanwhile is not kept
+	private final Set<String> loading = new HashSet<>();
+	private final ExecutorService loadExecutor = Executors.newSingleThreadExecutor(new ClassThreadFactory(FileCache.class, "load", true));
+
+	private final WatchService watcher; // Null if not supported
+	private final Set<Path> watched = new HashSet<>();
+	private final ExecutorService watchExecutor;
+
+	private final AtomicLong hits = new AtomicLong(0L);
+	private final AtomicLong misses = new AtomicLong(0L);
+	private final AtomicLong evictions = new AtomicLong(0L);
+	private final AtomicLong invalidations = new AtomicLong(0L);
+
+	public FileCache(long maxSize, long maxFileSize, boolean gzip) {
+		this.maxSize = maxSize;
+		this.maxFileSize = maxFileSize;
+		this.gzip = gzip;
+
+		WatchService w;
+		try {
+			w = FileSystems.getDefault().newWatchService();
+		} catch (IOException | UnsupportedOperationException e) {
+			LOGGER.warn("Files cannot be watched, they will be checked on each request", e);
+			w = null;
+		}
+		watcher = w;
+
+		if (watcher == null) {
+			watchExecutor = null;
+		} else {
+			watchExecutor = Executors.newSingleThreadExecutor(new ClassThreadFactory(FileCache.class));
+			watchExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					watch();
+				}
+			});
+		}
+	}
+
+	public FileCache() {
+		this(CONFIG.getBytes("http.file.cache.size"), CONFIG.getBytes("http.file.cache.file"), CONFIG.getBoolean("http.file.cache.gzip"));
+	}
+
+	@Override
+	public void close() {
+		if (watcher != null) {
+			try {
+				watcher.close();
+			} catch (IOException e) {
+			}
+			watchExecutor.shutdown();
+		}
+		loadExecutor.shutdown();
+		synchronized (this) {
+			entries.clear();
+			size = 0L;
+		}
+	}
+
+	// Served from memory
+	public long getHits() {
+		return hits.get();
+	}
+	// Read from the file system (including the files too large to be kept)
+	public long getMisses() {
+		return misses.get();
+	}
+	// Dropped to make room
+	public long getEvictions() {
+		return evictions.get();
+	}
+	// Dropped because the file changed
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	@Override
+	public String toString() {
+		synchronized (this) {
+			return "FileCache[files=" + entries.size() + ", size=" + size + ", hits=" + hits.get() + ", misses=" + misses.get() + ", evictions=" + evictions.get() + ", invalidations=" + invalidations.get() + "]";
+		}
+	}
+
+	private void watch() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watcher.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			Path dir = (Path) key.watchable();
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					invalidateAll();
+				} else {
+					invalidate(dir.resolve((Path) event.context()).toString());
+				}
+			}
+			if (!key.reset()) {
+				synchronized (this) {
+					watched.remove(dir);
+				}
+				invalidateDirectory(dir);
+			}
+		}
+	}
+
+	private synchronized void invalidate(String path) {
+		generation++;
+		Entry e = entries.remove(path);
+		if (e != null) {
+			size -= e.size();
+			invalidations.incrementAndGet();
+		}
+	}
+
+	private synchronized void invalidateDirectory(Path dir) {
+		generation++;
+		Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+		while (i.hasNext()) {
+			Map.Entry<String, Entry> e = i.next();
+			if (new File(e.getKey()).toPath().startsWith(dir)) {
+				size -= e.getValue().size();
+				i.remove();
+				invalidations.incrementAndGet();
+			}
+		}
+	}
+
+	private synchronized void invalidateAll() {
+		generation++;
+		invalidations.addAndGet(entries.size());
+		entries.clear();
+		size = 0L;
+	}
+
+	// Null if the file is not cached
+	Entry get(File file) {
+		String path = file.getAbsolutePath();
+		Entry e;
+		synchronized (this) {
+			e = entries.get(path);
+		}
+		if (e == null) {
+			return null;
+		}
+		if ((watcher == null) && ((file.lastModified() != e.lastModified) || (file.length() != e.length))) {
+			invalidate(path);
+			return null;
+		}
+		hits.incrementAndGet();
+		return e;
+	}
+
+	// Not cached yet, read in the background (nothing is done if the file is too large or already being read)
+	void load(final File file, final long length, final long lastModified, final String contentType) {
+		misses.incrementAndGet();
+		if (length > maxFileSize) {
+			return;
+		}
+		final String path = file.getAbsolutePath();
+		synchronized (this) {
+			if (!loading.add(path)) {
+				return;
+			}
+		}
+		try {
+			loadExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						doLoad(file, length, lastModified, contentType);
+					} catch (IOException ioe) {
+						LOGGER.debug("Could not cache {}", file, ioe);
+					} finally {
+						synchronized (FileCache.this) {
+							loading.remove(path);
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException ree) {
+			synchronized (this) {
+				loading.remove(path);
+			}
+		}
+	}
+	
+	private void doLoad(File file, long length, long lastModified, String contentType) throws IOException {
+		// Watched before being read, not to miss a change
+		Path dir = file.getAbsoluteFile().getParentFile().toPath();
+		long loadGeneration;
+		synchronized (this) {
+			if ((watcher != null) && !watched.contains(dir)) {
+				dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				watched.add(dir);
+			}
+			loadGeneration = generation;
+		}
+
+		byte[] content = new byte[(int) length];
+		try (FileChannel channel = new FileInputStream(file).getChannel()) {
+			ByteBuffer b = ByteBuffer.wrap(content);
+			while (b.hasRemaining()) {
+				if (channel.read(b) < 0) {
+					return;
+				}
+			}
+		}
+		if ((file.lastModified() != lastModified) || (file.length() != length)) {
+			return;
+		}
+
+		byte[] gzipped = null;
+		if (gzip) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(content.length);
+			try (GZIPOutputStream g = new GZIPOutputStream(out)) {
+				g.write(content);
+			}
+			if (out.size() < content.length) {
+				gzipped = out.toByteArray();
+			}
+		}
+
+		Entry e = new Entry(length, lastModified, contentType, content, gzipped);
+		synchronized (this) {
+			if (generation != loadGeneration) {
+				return; // The file may have changed while being read
+			}
+			Entry previous = entries.put(file.getAbsolutePath(), e);
+			if (previous != null) {
+				size -= previous.size();
+			}
+			size += e.size();
+			Iterator<Entry> i = entries.values().iterator();
+			while ((size > maxSize) && i.hasNext()) {
+				Entry eldest = i.next();
+				i.remove();
+				size -= eldest.size();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+}
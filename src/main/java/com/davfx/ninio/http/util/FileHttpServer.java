@@ -26,6 +26,7 @@ public final class FileHttpServer {
 			String extension = c.getString("extension");
 			mime.put(extension, type);
 		}
+		final FileCache cache = CONFIG.getBoolean("http.file.cache.enabled") ? new FileCache() : null;
 
 		Queue queue = new Queue();
 		new HttpServer(new HttpServerConfigurator(queue).withAddress(new Address(CONFIG.getString("http.file.bind.host"), CONFIG.getInt("http.file.bind.port"))), new HttpServerHandlerFactory() {
@@ -34,7 +35,7 @@ public final class FileHttpServer {
 			}
 			@Override
 			public HttpServerHandler create() {
-				FileHttpServerHandler h = new FileHttpServerHandler(root).setIndex(index);
+				FileHttpServerHandler h = new FileHttpServerHandler(root).setIndex(index).setCache(cache);
 				for (Map.Entry<String, String> e : mime.entrySet()) {
 					h.setContentType(e.getKey(), e.getValue());
 				}
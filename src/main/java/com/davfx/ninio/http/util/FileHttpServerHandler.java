@@ -3,13 +3,22 @@ package com.davfx.ninio.http.util;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
 
 import com.davfx.ninio.common.Address;
+import com.davfx.ninio.common.FileRegion;
+import com.davfx.ninio.common.FileRegionHandler;
 import com.davfx.ninio.http.Http;
+import com.davfx.ninio.http.HttpHeaders;
 import com.davfx.ninio.http.HttpRequest;
 import com.davfx.ninio.http.HttpResponse;
 import com.davfx.ninio.http.HttpServerHandler;
@@ -17,21 +26,47 @@ import com.davfx.ninio.http.HttpServerHandler;
 public final class FileHttpServerHandler implements HttpServerHandler {
 	private final File dir;
 	private HttpRequest request;
-	private final Map<String, String> contentTypes = new LinkedHashMap<>();
+	private final Map<String, String> extensions = new HashMap<>(); // Looked up by the extension of the file
+	private final Map<String, String> suffixes = new LinkedHashMap<>(); // Scanned (suffixes that are not simple extensions)
 	private String index = null;
+	private FileCache cache = null;
 	
 	public FileHttpServerHandler(File dir) {
 		this.dir = dir;
 	}
 	
 	public FileHttpServerHandler setContentType(String extension, String contentType) {
-		contentTypes.put(extension, contentType);
+		if (extension.lastIndexOf('.') == 0) {
+			extensions.put(extension, contentType);
+		} else {
+			suffixes.put(extension, contentType);
+		}
 		return this;
 	}
 	public FileHttpServerHandler setIndex(String index) {
 		this.index = index;
 		return this;
 	}
+	public FileHttpServerHandler setCache(FileCache cache) {
+		this.cache = cache;
+		return this;
+	}
+	
+	private String contentType(String name) {
+		int i = name.lastIndexOf('.');
+		if (i >= 0) {
+			String contentType = extensions.get(name.substring(i));
+			if (contentType != null) {
+				return contentType;
+			}
+		}
+		for (Map.Entry<String, String> e : suffixes.entrySet()) {
+			if (name.endsWith(e.getKey())) {
+				return e.getValue();
+			}
+		}
+		return null;
+	}
 	
 	@Override
 	public void close() {
@@ -39,6 +74,7 @@ public final class FileHttpServerHandler implements HttpServerHandler {
 	@Override
 	public void failed(IOException e) {
 	}
+	
 	@Override
 	public void handle(Address address, ByteBuffer buffer) {
 	}
@@ -46,6 +82,131 @@ public final class FileHttpServerHandler implements HttpServerHandler {
 	public void handle(HttpRequest request) {
 		this.request = request;
 	}
+	
+	private static SimpleDateFormat dateFormat() {
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format;
+	}
+	
+	static String etag(long length, long lastModified, boolean gzipped) {
+		return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + (gzipped ? ("-" + Http.GZIP) : "") + "\"";
+	}
+	
+	static String lastModified(long lastModified) {
+		return dateFormat().format(new Date(lastModified));
+	}
+	
+	static HttpResponse notModified(String etag, String lastModifiedValue) {
+		HttpResponse r = new HttpResponse(Http.Status.NOT_MODIFIED, Http.Message.NOT_MODIFIED);
+		r.getHeaders().put(Http.ETAG, etag);
+		r.getHeaders().put(Http.LAST_MODIFIED, lastModifiedValue);
+		r.getHeaders().put(Http.VARY, Http.ACCEPT_ENCODING);
+		return r;
+	}
+	
+	// Headers of a response with content (the whole file or a range of it)
+	static HttpResponse content(HttpResponse r, long contentLength, boolean gzip, String contentType, String etag, String lastModifiedValue) {
+		// r.getHeaders().put("Cache-Control", "private, max-age=0, no-cache");
+		if (gzip) {
+			// Already compressed, sent as is
+			r.getHeaders().put(Http.CONTENT_ENCODING, Http.GZIP);
+		}
+		r.getHeaders().put(Http.CONTENT_LENGTH, String.valueOf(contentLength));
+		if (contentType != null) {
+			r.getHeaders().put(Http.CONTENT_TYPE, contentType);
+		}
+		r.getHeaders().put(Http.ETAG, etag);
+		r.getHeaders().put(Http.LAST_MODIFIED, lastModifiedValue);
+		r.getHeaders().put(Http.ACCEPT_RANGES, Http.BYTES);
+		r.getHeaders().put(Http.VARY, Http.ACCEPT_ENCODING); // Whether sent compressed (from the cache or on the fly) depends on the client
+		return r;
+	}
+	
+	private static boolean acceptsGzip(HttpHeaders headers) {
+		String accept = headers.get(Http.ACCEPT_ENCODING);
+		if (accept == null) {
+			return false;
+		}
+		for (String s : accept.split("\\" + Http.MULTIPLE_SEPARATOR)) {
+			String[] v = s.trim().split("\\" + Http.EXTENSION_SEPARATOR);
+			if ((v.length > 0) && v[0].trim().equalsIgnoreCase(Http.GZIP)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static boolean matches(String ifNoneMatch, String etag) {
+		for (String s : ifNoneMatch.split("\\" + Http.MULTIPLE_SEPARATOR)) {
+			s = s.trim();
+			if (s.startsWith("W/")) {
+				s = s.substring(2);
+			}
+			if (s.equals(Http.WILDCARD) || s.equals(etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static boolean notModifiedSince(String ifModifiedSince, long lastModified) {
+		if (ifModifiedSince == null) {
+			return false;
+		}
+		try {
+			return (lastModified / 1000L) <= (dateFormat().parse(ifModifiedSince).getTime() / 1000L);
+		} catch (ParseException e) {
+			return false;
+		}
+	}
+	
+	// Only a single range is supported: null if the whole file should be sent, empty if not satisfiable, or [start, end[
+	private static long[] range(String range, long length) {
+		String prefix = Http.BYTES + "=";
+		if (!range.startsWith(prefix)) {
+			return null;
+		}
+		String r = range.substring(prefix.length());
+		if (r.indexOf(Http.MULTIPLE_SEPARATOR) >= 0) {
+			return null;
+		}
+		int i = r.indexOf('-');
+		if (i < 0) {
+			return null;
+		}
+		String from = r.substring(0, i).trim();
+		String to = r.substring(i + 1).trim();
+		try {
+			long start;
+			long end;
+			if (from.isEmpty()) {
+				if (to.isEmpty()) {
+					return null;
+				}
+				start = Math.max(0L, length - Long.parseLong(to));
+				end = length;
+			} else {
+				start = Long.parseLong(from);
+				if (to.isEmpty()) {
+					end = length;
+				} else {
+					end = Long.parseLong(to) + 1L;
+					if (end <= start) {
+						return null;
+					}
+					end = Math.min(end, length);
+				}
+			}
+			if (start >= end) {
+				return new long[] {};
+			}
+			return new long[] { start, end };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	
 	@Override
 	public void ready(Write write) {
 		try {
@@ -56,35 +217,23 @@ public final class FileHttpServerHandler implements HttpServerHandler {
 				write.close();
 				return;
 			}
+			
+			if (cache != null) {
+				FileCache.Entry e = cache.get(file);
+				if (e != null) {
+					send(write, e.length, e.lastModified, e.contentType, e, null);
+					return;
+				}
+			}
 
 			if (file.isFile()) {
-				String name = file.getName();
-				String contentType = null;
-				for (Map.Entry<String, String> e : contentTypes.entrySet()) {
-					if (name.endsWith(e.getKey())) {
-						contentType = e.getValue();
-						break;
-					}
-				}
-				
-				HttpResponse r = new HttpResponse(Http.Status.OK, Http.Message.OK);
-				// r.getHeaders().put("Cache-Control", "private, max-age=0, no-cache");
-				r.getHeaders().put(Http.CONTENT_LENGTH, String.valueOf(file.length()));
-				if (contentType != null) {
-					r.getHeaders().put(Http.CONTENT_TYPE, contentType);
-				}
-				write.write(r);
-				try (InputStream in = new FileInputStream(file)) {
-					while (true) {
-						byte[] b = new byte[10 * 1024];
-						int l = in.read(b);
-						if (l < 0) {
-							break;
-						}
-						write.handle(null, ByteBuffer.wrap(b, 0, l));
-					}
+				long length = file.length();
+				long lastModified = file.lastModified();
+				String contentType = contentType(file.getName());
+				if (cache != null) {
+					cache.load(file, length, lastModified, contentType);
 				}
-				write.close();
+				send(write, length, lastModified, contentType, null, file);
 			} else {
 				write.write(new HttpResponse(Http.Status.NOT_FOUND, Http.Message.NOT_FOUND));
 				write.close();
@@ -94,4 +243,84 @@ public final class FileHttpServerHandler implements HttpServerHandler {
 			write.close();
 		}
 	}
+	
+	// The content is taken from the cache entry if any, from the file otherwise
+	private void send(Write write, long length, long lastModified, String contentType, FileCache.Entry entry, File file) throws IOException {
+		HttpHeaders requestHeaders = request.getHeaders();
+		boolean variants = (entry != null) && (entry.gzipped != null);
+		boolean gzip = variants && acceptsGzip(requestHeaders);
+		String etag = (entry == null) ? etag(length, lastModified, false) : entry.etag;
+		String gzipEtag = (entry == null) ? etag(length, lastModified, true) : entry.gzipEtag;
+		String lastModifiedValue = (entry == null) ? lastModified(lastModified) : entry.lastModifiedValue;
+		
+		// The gzip entity tag is also given by the server when it compresses the content on the fly (even without a cached variant)
+		String ifNoneMatch = requestHeaders.get(Http.IF_NONE_MATCH);
+		boolean gzipMatch = (ifNoneMatch != null) && !matches(ifNoneMatch, etag) && matches(ifNoneMatch, gzipEtag);
+		if ((ifNoneMatch != null) ? (gzipMatch || matches(ifNoneMatch, etag)) : notModifiedSince(requestHeaders.get(Http.IF_MODIFIED_SINCE), lastModified)) {
+			boolean g = gzip || gzipMatch;
+			write.write((entry == null) ? notModified(g ? gzipEtag : etag, lastModifiedValue) : (g ? entry.gzipNotModified : entry.notModified));
+			write.close();
+			return;
+		}
+		
+		long start = 0L;
+		long end = length;
+		HttpResponse r = null; // The whole content
+		String range = requestHeaders.get(Http.RANGE);
+		String ifRange = requestHeaders.get(Http.IF_RANGE);
+		if ((range != null) && ((ifRange == null) || ifRange.equals(etag))) {
+			long[] s = range(range, length);
+			if (s != null) {
+				if (s.length == 0) {
+					r = new HttpResponse(Http.Status.RANGE_NOT_SATISFIABLE, Http.Message.RANGE_NOT_SATISFIABLE);
+					r.getHeaders().put(Http.CONTENT_RANGE, Http.BYTES + " */" + length);
+					r.getHeaders().put(Http.CONTENT_LENGTH, String.valueOf(0));
+					write.write(r);
+					write.close();
+					return;
+				}
+				start = s[0];
+				end = s[1];
+				gzip = false; // Ranges are in the identity content
+				r = new HttpResponse(Http.Status.PARTIAL_CONTENT, Http.Message.PARTIAL_CONTENT);
+				r.getHeaders().put(Http.CONTENT_RANGE, Http.BYTES + " " + start + "-" + (end - 1L) + "/" + length);
+				content(r, end - start, false, contentType, etag, lastModifiedValue);
+			}
+		}
+		if (r == null) {
+			if (entry == null) {
+				r = content(new HttpResponse(Http.Status.OK, Http.Message.OK), length, false, contentType, etag, lastModifiedValue);
+			} else {
+				r = gzip ? entry.gzipResponse : entry.response;
+			}
+		}
+		
+		if (request.getMethod() == HttpRequest.Method.HEAD) {
+			write.write(r);
+			write.close();
+			return;
+		}
+		
+		if (entry != null) {
+			write.write(r);
+			if (gzip) {
+				write.handle(null, ByteBuffer.wrap(entry.gzipped));
+			} else {
+				write.handle(null, ByteBuffer.wrap(entry.content, (int) start, (int) (end - start)));
+			}
+			write.close();
+			return;
+		}
+		
+		// The writes given by HttpServer always accept file regions
+		if (!(write instanceof FileRegionHandler)) {
+			throw new IOException("File regions not supported by: " + write);
+		}
+		@SuppressWarnings("resource")
+		FileChannel channel = new FileInputStream(file).getChannel();
+		write.write(r);
+		// Sent from the file by the connection, not read here
+		((FileRegionHandler) write).handle(null, new FileRegion(channel, start, end - start));
+		write.close();
+	}
 }
@@ -0,0 +1,230 @@
+package com.davfx.ninio.http.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.davfx.ninio.http.Http;
+import com.davfx.ninio.http.HttpRequest;
+
+// Routes are compiled in a tree of path segments: /devices/{id}/oids/* (static segments are preferred to parameters, parameters to *)
+// Built once and shared by all the connections (routes must not be added while requests are routed)
+public final class HttpRouter {
+	private static final char PARAMETER_START = '{';
+	private static final char PARAMETER_END = '}';
+	private static final String WILDCARD = "*";
+	private static final Parameters NO_PARAMETERS = new Parameters() {
+		@Override
+		public Iterable<String> keys() {
+			return Collections.emptyList();
+		}
+		@Override
+		public String getValue(String key) {
+			return null;
+		}
+		@Override
+		public String toString() {
+			return "{}";
+		}
+	};
+
+	private static final class Node {
+		public Map<String, Node> children = null;
+		public Node parameter = null;
+		public String parameterName = null;
+		public Node wildcard = null;
+		public Map<HttpRequest.Method, RouteHandlerFactory> factories = null;
+		public RouteHandlerFactory anyMethodFactory = null;
+		public Node() {
+		}
+		public boolean hasRoute() {
+			return (factories != null) || (anyMethodFactory != null);
+		}
+	}
+
+	// Null if not found, factory is null if the path is found for other methods
+	public static final class Match {
+		public final RouteHandlerFactory factory;
+		public final Parameters parameters;
+		public final Iterable<HttpRequest.Method> methods;
+		private Match(RouteHandlerFactory factory, Parameters parameters, Iterable<HttpRequest.Method> methods) {
+			this.factory = factory;
+			this.parameters = parameters;
+			this.methods = methods;
+		}
+	}
+
+	private final Node root = new Node();
+	private int maxParameters = 0;
+
+	public HttpRouter() {
+	}
+
+	// A null method matches all the methods without a specific route
+	public HttpRouter add(HttpRequest.Method method, String route, RouteHandlerFactory factory) {
+		if ((route.isEmpty()) || (route.charAt(0) != Http.PATH_SEPARATOR)) {
+			throw new IllegalArgumentException("Invalid route: " + route);
+		}
+		String[] segments = route.substring(1).split(String.valueOf(Http.PATH_SEPARATOR), -1);
+		Node node = root;
+		int parameters = 0;
+		for (int i = 0; i < segments.length; i++) {
+			String s = segments[i];
+			if (s.equals(WILDCARD)) {
+				if (i != (segments.length - 1)) {
+					throw new IllegalArgumentException("* should be at the end of the route: " + route);
+				}
+				if (node.wildcard == null) {
+					node.wildcard = new Node();
+				}
+				node = node.wildcard;
+				parameters++;
+			} else if ((s.length() > 1) && (s.charAt(0) == PARAMETER_START) && (s.charAt(s.length() - 1) == PARAMETER_END)) {
+				String name = s.substring(1, s.length() - 1);
+				if (node.parameter == null) {
+					node.parameter = new Node();
+					node.parameterName = name;
+				} else if (!node.parameterName.equals(name)) {
+					throw new IllegalArgumentException("Parameter {" + name + "} conflicts with {" + node.parameterName + "}: " + route);
+				}
+				node = node.parameter;
+				parameters++;
+			} else {
+				if (node.children == null) {
+					node.children = new HashMap<>();
+				}
+				Node child = node.children.get(s);
+				if (child == null) {
+					child = new Node();
+					node.children.put(s, child);
+				}
+				node = child;
+			}
+		}
+
+		if (method == null) {
+			if (node.anyMethodFactory != null) {
+				throw new IllegalArgumentException("Route already defined: " + route);
+			}
+			node.anyMethodFactory = factory;
+		} else {
+			if (node.factories == null) {
+				node.factories = new EnumMap<>(HttpRequest.Method.class);
+			}
+			if (node.factories.containsKey(method)) {
+				throw new IllegalArgumentException("Route already defined: " + method + " " + route);
+			}
+			node.factories.put(method, factory);
+		}
+		maxParameters = Math.max(maxParameters, parameters);
+		return this;
+	}
+
+	// Values are kept as indexes in the path, and only decoded when the route is found
+	private static final class Captures {
+		public final String[] names;
+		public final int[] from;
+		public final int[] to;
+		public int size = 0;
+		public Captures(int max) {
+			names = new String[max];
+			from = new int[max];
+			to = new int[max];
+		}
+		public void add(String name, int f, int t) {
+			names[size] = name;
+			from[size] = f;
+			to[size] = t;
+			size++;
+		}
+	}
+
+	private static String decode(String s) {
+		if ((s.indexOf('%') < 0) && (s.indexOf('+') < 0)) {
+			return s;
+		}
+		return Http.Url.decode(s);
+	}
+
+	// from is the start of a segment, end the end of the path (without the query)
+	private static Node match(Node node, String path, int from, int end, Captures captures) {
+		int to = path.indexOf(Http.PATH_SEPARATOR, from);
+		if ((to < 0) || (to > end)) {
+			to = end;
+		}
+
+		if (node.children != null) {
+			Node child = node.children.get(decode(path.substring(from, to)));
+			if (child != null) {
+				Node n = (to == end) ? (child.hasRoute() ? child : null) : match(child, path, to + 1, end, captures);
+				if (n != null) {
+					return n;
+				}
+			}
+		}
+
+		if (node.parameter != null) {
+			int mark = captures.size;
+			captures.add(node.parameterName, from, to);
+			Node n = (to == end) ? (node.parameter.hasRoute() ? node.parameter : null) : match(node.parameter, path, to + 1, end, captures);
+			if (n != null) {
+				return n;
+			}
+			captures.size = mark;
+		}
+
+		if ((node.wildcard != null) && node.wildcard.hasRoute()) {
+			captures.add(WILDCARD, from, end);
+			return node.wildcard;
+		}
+
+		return null;
+	}
+
+	// Null if no route matches the path (the query is ignored)
+	public Match route(HttpRequest.Method method, String path) {
+		if (path.isEmpty() || (path.charAt(0) != Http.PATH_SEPARATOR)) {
+			return null;
+		}
+		int end = path.indexOf(Http.PARAMETERS_START);
+		if (end < 0) {
+			end = path.length();
+		}
+
+		final Captures captures = new Captures(maxParameters);
+		Node node = match(root, path, 1, end, captures);
+		if (node == null) {
+			return null;
+		}
+
+		RouteHandlerFactory factory = (node.factories == null) ? null : node.factories.get(method);
+		if (factory == null) {
+			factory = node.anyMethodFactory;
+		}
+		Iterable<HttpRequest.Method> methods = (node.factories == null) ? Arrays.<HttpRequest.Method>asList() : node.factories.keySet();
+
+		if (captures.size == 0) {
+			return new Match(factory, NO_PARAMETERS, methods);
+		}
+		final Map<String, String> values = new HashMap<>();
+		for (int i = 0; i < captures.size; i++) {
+			values.put(captures.names[i], decode(path.substring(captures.from[i], captures.to[i])));
+		}
+		return new Match(factory, new Parameters() {
+			@Override
+			public Iterable<String> keys() {
+				return values.keySet();
+			}
+			@Override
+			public String getValue(String key) {
+				return values.get(key);
+			}
+			@Override
+			public String toString() {
+				return values.toString();
+			}
+		}, methods);
+	}
+}
@@ -9,6 +9,8 @@ import com.davfx.ninio.common.Address;
 import com.davfx.ninio.http.HttpRequest;
 import com.davfx.ninio.http.HttpServerHandler;
 
+// Replaced by RouterHttpServerHandler (routes compiled once in an HttpRouter)
+@Deprecated
 public final class PathDispatchHttpServerHandler implements HttpServerHandler {
 	private final Map<String, HttpServerHandler> handlers = new HashMap<String, HttpServerHandler>();
 	private HttpServerHandler currentHandler = null;
@@ -10,6 +10,8 @@ import com.davfx.ninio.common.Address;
 import com.davfx.ninio.http.HttpRequest;
 import com.davfx.ninio.http.HttpServerHandler;
 
+// Replaced by RouterHttpServerHandler (routes compiled once in an HttpRouter)
+@Deprecated
 public final class PatternDispatchHttpServerHandler implements HttpServerHandler {
 	private final Map<Pattern, HttpServerHandler> handlers = new LinkedHashMap<Pattern, HttpServerHandler>();
 	private HttpServerHandler currentHandler = null;
@@ -0,0 +1,8 @@
+package com.davfx.ninio.http.util;
+
+import com.davfx.ninio.http.HttpServerHandler;
+
+public interface RouteHandlerFactory {
+	// Called for each routed request, with the values of the route parameters (and * for the rest of the path)
+	HttpServerHandler create(Parameters parameters);
+}
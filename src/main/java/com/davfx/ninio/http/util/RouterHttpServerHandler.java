@@ -0,0 +1,95 @@
+package com.davfx.ninio.http.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.davfx.ninio.common.Address;
+import com.davfx.ninio.common.WritabilityListener;
+import com.davfx.ninio.http.Http;
+import com.davfx.ninio.http.HttpRequest;
+import com.davfx.ninio.http.HttpResponse;
+import com.davfx.ninio.http.HttpServerHandler;
+
+// One per connection, the router is shared
+// A handler is created for each request, unrouted requests are answered with 404 (or 405 if the path exists for other methods)
+public final class RouterHttpServerHandler implements HttpServerHandler, WritabilityListener {
+	private final HttpRouter router;
+	private HttpServerHandler currentHandler = null;
+	private HttpRouter.Match notRouted = null;
+
+	public RouterHttpServerHandler(HttpRouter router) {
+		this.router = router;
+	}
+
+	@Override
+	public void handle(HttpRequest request) {
+		currentHandler = null;
+		notRouted = null;
+		HttpRouter.Match match = router.route(request.getMethod(), request.getPath());
+		if ((match == null) || (match.factory == null)) {
+			notRouted = match;
+			return;
+		}
+		currentHandler = match.factory.create(match.parameters);
+		currentHandler.handle(request);
+	}
+
+	@Override
+	public void handle(Address address, ByteBuffer buffer) {
+		if (currentHandler == null) {
+			return;
+		}
+		currentHandler.handle(address, buffer);
+	}
+
+	@Override
+	public void writable(boolean writable) {
+		if (currentHandler instanceof WritabilityListener) {
+			((WritabilityListener) currentHandler).writable(writable);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (currentHandler == null) {
+			return;
+		}
+		currentHandler.close();
+		currentHandler = null;
+	}
+
+	@Override
+	public void failed(IOException e) {
+		if (currentHandler == null) {
+			return;
+		}
+		currentHandler.failed(e);
+		currentHandler = null;
+	}
+
+	@Override
+	public void ready(Write write) {
+		if (currentHandler != null) {
+			currentHandler.ready(write);
+			return;
+		}
+
+		HttpResponse r;
+		if (notRouted == null) {
+			r = new HttpResponse(Http.Status.NOT_FOUND, Http.Message.NOT_FOUND);
+		} else {
+			r = new HttpResponse(Http.Status.METHOD_NOT_ALLOWED, Http.Message.METHOD_NOT_ALLOWED);
+			StringBuilder allow = new StringBuilder();
+			for (HttpRequest.Method m : notRouted.methods) {
+				if (allow.length() > 0) {
+					allow.append(Http.MULTIPLE_SEPARATOR).append(' ');
+				}
+				allow.append(m.toString());
+			}
+			r.getHeaders().put(Http.ALLOW, allow.toString());
+		}
+		r.getHeaders().put(Http.CONTENT_LENGTH, String.valueOf(0));
+		write.write(r);
+		write.close();
+	}
+}
@@ -18,13 +18,19 @@ public final class ServiceHttpServer {
 	public static void main(String[] args) throws Exception {
 		Queue queue = new Queue();
 		final OnTheFlyImageToJpegConverter converter = new OnTheFlyImageToJpegConverter(new HttpClientConfigurator(queue));
+		final HttpRouter router = new HttpRouter().add(null, "/image.convert", new RouteHandlerFactory() {
+			@Override
+			public HttpServerHandler create(Parameters parameters) {
+				return converter.create();
+			}
+		});
 		new HttpServer(new HttpServerConfigurator(queue).withAddress(new Address(CONFIG.getString("http.service.bind.host"), CONFIG.getInt("http.service.bind.port"))), new HttpServerHandlerFactory() {
 			@Override
 			public void failed(IOException e) {
 			}
 			@Override
 			public HttpServerHandler create() {
-				return new PathDispatchHttpServerHandler().add("/image.convert", converter.create());
+				return new RouterHttpServerHandler(router);
 			}
 			
 			@Override
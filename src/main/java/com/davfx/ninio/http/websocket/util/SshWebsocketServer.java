@@ -7,6 +7,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.davfx.ninio.common.Address;
+import com.davfx.ninio.common.ByteBuffers;
 import com.davfx.ninio.common.CloseableByteBufferHandler;
 import com.davfx.ninio.common.FailableCloseableByteBufferHandler;
 import com.davfx.ninio.common.Queue;
@@ -74,7 +75,7 @@ public final class SshWebsocketServer {
 	
 						@Override
 						public void handle(Address address, ByteBuffer fromWebBuffer) {
-							LOGGER.debug("Received from web {} bytes: {}", fromWebBuffer.remaining(), new String(fromWebBuffer.array(), fromWebBuffer.position(), fromWebBuffer.remaining(), Charsets.UTF_8));
+							LOGGER.debug("Received from web {} bytes: {}", fromWebBuffer.remaining(), new String(ByteBuffers.toArray(fromWebBuffer), Charsets.UTF_8));
 							if (innerSshWrite != null) {
 								innerSshWrite.handle(address, fromWebBuffer);
 							}
@@ -93,7 +94,7 @@ public final class SshWebsocketServer {
 								
 								@Override
 								public void handle(Address address, ByteBuffer fromSshBuffer) {
-									LOGGER.debug("Received from ssh {} bytes: {}", fromSshBuffer.remaining(), new String(fromSshBuffer.array(), fromSshBuffer.position(), fromSshBuffer.remaining(), Charsets.UTF_8));
+									LOGGER.debug("Received from ssh {} bytes: {}", fromSshBuffer.remaining(), new String(ByteBuffers.toArray(fromSshBuffer), Charsets.UTF_8));
 									innerWebWrite.handle(address, fromSshBuffer);
 								}
 								
@@ -0,0 +1,260 @@
+package com.davfx.ninio.ping;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.davfx.ninio.common.Address;
+import com.davfx.ninio.common.ByteBufferHandler;
+import com.davfx.ninio.common.ClassThreadFactory;
+import com.davfx.ninio.common.DatagramReady;
+import com.davfx.ninio.common.FailableCloseableByteBufferHandler;
+import com.davfx.ninio.common.PooledByteBufferAllocator;
+import com.davfx.ninio.common.Queue;
+import com.davfx.ninio.common.QueueReady;
+import com.davfx.ninio.common.Ready;
+import com.davfx.ninio.common.ReadyConnection;
+import com.davfx.ninio.common.ReadyFactory;
+import com.davfx.ninio.common.TimerWheel;
+import com.davfx.util.ConfigUtils;
+import com.google.common.base.Charsets;
+import com.google.common.net.InetAddresses;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.typesafe.config.Config;
+
+// Event-driven replacement of InternalPingServerReadyFactory: all the probes of a queue go through one datagram channel
+// Raw ICMP sockets are not available from Java, probes are sent to the UDP echo service (RFC 862) of the pinged hosts
+public final class EchoPingServerReadyFactory implements ReadyFactory {
+	private static final Logger LOGGER = LoggerFactory.getLogger(EchoPingServerReadyFactory.class);
+
+	private static final Config CONFIG = ConfigUtils.load(EchoPingServerReadyFactory.class);
+	private static final double TIMEOUT = ConfigUtils.getDuration(CONFIG, "ping.timeout");
+	private static final int ECHO_PORT = CONFIG.getInt("ping.echo.port");
+	private static final int RESOLVE_THREADS = CONFIG.getInt("ping.resolve.threads");
+
+	private static final int PROBE_LENGTH = Longs.BYTES + Ints.BYTES + Longs.BYTES;
+
+	private static final Random RANDOM = new Random(System.currentTimeMillis());
+
+	// Host names are resolved out of the queue thread (a DNS lookup blocks), the threads do not hold the JVM
+	private static final ThreadPoolExecutor RESOLVER = new ThreadPoolExecutor(RESOLVE_THREADS, RESOLVE_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ClassThreadFactory(EchoPingServerReadyFactory.class, "resolve", true));
+	static {
+		RESOLVER.allowCoreThreadTimeOut(true);
+	}
+
+	private final int port;
+	private final Map<Queue, Engine> engines = new HashMap<>();
+
+	public EchoPingServerReadyFactory() {
+		this(ECHO_PORT);
+	}
+	public EchoPingServerReadyFactory(int port) {
+		this.port = port;
+	}
+
+	@Override
+	public Ready create(final Queue queue) {
+		final Engine engine;
+		synchronized (engines) {
+			Engine e = engines.get(queue);
+			if (e == null) {
+				e = new Engine(queue);
+				engines.put(queue, e);
+			}
+			engine = e;
+		}
+
+		return new QueueReady(queue, new Ready() {
+			@Override
+			public void connect(Address address, final ReadyConnection connection) {
+				connection.connected(new FailableCloseableByteBufferHandler() {
+					private boolean closed = false;
+
+					@Override
+					public void close() {
+						closed = true;
+					}
+
+					@Override
+					public void failed(IOException e) {
+						close();
+					}
+
+					@Override
+					public void handle(Address address, ByteBuffer bb) {
+						long id = bb.getLong();
+						int l = bb.getInt();
+						byte[] hostBytes = new byte[l];
+						bb.get(hostBytes);
+						String host = new String(hostBytes, Charsets.UTF_8);
+
+						engine.ping(host, port, id, new ByteBufferHandler() {
+							@Override
+							public void handle(Address address, ByteBuffer buffer) {
+								if (closed) {
+									return;
+								}
+								connection.handle(address, buffer);
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	private static final class Probe {
+		public final long id;
+		public final ByteBufferHandler connection;
+		public long sendNanos;
+		public TimerWheel.Timer timeout;
+
+		public Probe(long id, ByteBufferHandler connection) {
+			this.id = id;
+			this.connection = connection;
+		}
+	}
+
+	// Only accessed from the queue thread
+	private static final class Engine {
+		private final Queue queue;
+		private final long identifier = RANDOM.nextLong();
+		private final Map<Integer, Probe> probes = new HashMap<>();
+		private int nextSequence = 0;
+		private FailableCloseableByteBufferHandler write = null;
+
+		public Engine(Queue queue) {
+			this.queue = queue;
+		}
+
+		private void open() {
+			new DatagramReady(queue.getSelector(), queue.allocator()).connect(new Address(0), new ReadyConnection() {
+				@Override
+				public void handle(Address address, ByteBuffer buffer) {
+					try {
+						if (buffer.remaining() != PROBE_LENGTH) {
+							return;
+						}
+						if (buffer.getLong() != identifier) {
+							LOGGER.trace("Echo from another engine received from: {}", address);
+							return;
+						}
+						Probe p = probes.remove(buffer.getInt());
+						if (p == null) {
+							return;
+						}
+						p.timeout.cancel();
+						reply(p, (System.nanoTime() - p.sendNanos) / 1000000000d);
+					} finally {
+						PooledByteBufferAllocator.release(buffer);
+					}
+				}
+				@Override
+				public void connected(FailableCloseableByteBufferHandler write) {
+					Engine.this.write = write;
+				}
+				@Override
+				public void failed(IOException e) {
+					LOGGER.error("Could not open ping channel", e);
+					failAll();
+				}
+				@Override
+				public void close() {
+					failAll();
+				}
+			});
+		}
+
+		private void failAll() {
+			write = null;
+			for (Probe p : probes.values()) {
+				p.timeout.cancel();
+				reply(p, Double.NaN);
+			}
+			probes.clear();
+		}
+
+		private static void reply(Probe p, double time) {
+			ByteBuffer s = ByteBuffer.allocate(Longs.BYTES + Doubles.BYTES);
+			s.putLong(p.id);
+			s.putDouble(time);
+			s.flip();
+			p.connection.handle(null, s);
+		}
+
+		public void ping(final String host, final int port, long id, ByteBufferHandler connection) {
+			if (write == null) {
+				open();
+			}
+			final Probe p = new Probe(id, connection);
+			if (write == null) {
+				reply(p, Double.NaN);
+				return;
+			}
+
+			// Resolved before being sent so that a bad host does not close the shared channel
+			if (InetAddresses.isInetAddress(host)) {
+				send(new Address(new InetSocketAddress(InetAddresses.forString(host), port)), p);
+				return;
+			}
+			RESOLVER.execute(new Runnable() {
+				@Override
+				public void run() {
+					Address a;
+					try {
+						a = new Address(new InetSocketAddress(InetAddress.getByName(host), port));
+					} catch (IOException e) {
+						LOGGER.debug("Could not resolve: {}", host, e);
+						a = null;
+					}
+					final Address address = a;
+					queue.post(new Runnable() {
+						@Override
+						public void run() {
+							if ((address == null) || (write == null)) {
+								reply(p, Double.NaN);
+								return;
+							}
+							send(address, p);
+						}
+					});
+				}
+			});
+		}
+
+		private void send(Address address, final Probe p) {
+			final int sequence = nextSequence;
+			nextSequence++;
+
+			probes.put(sequence, p);
+			p.sendNanos = System.nanoTime();
+			p.timeout = queue.schedule(TIMEOUT, new Runnable() {
+				@Override
+				public void run() {
+					if (probes.remove(sequence) != null) {
+						reply(p, Double.NaN);
+					}
+				}
+			});
+
+			ByteBuffer b = ByteBuffer.allocate(PROBE_LENGTH);
+			b.putLong(identifier);
+			b.putInt(sequence);
+			b.putLong(p.sendNanos);
+			b.flip();
+			write.handle(address, b);
+		}
+	}
+}
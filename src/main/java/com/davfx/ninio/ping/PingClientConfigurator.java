@@ -78,6 +78,12 @@ public final class PingClientConfigurator implements Closeable {
 		return this;
 	}
 
+	// Probes are sent asynchronously through one channel per queue, to the UDP echo port of the hosts (see EchoPingServerReadyFactory)
+	public PingClientConfigurator withEchoPing() {
+		readyFactory = new EchoPingServerReadyFactory();
+		return this;
+	}
+
 	public PingClientConfigurator override(ReadyFactory readyFactory) {
 		this.readyFactory = readyFactory;
 		return this;
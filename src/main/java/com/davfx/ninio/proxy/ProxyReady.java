@@ -15,6 +15,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.davfx.ninio.common.Address;
+import com.davfx.ninio.common.ByteBuffers;
 import com.davfx.ninio.common.ClassThreadFactory;
 import com.davfx.ninio.common.FailableCloseableByteBufferHandler;
 import com.davfx.ninio.common.Queue;
@@ -182,7 +183,11 @@ final class ProxyReady {
 															try {
 																out.writeInt(connectionId);
 																out.writeInt(buffer.remaining());
-																out.write(buffer.array(), buffer.arrayOffset(), buffer.remaining());
+																if (buffer.hasArray()) {
+																	out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+																} else {
+																	out.write(ByteBuffers.toArray(buffer));
+																}
 																out.flush();
 															} catch (IOException ioe) {
 																try {
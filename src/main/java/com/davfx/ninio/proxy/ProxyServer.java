@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -19,14 +20,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.davfx.ninio.common.Address;
+import com.davfx.ninio.common.ByteBuffers;
 import com.davfx.ninio.common.ClassThreadFactory;
 import com.davfx.ninio.common.CloseableByteBufferHandler;
 import com.davfx.ninio.common.FailableCloseableByteBufferHandler;
 import com.davfx.ninio.common.Queue;
 import com.davfx.ninio.common.QueueReady;
 import com.davfx.ninio.common.Ready;
-import com.davfx.ninio.common.ReadyConnection;
 import com.davfx.ninio.common.ReadyFactory;
+import com.davfx.ninio.common.WritabilityReadyConnection;
 import com.davfx.util.ConfigUtils;
 import com.davfx.util.Mutable;
 import com.davfx.util.Pair;
@@ -49,6 +51,47 @@ public final class ProxyServer {
 		server.start();
 	}
 	
+	private static final long MAX_PARKED = CONFIG.getBytes("proxy.parked.max");
+
+	// The reading thread is shared by all the connections of a client, it is never blocked
+	// What is received for a connection above its high watermark is parked, and written once the connection is writable again
+	private static final class Writability {
+		private boolean writable = true;
+		private CloseableByteBufferHandler write = null;
+		private final Deque<ByteBuffer> parked = new LinkedList<>();
+		private long parkedLength = 0L;
+		public Writability() {
+		}
+		public synchronized void connected(CloseableByteBufferHandler write) {
+			this.write = write;
+		}
+		public synchronized void set(boolean writable) {
+			this.writable = writable;
+			while (this.writable && !parked.isEmpty()) {
+				ByteBuffer b = parked.removeFirst();
+				parkedLength -= b.remaining();
+				write.handle(null, b);
+			}
+		}
+		public synchronized void clear() {
+			parked.clear();
+			parkedLength = 0L;
+		}
+		// Returns false if too much is already parked
+		public synchronized boolean handle(ByteBuffer buffer) {
+			if (writable && parked.isEmpty()) {
+				write.handle(null, buffer);
+				return true;
+			}
+			if ((parkedLength + buffer.remaining()) > MAX_PARKED) {
+				return false;
+			}
+			parked.addLast(buffer);
+			parkedLength += buffer.remaining();
+			return true;
+		}
+	}
+
 	private final int port;
 	
 	private final ProxyUtils.ServerSide proxyUtils = ProxyUtils.server();
@@ -85,6 +128,7 @@ public final class ProxyServer {
 							@Override
 							public void run() {
 								final Map<Integer, Pair<Address, CloseableByteBufferHandler>> establishedConnections = new HashMap<>();
+								final Map<Integer, Writability> writabilities = new HashMap<>(); // Guarded by establishedConnections
 								final Mutable<Boolean> closed = new Mutable<>(false);
 
 								try {
@@ -102,9 +146,16 @@ public final class ProxyServer {
 												final Address address = new Address(in.readUTF(), in.readInt());
 												ReadyFactory factory = proxyUtils.read(in);
 												Ready r = new QueueReady(queue, factory.create(queue));
-												r.connect(address, new ReadyConnection() {
+												final Writability writability = new Writability();
+												r.connect(address, new WritabilityReadyConnection() {
+													@Override
+													public void writable(boolean writable) {
+														writability.set(writable);
+													}
+													
 													@Override
 													public void failed(IOException e) {
+														writability.clear();
 														LOGGER.warn("Could not connect to {}", address, e);
 														try {
 															out.writeInt(connectionId);
@@ -126,6 +177,8 @@ public final class ProxyServer {
 																return;
 															}
 															establishedConnections.put(connectionId, new Pair<Address, CloseableByteBufferHandler>(address, write));
+															writability.connected(write);
+															writabilities.put(connectionId, writability);
 														}
 
 														try {
@@ -142,6 +195,7 @@ public final class ProxyServer {
 													
 													@Override
 													public void close() {
+														writability.clear();
 														try {
 															out.writeInt(connectionId);
 															out.writeInt(0);
@@ -162,7 +216,11 @@ public final class ProxyServer {
 														try {
 															out.writeInt(connectionId);
 															out.writeInt(buffer.remaining());
-															out.write(buffer.array(), buffer.arrayOffset(), buffer.remaining());
+															if (buffer.hasArray()) {
+																out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+															} else {
+																out.write(ByteBuffers.toArray(buffer));
+															}
 															out.flush();
 														} catch (IOException ioe) {
 															try {
@@ -178,6 +236,7 @@ public final class ProxyServer {
 											Pair<Address, CloseableByteBufferHandler> connection;
 											synchronized (establishedConnections) {
 												connection = establishedConnections.remove(connectionId);
+												writabilities.remove(connectionId);
 											}
 											if (connection != null) {
 												if (connection.second != null) {
@@ -188,13 +247,26 @@ public final class ProxyServer {
 											byte[] b = new byte[len];
 											in.readFully(b);
 											Pair<Address, CloseableByteBufferHandler> connection;
+											Writability writability;
 											synchronized (establishedConnections) {
 												connection = establishedConnections.get(connectionId);
+												writability = writabilities.get(connectionId);
 											}
 											if (connection != null) {
 												if (!hostsToFilter.contains(connection.first.getHost())) {
 													if (connection.second != null) {
-														connection.second.handle(null, ByteBuffer.wrap(b));
+														if (writability == null) {
+															connection.second.handle(null, ByteBuffer.wrap(b));
+														} else if (!writability.handle(ByteBuffer.wrap(b))) {
+															// Only this connection is closed, the other ones keep being read
+															LOGGER.warn("Too much data waiting to be written to {}, connection closed", connection.first);
+															synchronized (establishedConnections) {
+																establishedConnections.remove(connectionId);
+																writabilities.remove(connectionId);
+															}
+															writability.clear();
+															connection.second.close();
+														}
 													}
 												}
 											}
@@ -24,6 +24,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.davfx.ninio.common.Address;
+import com.davfx.ninio.common.ByteBuffers;
 import com.davfx.ninio.common.ClassThreadFactory;
 import com.davfx.ninio.common.FailableCloseableByteBufferHandler;
 import com.davfx.ninio.common.Ready;
@@ -253,7 +254,7 @@ public final class TcpdumpSyncDatagramReady implements Ready {
 				 return false;
 			}
 			try {
-				DatagramPacket packet = new DatagramPacket(buffer.array(), buffer.capacity(), InetAddress.getByName(address.getHost()), address.getPort());
+				DatagramPacket packet = new DatagramPacket(ByteBuffers.toArray(buffer), buffer.remaining(), InetAddress.getByName(address.getHost()), address.getPort());
 				socket.send(packet);
 			} catch (IOException ioe) {
 				LOGGER.error("Could not send UDP packet", ioe);
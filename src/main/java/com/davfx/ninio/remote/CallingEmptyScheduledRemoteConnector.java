@@ -3,7 +3,6 @@ package com.davfx.ninio.remote;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 
 import com.davfx.ninio.common.Queue;
 
@@ -34,23 +33,20 @@ public final class CallingEmptyScheduledRemoteConnector implements RemoteConnect
 	public void connect(final RemoteClientHandler clientHandler) {
 		final Set<RemoteClientHandler> connections = new HashSet<>();
 		if (configurator.callWithEmptyTime > 0d) {
-			configurator.callWithEmptyExecutor.scheduleAtFixedRate(new Runnable() {
+			queue.post(new Runnable() {
 				@Override
 				public void run() {
 					if (closed) {
-						throw new RuntimeException("Stop requested");
+						return;
 					}
 					
-					queue.post(new Runnable() {
-						@Override
-						public void run() {
-							for (RemoteClientHandler r : connections) {
-								r.received("");
-							}
-						}
-					});
+					for (RemoteClientHandler r : connections) {
+						r.received("");
+					}
+					
+					queue.schedule(configurator.callWithEmptyTime, this);
 				}
-			}, 0, (long) (configurator.callWithEmptyTime * 1000d), TimeUnit.MILLISECONDS);
+			});
 		}
 
 		wrappee.connect(new RemoteClientHandler() {
@@ -1,25 +1,30 @@
 package com.davfx.ninio.remote;
 
 import java.io.IOException;
-import java.util.Date;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.davfx.ninio.common.Closeable;
-import com.davfx.util.DateUtils;
+import com.davfx.ninio.common.Queue;
+import com.davfx.ninio.common.TimerWheel;
 
 public final class WaitingRemoteClient implements Closeable {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(WaitingRemoteClient.class);
 	
+	private static final long NONE = Long.MIN_VALUE;
+	
 	private final RemoteConnector client;
 	private final WaitingRemoteClientConfigurator configurator;
+	private final Queue queue;
 	private final String eol;
 	
-	public WaitingRemoteClient(WaitingRemoteClientConfigurator configurator, RemoteConnector client) {
+	// The client callbacks are called from the queue thread, and send must be called from it too (timeouts are queue timers)
+	public WaitingRemoteClient(WaitingRemoteClientConfigurator configurator, Queue queue, RemoteConnector client) {
 		this.client = client;
 		this.configurator = configurator;
+		this.queue = queue;
 		eol = client.getEol();
 	}
 	
@@ -34,55 +39,53 @@ public final class WaitingRemoteClient implements Closeable {
 			private WaitingRemoteClientHandler.Callback.SendCallback currentCallback = null;
 			private final StringBuilder text = new StringBuilder();
 			private String previous = null;
-			private Date sendTime = null;
-			
-			private Date timeoutDate = null;
-			private Date dateToSend = null;
+			// System.nanoTime() based, checked on each line (CallingEmptyScheduledRemoteConnector calls with empty lines from a queue timer)
+			private long sendTime = 0L;
+			private long timeToSend = NONE;
+			private TimerWheel.Timer timeout = null;
 			/*%%%
 			private void setDateToSend(Date now, double time) {
 				dateToSend = DateUtils.from(DateUtils.from(now) + time);
 			}*/
 			
+			private void cancelTimeout() {
+				if (timeout != null) {
+					timeout.cancel();
+					timeout = null;
+				}
+			}
+			
 			@Override
 			public void failed(IOException e) {
+				cancelTimeout();
 				clientHandler.failed(e);
 			}
 			
 			@Override
 			public void close() {
+				cancelTimeout();
 				clientHandler.close();
 			}
 			
 			@Override
 			public void received(String line) {
-				Date now = new Date();
-
-				if ((currentCallback != null) && (timeoutDate != null) && now.after(timeoutDate)) {
-					if (clientCallback != null) {
-						Callback c = clientCallback;
-						clientCallback = null;
-						c.close();
-					}
-					IOException f = new IOException("Timeout");
-					WaitingRemoteClientHandler.Callback.SendCallback cc = currentCallback;
-					currentCallback = null;
-					cc.failed(f);
-				}
+				long now = System.nanoTime();
 
 				text.append(line);
 			
-				if ((dateToSend != null) && now.after(dateToSend)) {
+				if ((timeToSend != NONE) && ((now - timeToSend) > 0L)) {
 					if (text.length() > 0) {
 						if (currentCallback != null) {
 							String r = text.toString();
 							text.setLength(0);
 							WaitingRemoteClientHandler.Callback.SendCallback cc = currentCallback;
 							currentCallback = null;
+							cancelTimeout();
 							previous = r;
 							cc.received(r);
 						} else {
 							if (!line.isEmpty()) {
-								LOGGER.warn("Received result too late (previous result has been cut), consider increasing response time ({} -> {}). Previous was: {}, current is: {}", sendTime, dateToSend, previous, text);
+								LOGGER.warn("Received result too late (previous result has been cut), consider increasing response time ({} seconds). Previous was: {}, current is: {}", (timeToSend - sendTime) / 1000000000d, previous, text);
 							}
 						}
 					}
@@ -99,11 +102,12 @@ public final class WaitingRemoteClient implements Closeable {
 				clientHandler.launched("", new WaitingRemoteClientHandler.Callback() {
 					@Override
 					public void close() {
+						cancelTimeout();
 						clientCallback = null;
 						callback.close();
 					}
 					@Override
-					public void send(String line, double timeToResponse, SendCallback c) {
+					public void send(String line, double timeToResponse, final SendCallback c) {
 						String r = null;
 						WaitingRemoteClientHandler.Callback.SendCallback cc = null;
 						if (currentCallback != null) {
@@ -116,11 +120,29 @@ public final class WaitingRemoteClient implements Closeable {
 						
 						currentCallback = c;
 
-						Date now = new Date();
-						dateToSend = DateUtils.from(DateUtils.from(now) + timeToResponse);
+						long now = System.nanoTime();
+						timeToSend = now + (long) (timeToResponse * 1000000000d);
 						sendTime = now;
 						//%% setDateToSend(now);
-						timeoutDate = (configurator.timeout == 0d) ? null : DateUtils.from(DateUtils.from(now) + configurator.timeout);
+						cancelTimeout();
+						if (configurator.timeout > 0d) {
+							timeout = queue.schedule(configurator.timeout, new Runnable() {
+								@Override
+								public void run() {
+									timeout = null;
+									if (currentCallback != c) {
+										return;
+									}
+									if (clientCallback != null) {
+										Callback cb = clientCallback;
+										clientCallback = null;
+										cb.close();
+									}
+									currentCallback = null;
+									c.failed(new IOException("Timeout"));
+								}
+							});
+						}
 						callback.send(line + eol);
 						
 						if (r != null) {
@@ -1,10 +1,8 @@
 package com.davfx.ninio.remote;
 
 import java.io.IOException;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
-import com.davfx.ninio.common.ClassThreadFactory;
 import com.davfx.ninio.common.Closeable;
 import com.davfx.util.ConfigUtils;
 import com.typesafe.config.Config;
@@ -12,36 +10,29 @@ import com.typesafe.config.Config;
 public final class WaitingRemoteClientConfigurator implements Closeable {
 	private static final Config CONFIG = ConfigUtils.load(WaitingRemoteClientConfigurator.class);
 	
+	// Not used anymore (empty calls and timeouts are scheduled by timers on the queue), null unless given by the caller (who shuts it down)
+	@Deprecated
 	public final ScheduledExecutorService callWithEmptyExecutor;
-	private final boolean callWithEmptyExecutorToShutdown;
 	
 	//%% public double endOfCommandTime = ConfigUtils.getDuration(CONFIG, "remote.waiting.endOfCommandTime");
 	public double timeout = ConfigUtils.getDuration(CONFIG, "remote.waiting.timeout");
 	
 	public double callWithEmptyTime = ConfigUtils.getDuration(CONFIG, "remote.waiting.callWithEmptyTime");
 
-	private WaitingRemoteClientConfigurator(ScheduledExecutorService callWithEmptyExecutor, boolean callWithEmptyExecutorToShutdown) {
-		this.callWithEmptyExecutor = callWithEmptyExecutor;
-		this.callWithEmptyExecutorToShutdown = callWithEmptyExecutorToShutdown;
-	}
-	
 	public WaitingRemoteClientConfigurator() throws IOException {
-		this(Executors.newSingleThreadScheduledExecutor(new ClassThreadFactory(WaitingRemoteClientConfigurator.class)), true);
+		this((ScheduledExecutorService) null);
 	}
 
+	@Deprecated
 	public WaitingRemoteClientConfigurator(ScheduledExecutorService callWithEmptyExecutor) {
-		this(callWithEmptyExecutor, false);
+		this.callWithEmptyExecutor = callWithEmptyExecutor;
 	}
 
 	@Override
 	public void close() {
-		if (callWithEmptyExecutorToShutdown) {
-			callWithEmptyExecutor.shutdown();
-		}
 	}
 	
 	public WaitingRemoteClientConfigurator(WaitingRemoteClientConfigurator configurator) {
-		callWithEmptyExecutorToShutdown = false;
 		callWithEmptyExecutor = configurator.callWithEmptyExecutor;
 		//%% endOfCommandTime = configurator.endOfCommandTime;
 		timeout = configurator.timeout;
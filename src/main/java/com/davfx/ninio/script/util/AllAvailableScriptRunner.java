@@ -1,10 +1,7 @@
 package com.davfx.ninio.script.util;
 
 import java.io.IOException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 
-import com.davfx.ninio.common.ClassThreadFactory;
 import com.davfx.ninio.common.Queue;
 import com.davfx.ninio.http.HttpClientConfigurator;
 import com.davfx.ninio.http.util.SimpleHttpClient;
@@ -40,8 +37,6 @@ public class AllAvailableScriptRunner implements AutoCloseable {
 	private final SnmpClientCache snmp;
 	private final PingClientCache ping;
 	
-	private final ScheduledExecutorService scheduledExecutor = Executors.newSingleThreadScheduledExecutor(new ClassThreadFactory(AllAvailableScriptRunner.class));
-	
 	public final HttpClientConfigurator httpConfigurator;
 	public final WaitingRemoteClientConfigurator remoteConfigurator;
 	public final TelnetClientConfigurator telnetConfigurator;
@@ -52,11 +47,11 @@ public class AllAvailableScriptRunner implements AutoCloseable {
 	public AllAvailableScriptRunner(Queue queue) throws IOException {
 		this.queue = queue;
 		
-		httpConfigurator = new HttpClientConfigurator(queue, scheduledExecutor);
-		remoteConfigurator = new WaitingRemoteClientConfigurator(scheduledExecutor);
+		httpConfigurator = new HttpClientConfigurator(queue);
+		remoteConfigurator = new WaitingRemoteClientConfigurator();
 		telnetConfigurator = new TelnetClientConfigurator(queue);
 		sshConfigurator = new SshClientConfigurator(queue);
-		snmpConfigurator = new SnmpClientConfigurator(queue, scheduledExecutor);
+		snmpConfigurator = new SnmpClientConfigurator(queue);
 		pingConfigurator = new PingClientConfigurator(queue); //%%%, scheduledExecutor);
 
 		scriptRunner = new RoundRobinScriptRunner<>();
@@ -104,6 +99,5 @@ public class AllAvailableScriptRunner implements AutoCloseable {
 		snmpConfigurator.close();
 		pingConfigurator.close();
 		
-		scheduledExecutor.shutdown();
 	}
 }
@@ -0,0 +1,97 @@
+package com.davfx.ninio.snmp;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.davfx.ninio.common.Address;
+import com.davfx.util.ConfigUtils;
+import com.typesafe.config.Config;
+
+// SNMPv3 state kept for all the clients of the process (whatever their queue): a client created again for a known agent does not discover its engine nor compute its keys again
+// Keys only depend on the password (not on the login), the password key (a megabyte of hashing) is also shared by the agents using the same credentials
+final class AuthCache {
+	private static final Config CONFIG = ConfigUtils.load(AuthCache.class);
+	private static final int MAX_KEYS = CONFIG.getInt("snmp.keys");
+	private static final int MAX_ENGINES = CONFIG.getInt("snmp.engines");
+
+	private AuthCache() {
+	}
+
+	private static final class Key {
+		private final String algorithm;
+		private final String password;
+		private final byte[] engineId; // Null for the password key, not localized
+		private final int hash;
+		public Key(String algorithm, String password, byte[] engineId) {
+			this.algorithm = algorithm;
+			this.password = password;
+			this.engineId = engineId;
+			hash = (((algorithm.hashCode() * 31) + password.hashCode()) * 31) + ((engineId == null) ? 0 : Arrays.hashCode(engineId));
+		}
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key k = (Key) o;
+			return (k.hash == hash) && k.algorithm.equals(algorithm) && k.password.equals(password) && Arrays.equals(k.engineId, engineId);
+		}
+	}
+
+	// Engine id, boots and time (as received at timeResetAt) of an agent
+	public static final class Engine {
+		public final byte[] id;
+		public final int bootCount;
+		public final int time;
+		public final long timeResetAt;
+		public Engine(byte[] id, int bootCount, int time, long timeResetAt) {
+			this.id = id;
+			this.bootCount = bootCount;
+			this.time = time;
+			this.timeResetAt = timeResetAt;
+		}
+	}
+
+	private static <K, V> Map<K, V> lru(final int max) {
+		return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > max;
+			}
+		});
+	}
+
+	private static final Map<Key, byte[]> KEYS = lru(MAX_KEYS);
+	private static final Map<Address, Engine> ENGINES = lru(MAX_ENGINES);
+
+	// Keys are not to be modified
+	public static byte[] getPasswordKey(String algorithm, String password) {
+		return KEYS.get(new Key(algorithm, password, null));
+	}
+	public static void putPasswordKey(String algorithm, String password, byte[] key) {
+		KEYS.put(new Key(algorithm, password, null), key);
+	}
+	public static byte[] getLocalizedKey(String algorithm, String password, byte[] engineId) {
+		return KEYS.get(new Key(algorithm, password, engineId));
+	}
+	public static void putLocalizedKey(String algorithm, String password, byte[] engineId, byte[] key) {
+		KEYS.put(new Key(algorithm, password, engineId), key);
+	}
+
+	public static Engine getEngine(Address address) {
+		return ENGINES.get(address);
+	}
+	public static void putEngine(Address address, Engine engine) {
+		ENGINES.put(address, engine);
+	}
+	public static void removeEngine(Address address) {
+		ENGINES.remove(address);
+	}
+}
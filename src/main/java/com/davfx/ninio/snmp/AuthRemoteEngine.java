@@ -5,6 +5,7 @@ import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
@@ -14,12 +15,14 @@ import javax.crypto.spec.SecretKeySpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.davfx.ninio.common.Address;
 import com.google.common.base.Charsets;
 
 final class AuthRemoteEngine {
 	private static final Logger LOGGER = LoggerFactory.getLogger(AuthRemoteEngine.class);
 
 	private static final int ENCRYPTION_MARGIN = 64;
+	private static final int TIME_TOLERANCE = 10; // Seconds, agents reject beyond 150
 	
 	private int bootCount = 0;
 	private int time = 0;
@@ -29,7 +32,10 @@ final class AuthRemoteEngine {
 	private final String authPassword;
 	private final String privLogin;
 	private final String privPassword;
+	private final String authDigestAlgorithm;
 	private final MessageDigest messageDigest;
+	private byte[] authKey = null; // Localized for id
+	private byte[] privKey = null;
 	
 	private int packetNumber = 0;
     private byte[] encryptionParameters = new byte[8];
@@ -40,15 +46,20 @@ final class AuthRemoteEngine {
     private final Cipher cipher;
     private final int privKeyLength;
 
+    private int timeBase = 0; // As received at timeResetAt
     private long timeResetAt = 0L;
     
     private boolean ready = false;
+    private boolean changed = false; // Not yet in AuthCache
+    private boolean unknown = false; // Reported as unknown by the agent, to be removed from AuthCache
+    private int generation = 0; // Incremented when the id, boots or time are updated
     
 	public AuthRemoteEngine(String authLogin, String authPassword, String authDigestAlgorithm, String privLogin, String privPassword, String privEncryptionAlgorithm) {
 		this.authLogin = authLogin;
 		this.authPassword = authPassword;
 		this.privLogin = privLogin;
 		this.privPassword = privPassword;
+		this.authDigestAlgorithm = authDigestAlgorithm;
 		
 		this.privEncryptionAlgorithm = privEncryptionAlgorithm;
 
@@ -73,8 +84,53 @@ final class AuthRemoteEngine {
 	}
 	
 	public void setReady() {
+		if (!ready) {
+			changed = true;
+		}
 		ready = true;
 	}
+	
+	// The engine of this agent, discovered by a previous client, is used as is: no discovery round trip (if outdated, the agent reports it and the request is sent again)
+	public void restore(Address address) {
+		if (ready) {
+			return;
+		}
+		AuthCache.Engine engine = AuthCache.getEngine(address);
+		if (engine == null) {
+			return;
+		}
+		LOGGER.trace("Auth engine restored: {}", address);
+		setId(engine.id);
+		bootCount = engine.bootCount;
+		timeBase = engine.time;
+		timeResetAt = engine.timeResetAt;
+		time = timeBase;
+		ready = true;
+		changed = false;
+	}
+	
+	public void remember(Address address) {
+		if (unknown) {
+			// Kept out of the cache until the agent answers with its new engine
+			unknown = false;
+			AuthCache.removeEngine(address);
+			return;
+		}
+		if (!ready || !changed) {
+			return;
+		}
+		changed = false;
+		AuthCache.putEngine(address, new AuthCache.Engine(id, bootCount, timeBase, timeResetAt));
+	}
+
+	public void setUnknown() {
+		unknown = true;
+	}
+	
+	// Requests sent under a previous generation are outdated
+	public int getGeneration() {
+		return generation;
+	}
 
 	public String getAuthLogin() {
 		return authLogin;
@@ -98,7 +154,14 @@ final class AuthRemoteEngine {
 	}
 
 	public void setId(byte[] id) {
+		if (Arrays.equals(this.id, id)) {
+			return;
+		}
 		this.id = id;
+		authKey = null;
+		privKey = null;
+		changed = true;
+		generation++;
 	}
 	public void setEncryptionParameters(byte[] encryptionParameters) {
 		this.encryptionParameters = encryptionParameters;
@@ -109,6 +172,10 @@ final class AuthRemoteEngine {
 	}
 
 	public void setBootCount(int bootCount) {
+		if (this.bootCount != bootCount) {
+			changed = true;
+			generation++;
+		}
 		this.bootCount = bootCount;
 	}
 
@@ -119,24 +186,55 @@ final class AuthRemoteEngine {
 	public void renewTime() {
 		if (timeResetAt > 0L) {
 			int oldTime = time;
-			time += (int) ((System.currentTimeMillis() - timeResetAt) / 1000L);
+			time = timeBase + (int) ((System.currentTimeMillis() - timeResetAt) / 1000L);
 			LOGGER.trace("Auth engine time: {} -> {}", oldTime, time);
 		}
 	}
 	public void resetTime(int time) {
+		renewTime();
+		if ((timeResetAt == 0L) || (Math.abs(time - this.time) > TIME_TOLERANCE)) {
+			generation++;
+		}
 		timeResetAt = System.currentTimeMillis();
+		timeBase = time;
 		this.time = time;
 	}
 
 	public byte[] getAuthKey() {
-		return getKey(authPassword);
+		if (authKey == null) {
+			authKey = getKey(authPassword);
+		}
+		return authKey;
 	}
 	
 	private byte[] getPrivKey() {
-		return getKey(privPassword);
+		if (privKey == null) {
+			privKey = getKey(privPassword);
+		}
+		return privKey;
 	}
 
+	// Localized with the engine id (RFC 3414), from the cache if already computed by any client
 	private byte[] getKey(String password) {
+		byte[] key = AuthCache.getLocalizedKey(authDigestAlgorithm, password, id);
+		if (key != null) {
+			return key;
+		}
+		byte[] passwordKey = AuthCache.getPasswordKey(authDigestAlgorithm, password);
+		if (passwordKey == null) {
+			passwordKey = passwordToKey(password);
+			AuthCache.putPasswordKey(authDigestAlgorithm, password, passwordKey);
+		}
+		messageDigest.reset();
+		messageDigest.update(passwordKey);
+		messageDigest.update(id);
+		messageDigest.update(passwordKey);
+		key = messageDigest.digest();
+		AuthCache.putLocalizedKey(authDigestAlgorithm, password, id, key);
+		return key;
+	}
+
+	private byte[] passwordToKey(String password) {
 		byte[] passwordBytes = password.getBytes(Charsets.UTF_8);
 
 		int passwordIndex = 0;
@@ -155,12 +253,6 @@ final class AuthRemoteEngine {
 			count += b.length;
 		}
 
-		byte[] digest = messageDigest.digest();
-
-		messageDigest.reset();
-		messageDigest.update(digest);
-		messageDigest.update(id);
-		messageDigest.update(digest);
 		return messageDigest.digest();
 	}
 	
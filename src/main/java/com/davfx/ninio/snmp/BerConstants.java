@@ -3,6 +3,7 @@ package com.davfx.ninio.snmp;
 
 public final class BerConstants {
 
+	public static final int ERROR_STATUS_TOO_BIG = 1;
 	public static final int ERROR_STATUS_RETRY = -1;
 	public static final int ERROR_STATUS_AUTHENTICATION_FAILED = -2;
 
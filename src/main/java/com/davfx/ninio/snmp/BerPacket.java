@@ -2,6 +2,8 @@ package com.davfx.ninio.snmp;
 
 import java.nio.ByteBuffer;
 
+// Requests are now encoded with a BerWriter, the BerPacket classes are kept as adapters over it
+@Deprecated
 public interface BerPacket {
 	int length();
 	ByteBuffer lengthBuffer();
@@ -1,64 +1,63 @@
 package com.davfx.ninio.snmp;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import com.google.common.base.Charsets;
 
 public final class BerPacketUtils {
-	private static final int MAX_LENGTH_BUFFER_SIZE = 10; // 7 or 8 sufficient?
+	public static final Charset CHARSET = Charsets.US_ASCII;
+
+	private static final int MAX_LENGTH_BUFFER_SIZE = 5;
 
 	private BerPacketUtils() {
 	}
 	
+	public static ByteBuffer bytes(String s) {
+		return ByteBuffer.wrap(s.getBytes(CHARSET));
+	}
+	public static String string(ByteBuffer bb) {
+		ByteBuffer d = bb.duplicate();
+		byte[] b = new byte[d.remaining()];
+		d.get(b);
+		return new String(b, CHARSET); // Note that this copy is no more useful in Java 7
+	}
+	
+	@Deprecated
 	public static void writeHeader(int type, ByteBuffer lengthBuffer, ByteBuffer buffer) {
 		buffer.put((byte) type);
 		buffer.put(lengthBuffer);
 	}
 	
+	@Deprecated
 	public static int typeAndLengthBufferLength(ByteBuffer lengthBuffer) {
 		return 1 + lengthBuffer.remaining();
 	}
 	
-	public static ByteBuffer bytes(String s) {
-		return ByteBuffer.wrap(s.getBytes(Charsets.US_ASCII));
-	}
-	public static String string(ByteBuffer bb) {
-		ByteBuffer d = bb.duplicate();
-		byte[] b = new byte[d.remaining()];
-		d.get(b);
-		return new String(b, Charsets.US_ASCII); // Note that this copy is no more useful in Java 7
+	@Deprecated
+	public static ByteBuffer lengthBuffer(int length) {
+		BerWriter w = new BerWriter(ByteBuffer.allocate(MAX_LENGTH_BUFFER_SIZE));
+		w.writeLength(length);
+		return w.finish().slice();
 	}
 	
-	public static ByteBuffer lengthBuffer(int length) {
-		ByteBuffer buffer = ByteBuffer.allocate(MAX_LENGTH_BUFFER_SIZE);
-		if (length < 0x80) {
-			buffer.put((byte) length);
-		} else {
-			int mask = 0xFF;
-			int bits = 0;
-			int count = 0;
-
-			while (true) {
-				mask <<= 8;
-				count++;
-				if ((length & mask) == 0) {
-					break;
-				}
-				bits += 8;
-			}
-
-			buffer.put((byte) (BerConstants.ASN_BIT8 | count)); // Number of bytes
-
-			while (bits >= 0) {
-				int b = (length >>> bits) & 0xFF;
-				buffer.put((byte) b);
-				bits -= 8;
-			}
-		}
-
-		buffer.flip();
-		return buffer;
+	// Used by the deprecated BerPacket classes, encoded with a BerWriter: type, length and content
+	@Deprecated
+	static ByteBuffer encode(BerPacket packet) {
+		ByteBuffer b = ByteBuffer.allocate(1 + packet.lengthBuffer().remaining() + packet.length());
+		packet.write(b);
+		b.flip();
+		return b;
+	}
+	static ByteBuffer encodedLengthBuffer(ByteBuffer encoded) {
+		int first = encoded.get(encoded.position() + 1) & 0xFF;
+		int n = ((first & BerConstants.ASN_BIT8) == 0) ? 1 : (1 + (first & ~BerConstants.ASN_BIT8));
+		ByteBuffer d = encoded.duplicate();
+		d.position(encoded.position() + 1);
+		d.limit(encoded.position() + 1 + n);
+		return d.slice();
+	}
+	static int encodedLength(ByteBuffer encoded) {
+		return encoded.remaining() - 1 - encodedLengthBuffer(encoded).remaining();
 	}
-
-
 }
@@ -1,15 +1,16 @@
 package com.davfx.ninio.snmp;
 
 import java.io.IOException;
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
-import java.util.Deque;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 
+// Values are read without boxing, only the results are allocated (the read buffer is released once parsed, the bytes are copied)
 public final class BerReader {
+	private static final int INITIAL_DEPTH = 8;
+
 	private final ByteBuffer buffer;
-	private final Deque<Integer> toReadLengthPositions = new LinkedList<Integer>();
+	private int[] toReadLengthPositions = new int[INITIAL_DEPTH];
+	private int depth = 0;
 
 	public BerReader(ByteBuffer buffer) {
 		this.buffer = buffer;
@@ -65,47 +66,6 @@ public final class BerReader {
 		return value;
 	}
 
-	//TODO Check the OPAQUE UINT64 format
-	private static long doReadLong(ByteBuffer buffer, int length) throws IOException {
-		int value = 0;
-		for (int i = 0; i < length; i++) {
-			int b = buffer.get() & 0xFF;
-			if ((i == 0) && ((b & 0x80) == 0x80)) {
-				value = 0xFFFFFFFF; // Negative, in two's complement form
-			}
-			value <<= 8;
-			value |= b;
-		}
-
-		return value;
-	}
-
-	private static float doReadFloat(ByteBuffer buffer, int length) throws IOException {
-		return buffer.getFloat();
-	}
-
-	//TODO Check the OPAQUE DOUBLE format
-	private static double doReadDouble(ByteBuffer buffer, int length) throws IOException {
-		return buffer.getDouble();
-	}
-
-	private static BigInteger doReadUnsignedLongInteger(ByteBuffer buffer, int length) throws IOException {
-		byte[] b = new byte[length];
-		buffer.get(b);
-
-		return new BigInteger(b);
-
-		/*
-		long value = 0;
-		for (int i = 0; i < length; i++) {
-			long b = buffer.get() & 0xFFL;
-			value <<= 8;
-			value |= b;
-		}
-		return value;
-		*/
-	}
-
 	public int readInteger() throws IOException {
 		int type = doReadType(buffer);
 		if (type != BerConstants.INTEGER) {
@@ -116,39 +76,40 @@ public final class BerReader {
 	}
 
 	private static int[] doReadOid(ByteBuffer buffer, int length) throws IOException {
-		List<Integer> values = new LinkedList<Integer>();
-
 		if (length == 0) {
 			throw new IOException("Invalid OID");
 		}
+		if (length > buffer.remaining()) {
+			throw new IOException("Truncated OID");
+		}
 
-		int b = buffer.get() & 0xFF;
-
-		values.add(b / 40);
-		values.add(b % 40);
+		// Sub-identifiers are counted first (one ends on each byte without the continuation bit)
+		int p = buffer.position();
+		int count = 2;
+		for (int i = 1; i < length; i++) {
+			if ((buffer.get(p + i) & 0x80) == 0) {
+				count++;
+			}
+		}
 
-		length--;
+		int[] v = new int[count];
+		int b = buffer.get() & 0xFF;
+		v[0] = b / 40;
+		v[1] = b % 40;
 
+		int k = 2;
 		int value = 0;
-		while (length > 0) {
+		for (int i = 1; i < length; i++) {
 			b = buffer.get() & 0xFF;
 
 			value <<= 7;
 			value |= (b & ~0x80);
 
 			if ((b & 0x80) == 0) {
-				values.add(value);
+				v[k] = value;
+				k++;
 				value = 0;
 			}
-
-			length--;
-		}
-
-		int[] v = new int[values.size()];
-		int i = 0;
-		for (int val : values) {
-			v[i] = val;
-			i++;
 		}
 		return v;
 	}
@@ -163,8 +124,13 @@ public final class BerReader {
 		return new Oid(doReadOid(buffer, length));
 	}
 	
+	// Shares the content of the buffer (which may be direct)
 	private static ByteBuffer doReadString(ByteBuffer buffer, int length) throws IOException {
-		ByteBuffer b = ByteBuffer.wrap(buffer.array(), buffer.position(), length);
+		if (length > buffer.remaining()) {
+			throw new IOException("Truncated value");
+		}
+		ByteBuffer b = buffer.duplicate();
+		b.limit(buffer.position() + length);
 		buffer.position(buffer.position() + length);
 		return b;
 	}
@@ -192,144 +158,110 @@ public final class BerReader {
 			throw new IOException("Wrong ASN.1 type. Not a sequence: " + type);
 		}
 		int length = doReadLength(buffer);
-		toReadLengthPositions.addFirst(buffer.position() + length);
+		if (depth == toReadLengthPositions.length) {
+			toReadLengthPositions = Arrays.copyOf(toReadLengthPositions, depth * 2);
+		}
+		toReadLengthPositions[depth] = buffer.position() + length;
+		depth++;
 		return type;
 	}
 
 	public void endReadSequence() throws IOException {
-		int position = toReadLengthPositions.removeFirst();
+		depth--;
+		int position = toReadLengthPositions[depth];
 		if (position != buffer.position()) {
 			throw new IOException("Bad sequence: " + position + "!=" + buffer.position());
 		}
 	}
 
 	public boolean hasRemainingInSequence() {
-		int position = toReadLengthPositions.getFirst();
+		int position = toReadLengthPositions[depth - 1];
 		return (buffer.position() < position);
 	}
 
+	// Only the value as a string
 	public String readValue() throws IOException {
-		return doReadValue(buffer, false);
+		return readResult(null).getValue();
+	}
+
+	public Result readResult(Oid oid) throws IOException {
+		return doReadResult(buffer, oid, false);
+	}
+
+	private static byte[] doReadBytes(ByteBuffer buffer, int length) throws IOException {
+		if (length > buffer.remaining()) {
+			throw new IOException("Truncated value");
+		}
+		byte[] b = new byte[length];
+		buffer.get(b);
+		return b;
 	}
 
-	private static String doReadValue(ByteBuffer buffer, boolean opaque) throws IOException {
-	// public OidValue readOidValue() throws IOException {
+	// Unsigned values are encoded with a leading zero byte when their high bit is set (counter64 can thus take 9 bytes)
+	private static long doReadNumber(ByteBuffer buffer, int length) throws IOException {
+		if (length > 9) {
+			throw new IOException("Integer too long: " + length + " bytes");
+		}
+		if (length > buffer.remaining()) {
+			throw new IOException("Truncated value");
+		}
+		long value = 0L;
+		for (int i = 0; i < length; i++) {
+			int b = buffer.get() & 0xFF;
+			if ((i == 0) && ((b & 0x80) == 0x80)) {
+				value = -1L; // Negative, in two's complement form
+			}
+			value <<= 8;
+			value |= b;
+		}
+		return value;
+	}
+
+	private static Result doReadResult(ByteBuffer buffer, Oid oid, boolean opaque) throws IOException {
 		int type = buffer.get() & 0xFF;
 
 		if ((type & BerConstants.ASN_BIT8) == BerConstants.ASN_BIT8) {
 			if (!opaque) {
+				// noSuchObject, noSuchInstance, endOfMibView
 				int l = doReadLength(buffer);
 				doReadString(buffer, l);
-				return null;
+				return new Result(oid, type, 0L, 0d, null, null);
 			}
 			type = buffer.get() & 0xFF; // OPAQUE wrapped type
 		} else if (opaque) {
 			int l = doReadLength(buffer);
 			doReadString(buffer, l);
-			return null;
+			return new Result(oid, BerConstants.NULL, 0L, 0d, null, null);
 		}
 
 		int length = doReadLength(buffer);
 
-		if (type == BerConstants.INTEGER) {
-			return String.valueOf(doReadInteger(buffer, length));
-			// return new OidValue(OidValue.Type.NUMBER, doReadInteger(length));
-		}
-
-		if (type == BerConstants.TIMETICKS) {
-			return String.valueOf(doReadUnsignedLongInteger(buffer, length));
-			// return new OidValue(OidValue.Type.TIME, doReadUnsignedLongInteger(length));
-		}
-
-		if ((type == BerConstants.COUNTER32) || (type == BerConstants.GAUGE32) || (type == BerConstants.COUNTER64) || (type == BerConstants.UNSIGNEDINTEGER32)) {
-			return String.valueOf(doReadUnsignedLongInteger(buffer, length));
-			// return new OidValue(OidValue.Type.NUMBER, doReadUnsignedLongInteger(length));
-		}
-
-		if (type == BerConstants.NULL) {
+		switch (type) {
+		case BerConstants.INTEGER:
+		case BerConstants.TIMETICKS:
+		case BerConstants.COUNTER32:
+		case BerConstants.GAUGE32:
+		case BerConstants.COUNTER64:
+		case BerConstants.UNSIGNEDINTEGER32:
+		case BerConstants.OPAQUE_INTEGER64:
+		case BerConstants.OPAQUE_UNSIGNEDINTEGER64:
+			return new Result(oid, type, doReadNumber(buffer, length), 0d, null, null);
+		case BerConstants.NULL:
 			if (length != 0) {
 				throw new IOException("Invalid Null encoding, length is not zero");
 			}
-			return null;
-			// return new OidValue(OidValue.Type.NULL);
-		}
-
-		if (type == BerConstants.OID) {
-			return new Oid(doReadOid(buffer, length)).toString();
-			// return new OidValue(OidValue.Type.OID, doReadOid(length));
-		}
-
-		if (type == BerConstants.IPADDRESS) {
-			return asIpString(doReadString(buffer, length));
-			// return new OidValue(OidValue.Type.IPADDRESS, doReadString(length));
-		}
-
-		if (type == BerConstants.OCTETSTRING) {
-			return string(doReadString(buffer, length));
-			// return new OidValue(OidValue.Type.STRING, doReadString(length));
-		}
-
-		if (type == BerConstants.OPAQUE) {
-			ByteBuffer wrapped = doReadString(buffer, length);
-			return doReadValue(wrapped, true);
-			//%% return new OidValue(OidValue.Type.STRING, doReadString(length));
-		}
-
-		if (type == BerConstants.OPAQUE_FLOAT) {
-			return String.valueOf(doReadFloat(buffer, length));
-		}
-		if (type == BerConstants.OPAQUE_DOUBLE) {
-			return String.valueOf(doReadDouble(buffer, length));
-		}
-		if (type == BerConstants.OPAQUE_INTEGER64) {
-			return String.valueOf(doReadLong(buffer, length));
-		}
-		if (type == BerConstants.OPAQUE_UNSIGNEDINTEGER64) {
-			return String.valueOf(doReadUnsignedLongInteger(buffer, length));
-		}
-
-		// if ((type == BerConstants.ASN_BITSTRING) || (type ==
-		// BerConstants.OPAQUE) || (type == BerConstants.NSAPADDRESS)) {
-		return string(doReadString(buffer, length));
-		// return new OidValue(OidValue.Type.OTHER, doReadString(length));
-		// }
-	}
-
-	private static String asIpString(ByteBuffer bb) {
-		ByteBuffer bytes = bb.duplicate();
-		if (bytes.remaining() == 4) {
-			StringBuilder b = new StringBuilder();
-			while (bytes.hasRemaining()) {
-				int k = bytes.get() & 0xFF;
-				if (b.length() > 0) {
-					b.append('.');
-				}
-				b.append(String.valueOf(k));
-			}
-			return b.toString();
-		}
-
-		StringBuilder b = new StringBuilder();
-		while (bytes.hasRemaining()) {
-			int k = ((bytes.get() & 0xFF) << 8) | (bytes.get() & 0xFF);
-			String s = Integer.toHexString(k);
-			if (b.length() > 0) {
-				b.append(':');
-			}
-			b.append(s);
-		}
-		return b.toString();
-	}
-	
-	private static String string(ByteBuffer bb) {
-		ByteBuffer bytes = bb.duplicate();
-		while (bytes.hasRemaining()) {
-			int c = bytes.get() & 0xFF;
-			if ((c < 32) || (c >= 127)) {
-				String s = HexUtils.toHexString(bb);
-				return s;
-			}
+			return new Result(oid, type, 0L, 0d, null, null);
+		case BerConstants.OID:
+			return new Result(oid, type, 0L, 0d, null, new Oid(doReadOid(buffer, length)));
+		case BerConstants.OPAQUE:
+			return doReadResult(doReadString(buffer, length), oid, true);
+		case BerConstants.OPAQUE_FLOAT:
+			return new Result(oid, type, 0L, doReadString(buffer, length).getFloat(), null, null);
+		case BerConstants.OPAQUE_DOUBLE:
+			return new Result(oid, type, 0L, doReadString(buffer, length).getDouble(), null, null);
+		default:
+			// IPADDRESS, OCTETSTRING, and the types not known (kept as strings)
+			return new Result(oid, type, 0L, 0d, doReadBytes(buffer, length), null);
 		}
-		return BerPacketUtils.string(bb);
 	}
 }
@@ -1,185 +1,216 @@
 package com.davfx.ninio.snmp;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.List;
 
-public final class BerWriter {
-	public static final int BUFFER_SIZE = 8 * 1024; // 8 KiB MAX
+import com.davfx.ninio.common.ByteBufferAllocator;
+import com.davfx.ninio.common.PooledByteBufferAllocator;
 
-	private ByteBuffer buffer;
-	private final Deque<ByteBuffer> buffers = new LinkedList<ByteBuffer>();
+// Writes backward, from the end of the buffer: the content of a sequence is written first, then its length is known and prepended
+// Elements must thus be written in reverse order, a sequence is closed with the mark taken before writing its (last) content
+public final class BerWriter {
+	private final ByteBuffer buffer;
+	private final int start;
+	private final int end;
+	private int position;
 
-	// private final Deque<Integer> toWriteLengthPositions = new LinkedList<Integer>();
+	private static final int MAX_HEADER_LENGTH = 6; // Type, and length on up to 5 bytes
+	private static final int MAX_INTEGER_LENGTH = MAX_HEADER_LENGTH + 4;
 
+	// Written between the position and the limit of the buffer
 	public BerWriter(ByteBuffer buffer) {
 		this.buffer = buffer;
+		start = buffer.position();
+		end = buffer.limit();
+		position = end;
 	}
 
-	private void pushBuffer() {
-		ByteBuffer b = ByteBuffer.allocate(BUFFER_SIZE);
-		buffers.addFirst(buffer);
-		buffer = b;
+	// The limit of the returned buffer is size (pooled buffers are released by the datagram connection once written)
+	static ByteBuffer allocate(ByteBufferAllocator allocator, int size) {
+		if (allocator instanceof PooledByteBufferAllocator) {
+			return ((PooledByteBufferAllocator) allocator).allocate(size);
+		}
+		return ByteBuffer.allocate(size);
 	}
 
-	private void popBuffer() {
-		buffer = buffers.removeFirst();
+	private void put(int b) {
+		if (position == start) {
+			throw new BufferOverflowException();
+		}
+		position--;
+		buffer.put(position, (byte) b);
 	}
 
-	// Could be encoded on less bytes than 4 but may complicate the algorithm a lot
-	private void willWriteLength() {
-		/*
-		buffer.put((byte) (4 | BerConstants.ASN_BIT8)); // High bit to identify long length
-		toWriteLengthPositions.addFirst(buffer.position());
-		buffer.putInt(0);
-		*/
+	public int mark() {
+		return position;
+	}
 
-		pushBuffer();
+	// Bytes written from the end
+	public int length() {
+		return end - position;
 	}
 
-	private void doWriteLength() {
-		/*
-		int old = buffer.position();
-		int position = toWriteLengthPositions.removeFirst();
-		int length = old - position - 4;
+	// The written bytes, between the position and the limit of the returned buffer (the buffer given to the constructor)
+	public ByteBuffer finish() {
+		buffer.limit(end);
 		buffer.position(position);
-		buffer.order(ByteOrder.BIG_ENDIAN);
-		buffer.putInt(length);
-		*/
+		return buffer;
+	}
 
-		ByteBuffer toWrite = buffer;
-		popBuffer();
-		int length = toWrite.position();
+	void writeLength(int length) {
 		if (length < 0x80) {
-			buffer.put((byte) length);
-		} else {
-			int mask = 0xFF;
-			int bits = 0;
-			int count = 0;
-
-			while (true) {
-				mask <<= 8;
-				count++;
-				if ((length & mask) == 0) {
-					break;
-				}
-				bits += 8;
-			}
-
-			buffer.put((byte) (BerConstants.ASN_BIT8 | count)); // Number of bytes
-
-			while (bits >= 0) {
-				int b = (length >>> bits) & 0xFF;
-				buffer.put((byte) b);
-				bits -= 8;
-			}
+			put(length);
+			return;
 		}
+		int count = 0;
+		while (length != 0) {
+			put(length & 0xFF);
+			length >>>= 8;
+			count++;
+		}
+		put(BerConstants.ASN_BIT8 | count); // Number of bytes
+	}
 
-		// Not very optimal... but avoid to calculate length before writing something
-		buffer.put(toWrite.array(), 0, toWrite.position());
+	private void writeHeader(int type, int mark) {
+		writeLength(mark - position);
+		put(type);
 	}
 
 	public void writeInteger(int value) {
-		buffer.put((byte) BerConstants.INTEGER);
-		willWriteLength();
-
-		int mask = 0x1FF << ((8 * 3) - 1);
-		int intsize = 4;
-		while ((((value & mask) == 0) || ((value & mask) == mask)) && intsize > 1) {
-			intsize--;
-			value <<= 8;
-		}
-		mask = 0xFF << (8 * 3);
-		while (intsize > 0) {
-			buffer.put((byte) ((value & mask) >>> (8 * 3)));
-			value <<= 8;
-			intsize--;
-		}
-
-		/*
-		buffer.order(ByteOrder.BIG_ENDIAN);
-		buffer.putInt(value);
-		*/
-
-		doWriteLength();
+		int mark = position;
+		// Minimal two's complement form
+		do {
+			put(value & 0xFF);
+			value >>= 8;
+		} while (!(((value == 0) && ((buffer.get(position) & 0x80) == 0)) || ((value == -1) && ((buffer.get(position) & 0x80) != 0))));
+		writeHeader(BerConstants.INTEGER, mark);
 	}
 
 	public void writeOid(Oid oid) {
-		buffer.put((byte) BerConstants.OID);
-		willWriteLength();
-
+		int mark = position;
 		int[] raw = oid.getRaw();
-
-		if (raw.length < 2) {
-			throw new IllegalArgumentException();
+		for (int i = raw.length - 1; i >= 2; i--) {
+			int value = raw[i];
+			put(value & 0x7F);
+			value >>>= 7;
+			while (value != 0) {
+				put((value & 0x7F) | 0x80); // Continuation bit
+				value >>>= 7;
+			}
 		}
+		put(raw[1] + (raw[0] * 40));
+		writeHeader(BerConstants.OID, mark);
+	}
 
-		buffer.put((byte) ((raw[1] + (raw[0] * 40)) & 0xFF));
-
-		for (int i = 2; i < raw.length; i++) {
-			int value = raw[i];
+	// Integers in this range are encoded on exactly 4 bytes, and can thus be patched in place
+	public static boolean isFixedInteger(int value) {
+		return (value >= 0x00800000) || (value < -0x00800000);
+	}
 
-			int mask = ~0x80;
-			int bits = 0;
+	// The index of the first byte of the value is returned (to be given to patchFixedInteger)
+	public int writeFixedInteger(int value) {
+		if (!isFixedInteger(value)) {
+			throw new IllegalArgumentException("Not encoded on 4 bytes: " + value);
+		}
+		int mark = position;
+		for (int i = 0; i < 4; i++) {
+			put(value & 0xFF);
+			value >>= 8;
+		}
+		int index = position;
+		writeHeader(BerConstants.INTEGER, mark);
+		return index;
+	}
 
-			while (true) {
-				mask <<= 7;
-				if ((value & mask) == 0) {
-					break;
-				}
-				bits += 7;
-			}
+	public static void patchFixedInteger(ByteBuffer buffer, int index, int value) {
+		for (int i = 3; i >= 0; i--) {
+			buffer.put(index + i, (byte) (value & 0xFF));
+			value >>= 8;
+		}
+	}
 
-			while (bits >= 0) {
-				int b = (value >>> bits) & ~0x80;
-				if (bits > 0) {
-					b |= 0x80; // Continuation bit
-				}
-				buffer.put((byte) b);
-				bits -= 7;
-			}
+	// Already encoded bytes, copied as is (the position of the source is not changed)
+	public void writeRaw(ByteBuffer bytes) {
+		int n = bytes.remaining();
+		if ((position - start) < n) {
+			throw new BufferOverflowException();
+		}
+		position -= n;
+		for (int i = 0; i < n; i++) {
+			buffer.put(position + i, bytes.get(bytes.position() + i));
 		}
+	}
 
-		doWriteLength();
+	public void writeBytes(ByteBuffer bytes) {
+		int mark = position;
+		writeRaw(bytes);
+		writeHeader(BerConstants.OCTETSTRING, mark);
 	}
 
-	public void writeString(ByteBuffer s) {
-		buffer.put((byte) BerConstants.OCTETSTRING);
-		willWriteLength();
-		buffer.put(s);
-		doWriteLength();
+	// Room for bytes written later, the index of the first one is returned
+	public int writeBytes(int length) {
+		int mark = position;
+		for (int i = 0; i < length; i++) {
+			put(0);
+		}
+		int index = position;
+		writeHeader(BerConstants.OCTETSTRING, mark);
+		return index;
 	}
 
-	public void beginWriteSequence() {
-		buffer.put((byte) BerConstants.SEQUENCE);
-		willWriteLength();
+	public void writeNull() {
+		put(0);
+		put(BerConstants.NULL);
 	}
 
-	public void endWriteSequence() {
-		doWriteLength();
+	// type is SEQUENCE or a PDU type, mark is the position before the content of the sequence has been written
+	public void writeSequence(int type, int mark) {
+		writeHeader(type, mark);
 	}
 
-	public void beginWriteRequestPdu(int type) {
-		buffer.put((byte) type);
-		willWriteLength();
+	// The content written since mark is wrapped in an octet string
+	public void writeBytesSequence(int mark) {
+		writeHeader(BerConstants.OCTETSTRING, mark);
 	}
 
-	public void endWriteRequestPdu() {
-		doWriteLength();
+	// Upper bound of what writeRequestPdu writes
+	public static int requestPduLength(List<Oid> oids) {
+		int length = MAX_HEADER_LENGTH + (3 * MAX_INTEGER_LENGTH) + MAX_HEADER_LENGTH;
+		for (Oid oid : oids) {
+			length += MAX_HEADER_LENGTH + MAX_HEADER_LENGTH + (oid.getRaw().length * 5) + 2;
+		}
+		return length;
 	}
 
-	public void beginWriteResponsePdu() {
-		buffer.put((byte) BerConstants.RESPONSE);
-		willWriteLength();
+	// GET, GETNEXT or GETBULK request with a null value for each oid (bulkLength is 0 if not GETBULK)
+	public void writeRequestPdu(int type, int requestId, int bulkLength, List<Oid> oids) {
+		int pdu = position;
+		writeRequestPduContent(bulkLength, oids);
+		writeInteger(requestId);
+		writeSequence(type, pdu);
 	}
 
-	public void endWriteResponsePdu() {
-		doWriteLength();
+	// Same request, with a request id to be patched: the index of its first byte is returned
+	public int writeRequestPduTemplate(int type, int bulkLength, List<Oid> oids) {
+		int pdu = position;
+		writeRequestPduContent(bulkLength, oids);
+		int index = writeFixedInteger(Integer.MAX_VALUE);
+		writeSequence(type, pdu);
+		return index;
 	}
 
-	public void writeNull() {
-		buffer.put((byte) BerConstants.NULL);
-		willWriteLength();
-		doWriteLength();
+	// Everything after the request id
+	private void writeRequestPduContent(int bulkLength, List<Oid> oids) {
+		int varbinds = position;
+		for (int i = oids.size() - 1; i >= 0; i--) {
+			int varbind = position;
+			writeNull();
+			writeOid(oids.get(i));
+			writeSequence(BerConstants.SEQUENCE, varbind);
+		}
+		writeSequence(BerConstants.SEQUENCE, varbinds);
+		writeInteger(bulkLength);
+		writeInteger(0);
 	}
 }
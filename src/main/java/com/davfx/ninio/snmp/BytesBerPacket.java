@@ -2,30 +2,28 @@ package com.davfx.ninio.snmp;
 
 import java.nio.ByteBuffer;
 
+@Deprecated
 public final class BytesBerPacket implements BerPacket {
-	private final ByteBuffer lengthBuffer;
-	private final int length;
-	private final ByteBuffer s;
+	private final ByteBuffer encoded;
 
 	public BytesBerPacket(ByteBuffer s) {
-		this.s = s;
-		length = s.remaining();
-		lengthBuffer = BerPacketUtils.lengthBuffer(length);
+		BerWriter w = new BerWriter(ByteBuffer.allocate(1 + 5 + s.remaining()));
+		w.writeBytes(s);
+		encoded = w.finish();
 	}
 
 	@Override
 	public void write(ByteBuffer buffer) {
-		BerPacketUtils.writeHeader(BerConstants.OCTETSTRING, lengthBuffer, buffer);
-		buffer.put(s);
+		buffer.put(encoded.duplicate());
 	}
 
 	@Override
 	public ByteBuffer lengthBuffer() {
-		return lengthBuffer;
+		return BerPacketUtils.encodedLengthBuffer(encoded);
 	}
 
 	@Override
 	public int length() {
-		return length;
+		return BerPacketUtils.encodedLength(encoded);
 	}
 }
@@ -2,25 +2,36 @@ package com.davfx.ninio.snmp;
 
 import java.nio.ByteBuffer;
 
+@Deprecated
 public final class BytesSequenceBerPacket implements BerPacket {
 	private final BerPacket packet;
 
 	public BytesSequenceBerPacket(BerPacket packet) {
 		this.packet = packet;
 	}
-	
+
+	// The wrapped packet is encoded again each time, it may be modified
+	private ByteBuffer encode() {
+		ByteBuffer e = BerPacketUtils.encode(packet);
+		BerWriter w = new BerWriter(ByteBuffer.allocate(1 + 5 + e.remaining()));
+		int mark = w.mark();
+		w.writeRaw(e);
+		w.writeBytesSequence(mark);
+		return w.finish();
+	}
+
 	@Override
 	public void write(ByteBuffer buffer) {
-		BerPacketUtils.writeHeader(BerConstants.OCTETSTRING, lengthBuffer(), buffer);
-		packet.write(buffer);
+		buffer.put(encode());
 	}
+
 	@Override
 	public int length() {
-			return BerPacketUtils.typeAndLengthBufferLength(packet.lengthBuffer()) + packet.length();
+		return BerPacketUtils.encodedLength(encode());
 	}
 
 	@Override
 	public ByteBuffer lengthBuffer() {
-		return BerPacketUtils.lengthBuffer(length());
+		return BerPacketUtils.encodedLengthBuffer(encode());
 	}
-}
\ No newline at end of file
+}
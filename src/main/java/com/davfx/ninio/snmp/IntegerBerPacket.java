@@ -2,45 +2,28 @@ package com.davfx.ninio.snmp;
 
 import java.nio.ByteBuffer;
 
+@Deprecated
 public final class IntegerBerPacket implements BerPacket {
-	private final ByteBuffer lengthBuffer;
-	private final int length;
-	private final int val;
-	private final int m;
+	private final ByteBuffer encoded;
 
 	public IntegerBerPacket(int value) {
-		int mask = 0x1FF << ((8 * 3) - 1);
-		int l = 4;
-		while ((((value & mask) == 0) || ((value & mask) == mask)) && l > 1) {
-			l--;
-			value <<= 8;
-		}
-		mask = 0xFF << (8 * 3);
-
-		length = l;
-		val = value;
-		m = mask;
-
-		lengthBuffer = BerPacketUtils.lengthBuffer(length);
+		BerWriter w = new BerWriter(ByteBuffer.allocate(1 + 1 + 4));
+		w.writeInteger(value);
+		encoded = w.finish();
 	}
 
 	@Override
 	public void write(ByteBuffer buffer) {
-		BerPacketUtils.writeHeader(BerConstants.INTEGER, lengthBuffer, buffer);
-		int v = val;
-		for (int i = 0; i < length; i++) {
-			buffer.put((byte) ((v & m) >>> (8 * 3)));
-			v <<= 8;
-		}
+		buffer.put(encoded.duplicate());
 	}
 
 	@Override
 	public ByteBuffer lengthBuffer() {
-		return lengthBuffer;
+		return BerPacketUtils.encodedLengthBuffer(encoded);
 	}
 
 	@Override
 	public int length() {
-		return length;
+		return BerPacketUtils.encodedLength(encoded);
 	}
 }
@@ -2,24 +2,28 @@ package com.davfx.ninio.snmp;
 
 import java.nio.ByteBuffer;
 
+@Deprecated
 public final class NullBerPacket implements BerPacket {
-	private final ByteBuffer lengthBuffer = BerPacketUtils.lengthBuffer(0);
+	private final ByteBuffer encoded;
 
 	public NullBerPacket() {
+		BerWriter w = new BerWriter(ByteBuffer.allocate(1 + 1));
+		w.writeNull();
+		encoded = w.finish();
 	}
 
 	@Override
 	public void write(ByteBuffer buffer) {
-		BerPacketUtils.writeHeader(BerConstants.NULL, lengthBuffer, buffer);
+		buffer.put(encoded.duplicate());
 	}
 
 	@Override
 	public ByteBuffer lengthBuffer() {
-		return lengthBuffer;
+		return BerPacketUtils.encodedLengthBuffer(encoded);
 	}
 
 	@Override
 	public int length() {
-		return 0;
+		return BerPacketUtils.encodedLength(encoded);
 	}
 }
@@ -1,23 +1,50 @@
 package com.davfx.ninio.snmp;
 
-import java.util.List;
+import java.util.Arrays;
 
-import com.google.common.base.Splitter;
+import com.google.common.primitives.UnsignedInts;
 
-public final class Oid {
+// Sub-identifiers are unsigned 32-bit values, kept in a plain int[] (not to be modified)
+// Ordered as in SNMP (lexicographically, a prefix before its subtree)
+public final class Oid implements Comparable<Oid> {
 	private final int[] raw;
+	private final int hash;
 
 	public Oid(String dotNotation) {
-		List<String> s = Splitter.on('.').splitToList(dotNotation);
-		if (s.size() < 2) {
-			throw new IllegalArgumentException();
+		int count = 1;
+		for (int i = 0; i < dotNotation.length(); i++) {
+			if (dotNotation.charAt(i) == '.') {
+				count++;
+			}
+		}
+		if (count < 2) {
+			throw new IllegalArgumentException("Invalid OID: " + dotNotation);
 		}
-		raw = new int[s.size()];
-		int i = 0;
-		for (String e : s) {
-			raw[i] = Integer.parseInt(e);
-			i++;
+		raw = new int[count];
+		int k = 0;
+		long value = 0L;
+		boolean empty = true;
+		for (int i = 0; i <= dotNotation.length(); i++) {
+			char c = (i == dotNotation.length()) ? '.' : dotNotation.charAt(i);
+			if (c == '.') {
+				if (empty) {
+					throw new IllegalArgumentException("Invalid OID: " + dotNotation);
+				}
+				raw[k] = (int) value;
+				k++;
+				value = 0L;
+				empty = true;
+			} else if ((c >= '0') && (c <= '9')) {
+				value = (value * 10L) + (c - '0');
+				if (value > 0xFFFFFFFFL) {
+					throw new IllegalArgumentException("Invalid OID: " + dotNotation);
+				}
+				empty = false;
+			} else {
+				throw new IllegalArgumentException("Invalid OID: " + dotNotation);
+			}
 		}
+		hash = hash(raw);
 	}
 
 	public Oid(int[] raw) {
@@ -25,6 +52,18 @@ public final class Oid {
 			throw new IllegalArgumentException();
 		}
 		this.raw = raw;
+		hash = hash(raw);
+	}
+
+	// Table instances only differ by their last sub-identifiers, the bits are mixed not to leave them in the low bits only
+	private static int hash(int[] raw) {
+		int h = Arrays.hashCode(raw);
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
 	}
 
 	public int[] getRaw() {
@@ -33,11 +72,7 @@ public final class Oid {
 
 	@Override
 	public int hashCode() {
-		int h = 0;
-		for (int e : raw) {
-			h += e;
-		}
-		return (h / raw.length);
+		return hash;
 	}
 
 	@Override
@@ -47,7 +82,7 @@ public final class Oid {
 			if (b.length() > 0) {
 				b.append('.');
 			}
-			b.append(String.valueOf(e));
+			b.append(UnsignedInts.toString(e));
 		}
 		return b.toString();
 	}
@@ -64,26 +99,26 @@ public final class Oid {
 		return true;
 	}
 
+	@Override
+	public int compareTo(Oid oid) {
+		int n = Math.min(raw.length, oid.raw.length);
+		for (int i = 0; i < n; i++) {
+			if (raw[i] != oid.raw[i]) {
+				return UnsignedInts.compare(raw[i], oid.raw[i]);
+			}
+		}
+		return raw.length - oid.raw.length;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) {
 			return true;
 		}
-		if (o == null) {
-			return false;
-		}
 		if (!(o instanceof Oid)) {
 			return false;
 		}
 		Oid oid = (Oid) o;
-		if (oid.raw.length != raw.length) {
-			return false;
-		}
-		for (int i = 0; i < raw.length; i++) {
-			if (raw[i] != oid.raw[i]) {
-				return false;
-			}
-		}
-		return true;
+		return (oid.hash == hash) && Arrays.equals(oid.raw, raw);
 	}
 }
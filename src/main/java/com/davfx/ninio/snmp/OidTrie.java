@@ -0,0 +1,277 @@
+package com.davfx.ninio.snmp;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.google.common.primitives.UnsignedInts;
+
+// OIDs stored by sub-identifier, for exact, longest prefix (MIB-style) and subtree lookups
+// Children are kept in sorted arrays: no boxing, and the subtrees are iterated in SNMP order
+// Not thread-safe
+public final class OidTrie<V> {
+	private static final int[] NO_KEYS = new int[0];
+
+	private static final class Node<V> {
+		public int[] keys = NO_KEYS;
+		public Node<V>[] children = null;
+		public int size = 0;
+		public Oid oid = null; // Null if no value
+		public V value = null;
+		public Node() {
+		}
+
+		public int indexOf(int key) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				int c = UnsignedInts.compare(keys[middle], key);
+				if (c < 0) {
+					low = middle + 1;
+				} else if (c > 0) {
+					high = middle - 1;
+				} else {
+					return middle;
+				}
+			}
+			return -(low + 1);
+		}
+
+		public Node<V> get(int key) {
+			int i = indexOf(key);
+			return (i < 0) ? null : children[i];
+		}
+
+		@SuppressWarnings("unchecked")
+		public Node<V> getOrCreate(int key) {
+			int i = indexOf(key);
+			if (i >= 0) {
+				return children[i];
+			}
+			i = -(i + 1);
+			if (size == keys.length) {
+				int capacity = Math.max(2, size * 2);
+				keys = Arrays.copyOf(keys, capacity);
+				children = (children == null) ? (Node<V>[]) new Node<?>[capacity] : Arrays.copyOf(children, capacity);
+			}
+			System.arraycopy(keys, i, keys, i + 1, size - i);
+			System.arraycopy(children, i, children, i + 1, size - i);
+			Node<V> child = new Node<>();
+			keys[i] = key;
+			children[i] = child;
+			size++;
+			return child;
+		}
+
+		public void remove(int key) {
+			int i = indexOf(key);
+			if (i < 0) {
+				return;
+			}
+			System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+			System.arraycopy(children, i + 1, children, i, size - i - 1);
+			size--;
+			children[size] = null;
+		}
+
+		public boolean isEmpty() {
+			return (oid == null) && (size == 0);
+		}
+	}
+
+	private final Node<V> root = new Node<>();
+	private int count = 0;
+
+	public OidTrie() {
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	// The previous value is returned
+	public V put(Oid oid, V value) {
+		Node<V> node = root;
+		for (int e : oid.getRaw()) {
+			node = node.getOrCreate(e);
+		}
+		V previous = node.value;
+		if (node.oid == null) {
+			count++;
+		}
+		node.oid = oid;
+		node.value = value;
+		return previous;
+	}
+
+	private Node<V> find(Oid oid) {
+		Node<V> node = root;
+		for (int e : oid.getRaw()) {
+			node = node.get(e);
+			if (node == null) {
+				return null;
+			}
+		}
+		return node;
+	}
+
+	public V get(Oid oid) {
+		Node<V> node = find(oid);
+		return (node == null) ? null : node.value;
+	}
+
+	public boolean containsKey(Oid oid) {
+		Node<V> node = find(oid);
+		return (node != null) && (node.oid != null);
+	}
+
+	// The removed value is returned, the emptied nodes are dropped
+	@SuppressWarnings("unchecked")
+	public V remove(Oid oid) {
+		int[] raw = oid.getRaw();
+		Node<V>[] path = (Node<V>[]) new Node<?>[raw.length + 1];
+		Node<V> node = root;
+		path[0] = node;
+		for (int i = 0; i < raw.length; i++) {
+			node = node.get(raw[i]);
+			if (node == null) {
+				return null;
+			}
+			path[i + 1] = node;
+		}
+		if (node.oid == null) {
+			return null;
+		}
+		V previous = node.value;
+		node.oid = null;
+		node.value = null;
+		count--;
+		for (int i = raw.length; (i > 0) && path[i].isEmpty(); i--) {
+			path[i - 1].remove(raw[i - 1]);
+		}
+		return previous;
+	}
+
+	// The entry with the longest OID prefixing oid (or equal to it), null if none
+	// Instances are mapped to the column or scalar they belong to, results to the request they answer
+	public Map.Entry<Oid, V> longestPrefix(Oid oid) {
+		Node<V> found = null;
+		Node<V> node = root;
+		for (int e : oid.getRaw()) {
+			node = node.get(e);
+			if (node == null) {
+				break;
+			}
+			if (node.oid != null) {
+				found = node;
+			}
+		}
+		return (found == null) ? null : new AbstractMap.SimpleImmutableEntry<>(found.oid, found.value);
+	}
+
+	// The entries prefixed by oid (including oid), in SNMP order
+	public Iterable<Map.Entry<Oid, V>> subtree(Oid oid) {
+		final Node<V> node = find(oid);
+		return new Iterable<Map.Entry<Oid, V>>() {
+			@Override
+			public Iterator<Map.Entry<Oid, V>> iterator() {
+				return new SubtreeIterator<>(node);
+			}
+		};
+	}
+
+	// All the entries, in SNMP order
+	public Iterable<Map.Entry<Oid, V>> entries() {
+		return new Iterable<Map.Entry<Oid, V>>() {
+			@Override
+			public Iterator<Map.Entry<Oid, V>> iterator() {
+				return new SubtreeIterator<>(root);
+			}
+		};
+	}
+
+	// Depth first, a node before its children
+	private static final class SubtreeIterator<V> implements Iterator<Map.Entry<Oid, V>> {
+		private Node<?>[] nodes = new Node<?>[8];
+		private int[] indexes = new int[8];
+		private int depth = 0;
+		private Node<V> next = null;
+
+		public SubtreeIterator(Node<V> from) {
+			if (from != null) {
+				nodes[0] = from;
+				indexes[0] = -1; // The node itself first
+				depth = 1;
+			}
+			advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void advance() {
+			next = null;
+			while (depth > 0) {
+				Node<V> node = (Node<V>) nodes[depth - 1];
+				int index = indexes[depth - 1];
+				if (index < 0) {
+					indexes[depth - 1] = 0;
+					if (node.oid != null) {
+						next = node;
+						return;
+					}
+					continue;
+				}
+				if (index == node.size) {
+					depth--;
+					continue;
+				}
+				indexes[depth - 1] = index + 1;
+				if (depth == nodes.length) {
+					nodes = Arrays.copyOf(nodes, depth * 2);
+					indexes = Arrays.copyOf(indexes, depth * 2);
+				}
+				nodes[depth] = node.children[index];
+				indexes[depth] = -1;
+				depth++;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Map.Entry<Oid, V> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Map.Entry<Oid, V> e = new AbstractMap.SimpleImmutableEntry<>(next.oid, next.value);
+			advance();
+			return e;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder("{");
+		for (Map.Entry<Oid, V> e : entries()) {
+			if (b.length() > 1) {
+				b.append(", ");
+			}
+			b.append(e.getKey()).append('=').append(e.getValue());
+		}
+		return b.append('}').toString();
+	}
+}
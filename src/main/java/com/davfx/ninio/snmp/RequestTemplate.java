@@ -0,0 +1,11 @@
+package com.davfx.ninio.snmp;
+
+import java.nio.ByteBuffer;
+
+import com.davfx.ninio.common.ByteBufferAllocator;
+
+// A request encoded once, sent again with its request id patched (on each repeat, and each time the same oids are polled)
+// To be used on the queue thread only
+interface RequestTemplate {
+	ByteBuffer build(ByteBufferAllocator allocator, int requestId);
+}
@@ -1,25 +1,148 @@
 package com.davfx.ninio.snmp;
 
+import java.nio.ByteBuffer;
+
+import com.google.common.primitives.UnsignedLongs;
+
+// Values are kept typed, the string form is only built if asked for
 public final class Result {
 	private final Oid oid;
-	private final String value;
-	// private final OidValue value;
+	private final int type;
+	private final long number;
+	private final double decimal;
+	private final byte[] bytes;
+	private final Oid oidValue;
+	private String value = null;
 
 	public Result(Oid oid, String value) {
-	// public Result(Oid oid, OidValue value) {
 		this.oid = oid;
+		type = (value == null) ? BerConstants.NULL : BerConstants.OCTETSTRING;
+		number = 0L;
+		decimal = 0d;
+		bytes = (value == null) ? null : value.getBytes(BerPacketUtils.CHARSET);
+		oidValue = null;
 		this.value = value;
 	}
+
+	Result(Oid oid, int type, long number, double decimal, byte[] bytes, Oid oidValue) {
+		this.oid = oid;
+		this.type = type;
+		this.number = number;
+		this.decimal = decimal;
+		this.bytes = bytes;
+		this.oidValue = oidValue;
+	}
+
 	public Oid getOid() {
 		return oid;
 	}
+
+	// One of the BerConstants value types (INTEGER, COUNTER64, OCTETSTRING, OPAQUE_FLOAT...), noSuchObject (0x80), noSuchInstance (0x81) and endOfMibView (0x82) have no value
+	public int getType() {
+		return type;
+	}
+
+	private boolean isUnsigned() {
+		return (type == BerConstants.TIMETICKS) || (type == BerConstants.COUNTER32) || (type == BerConstants.GAUGE32) || (type == BerConstants.COUNTER64) || (type == BerConstants.UNSIGNEDINTEGER32) || (type == BerConstants.OPAQUE_UNSIGNEDINTEGER64);
+	}
+
+	private boolean isDecimal() {
+		return (type == BerConstants.OPAQUE_FLOAT) || (type == BerConstants.OPAQUE_DOUBLE);
+	}
+
+	// Integers, counters, gauges and timeticks (counter64 above 2^63 are negative, as unsigned longs)
+	public long getLong() {
+		return isDecimal() ? (long) decimal : number;
+	}
+
+	public double getDouble() {
+		if (isDecimal()) {
+			return decimal;
+		}
+		if (isUnsigned() && (number < 0L)) {
+			return Double.parseDouble(UnsignedLongs.toString(number));
+		}
+		return number;
+	}
+
+	// Octet strings and IP addresses, null for the other types
+	public ByteBuffer getBytes() {
+		if (bytes == null) {
+			return null;
+		}
+		return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+	}
+
+	// Null if not an OID value
+	public Oid getOidValue() {
+		return oidValue;
+	}
+
+	// Null for NULL and the exception values
 	public String getValue() {
-	// public OidValue getValue() {
+		if ((value == null) && (type != BerConstants.NULL)) {
+			value = toValueString();
+		}
 		return value;
 	}
 
+	private String toValueString() {
+		if (oidValue != null) {
+			return oidValue.toString();
+		}
+		if (bytes != null) {
+			if (type == BerConstants.IPADDRESS) {
+				return asIpString(bytes);
+			}
+			return string(bytes);
+		}
+		if (isDecimal()) {
+			return (type == BerConstants.OPAQUE_FLOAT) ? String.valueOf((float) decimal) : String.valueOf(decimal);
+		}
+		if ((type & BerConstants.ASN_BIT8) == BerConstants.ASN_BIT8) {
+			return null;
+		}
+		if (isUnsigned() && (number < 0L)) {
+			return UnsignedLongs.toString(number);
+		}
+		return String.valueOf(number);
+	}
+
+	private static String asIpString(byte[] bytes) {
+		if (bytes.length == 4) {
+			StringBuilder b = new StringBuilder();
+			for (byte k : bytes) {
+				if (b.length() > 0) {
+					b.append('.');
+				}
+				b.append(String.valueOf(k & 0xFF));
+			}
+			return b.toString();
+		}
+
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; (i + 1) < bytes.length; i += 2) {
+			int k = ((bytes[i] & 0xFF) << 8) | (bytes[i + 1] & 0xFF);
+			if (b.length() > 0) {
+				b.append(':');
+			}
+			b.append(Integer.toHexString(k));
+		}
+		return b.toString();
+	}
+
+	private static String string(byte[] bytes) {
+		for (byte b : bytes) {
+			int c = b & 0xFF;
+			if ((c < 32) || (c >= 127)) {
+				return HexUtils.toHexString(ByteBuffer.wrap(bytes));
+			}
+		}
+		return new String(bytes, BerPacketUtils.CHARSET);
+	}
+
 	@Override
 	public String toString() {
-		return oid + ":" + value;
+		return oid + ":" + getValue();
 	}
 }
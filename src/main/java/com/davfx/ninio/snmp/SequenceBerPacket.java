@@ -4,6 +4,7 @@ import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.List;
 
+@Deprecated
 public final class SequenceBerPacket implements BerPacket {
 	private final List<BerPacket> toWrite = new LinkedList<>();
 	private final int type;
@@ -12,26 +13,37 @@ public final class SequenceBerPacket implements BerPacket {
 		this.type = type;
 	}
 
-	@Override
-	public int length() {
-		int l = 0;
+	// Encoded again each time, packets can be added at any time
+	private ByteBuffer encode() {
+		List<ByteBuffer> encoded = new LinkedList<>();
+		int l = 1 + 5;
 		for (BerPacket p : toWrite) {
-			l += BerPacketUtils.typeAndLengthBufferLength(p.lengthBuffer()) + p.length();
+			ByteBuffer e = BerPacketUtils.encode(p);
+			l += e.remaining();
+			encoded.add(0, e);
+		}
+		BerWriter w = new BerWriter(ByteBuffer.allocate(l));
+		int mark = w.mark();
+		for (ByteBuffer e : encoded) {
+			w.writeRaw(e);
 		}
-		return l;
+		w.writeSequence(type, mark);
+		return w.finish();
+	}
+
+	@Override
+	public int length() {
+		return BerPacketUtils.encodedLength(encode());
 	}
 
 	@Override
 	public ByteBuffer lengthBuffer() {
-		return BerPacketUtils.lengthBuffer(length());
+		return BerPacketUtils.encodedLengthBuffer(encode());
 	}
 
 	@Override
 	public void write(ByteBuffer buffer) {
-		BerPacketUtils.writeHeader(type, lengthBuffer(), buffer);
-		for (BerPacket p : toWrite) {
-			p.write(buffer);
-		}
+		buffer.put(encode());
 	}
 
 	public SequenceBerPacket add(BerPacket sequence) {
@@ -2,26 +2,31 @@ package com.davfx.ninio.snmp;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Date;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.davfx.ninio.common.Address;
+import com.davfx.ninio.common.ByteBufferAllocator;
 import com.davfx.ninio.common.Closeable;
 import com.davfx.ninio.common.CloseableByteBufferHandler;
 import com.davfx.ninio.common.FailableCloseableByteBufferHandler;
 import com.davfx.ninio.common.Ready;
 import com.davfx.ninio.common.ReadyConnection;
-import com.davfx.util.DateUtils;
+import com.davfx.ninio.common.TimerWheel;
 
 public final class SnmpClient implements Closeable {
 	private static final Logger LOGGER = LoggerFactory.getLogger(SnmpClient.class);
@@ -29,34 +34,24 @@ public final class SnmpClient implements Closeable {
 	private final SnmpClientConfigurator configurator;
 	private final RequestIdProvider requestIdProvider = new RequestIdProvider();
 	private final Set<InstanceMapper> instanceMappers = new HashSet<>();
-	private volatile boolean closed = false;
+	private final Map<List<Oid>, RequestTemplate> templates;
 
 	public SnmpClient(final SnmpClientConfigurator configurator) {
 		this.configurator = configurator;
-		
-		configurator.repeatExecutor.scheduleAtFixedRate(new Runnable() {
+		final int maxTemplates = configurator.templates;
+		// Only accessed from the queue thread
+		templates = new LinkedHashMap<List<Oid>, RequestTemplate>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
 			@Override
-			public void run() {
-				if (closed) {
-					throw new RuntimeException("Stop requested");
-				}
-
-				configurator.queue.post(new Runnable() {
-					@Override
-					public void run() {
-						Date now = new Date();
-						for (InstanceMapper i : instanceMappers) {
-							i.repeat(now);
-						}
-					}
-				});
+			protected boolean removeEldestEntry(Map.Entry<List<Oid>, RequestTemplate> eldest) {
+				return size() > maxTemplates;
 			}
-		}, 0, (long) (configurator.repeatTime * 1000d), TimeUnit.MILLISECONDS);
+		};
 	}
 	
 	@Override
 	public void close() {
-		closed = true;
+		// Nothing to do, pending requests are repeated and timed out by the queue timers
 	}
 	
 	private static final Random RANDOM = new Random(System.currentTimeMillis());
@@ -71,8 +66,9 @@ public final class SnmpClient implements Closeable {
 		public RequestIdProvider() {
 		}
 		
+		// The first byte is kept in [0x40, 0x7F]: request ids are always encoded on 4 bytes, and can be patched in the templates
 		public int get() {
-			int id = ((prefix & 0xFFFF) << 16) | (nextRequestId & 0xFFFF);
+			int id = (((prefix & 0x3FFF) | 0x4000) << 16) | (nextRequestId & 0xFFFF);
 			nextRequestId++;
 			if (nextRequestId == LOOP_REQUEST_ID) {
 				nextRequestId = 0;
@@ -87,12 +83,17 @@ public final class SnmpClient implements Closeable {
 			public void run() {
 				Ready ready = configurator.readyFactory.create(configurator.queue);
 				
+				if (configurator.authEngine != null) {
+					configurator.authEngine.restore(configurator.address);
+				}
+				
 				final InstanceMapper instanceMapper = new InstanceMapper(configurator, requestIdProvider);
 				instanceMappers.add(instanceMapper);
 
 				ready.connect(configurator.address, new ReadyConnection() {
 					@Override
 					public void handle(Address address, ByteBuffer buffer) {
+						int length = buffer.remaining();
 						int instanceId;
 						int errorStatus;
 						int errorIndex;
@@ -110,13 +111,14 @@ public final class SnmpClient implements Closeable {
 								errorStatus = parser.getErrorStatus();
 								errorIndex = parser.getErrorIndex();
 								results = parser.getResults();
+								configurator.authEngine.remember(configurator.address);
 							}
 						} catch (Exception e) {
 							LOGGER.error("Invalid packet", e);
 							return;
 						}
 						
-						instanceMapper.handle(instanceId, errorStatus, errorIndex, results);
+						instanceMapper.handle(instanceId, errorStatus, errorIndex, results, length);
 					}
 					
 					@Override
@@ -128,7 +130,7 @@ public final class SnmpClient implements Closeable {
 					
 					@Override
 					public void connected(final FailableCloseableByteBufferHandler write) {
-						final SnmpWriter w = new SnmpWriter(write, configurator.community, configurator.authEngine);
+						final SnmpWriter w = new SnmpWriter(write, configurator.queue.allocator(), configurator.community, configurator.authEngine, templates);
 						
 						clientHandler.launched(new SnmpClientHandler.Callback() {
 							@Override
@@ -141,10 +143,46 @@ public final class SnmpClient implements Closeable {
 								write.close();
 							}
 							@Override
-							public void get(Oid oid, GetCallback callback) {
-								Instance i = new Instance(instanceMapper, callback, w, oid, configurator);
-								instanceMapper.map(i);
-								w.get(i.instanceId, oid);
+							public void get(final Oid oid, final GetCallback callback) {
+								configurator.queue.post(new Runnable() {
+									@Override
+									public void run() {
+										new Instance(instanceMapper, callback, w, oid, configurator).send();
+									}
+								});
+							}
+							@Override
+							public void get(Iterable<Oid> oids, final GetCallback callback) {
+								final List<Oid> l = new ArrayList<>();
+								for (Oid oid : oids) {
+									l.add(oid);
+								}
+								configurator.queue.post(new Runnable() {
+									@Override
+									public void run() {
+										if (l.isEmpty()) {
+											callback.close();
+											return;
+										}
+										
+										BatchCallback batch = new BatchCallback(callback, l.size());
+										
+										int maxLength = configurator.maxPduSize - BatchInstance.HEADER_LENGTH - ((configurator.community == null) ? 0 : configurator.community.length());
+										List<Oid> chunk = new ArrayList<>();
+										int chunkLength = 0;
+										for (Oid oid : l) {
+											int length = BatchInstance.varbindLength(oid);
+											if (!chunk.isEmpty() && ((chunk.size() >= configurator.getBatchSize) || ((chunkLength + length) > maxLength))) {
+												new BatchInstance(instanceMapper, batch, w, chunk, configurator).send();
+												chunk = new ArrayList<>();
+												chunkLength = 0;
+											}
+											chunk.add(oid);
+											chunkLength += length;
+										}
+										new BatchInstance(instanceMapper, batch, w, chunk, configurator).send();
+									}
+								});
 							}
 						});
 					}
@@ -161,17 +199,138 @@ public final class SnmpClient implements Closeable {
 		});
 	}
 	
+	private static abstract class Request {
+		protected final InstanceMapper instanceMapper;
+		protected final SnmpClientConfigurator configurator;
+		private final double repeatRandomizationRandomized;
+		private final long beginning = System.nanoTime();
+		private TimerWheel.Timer repeatTimer = null;
+		private TimerWheel.Timer timeoutTimer = null;
+		public int instanceId;
+		public int generation = 0; // Of the auth engine when last sent
+		
+		public Request(InstanceMapper instanceMapper, SnmpClientConfigurator configurator) {
+			this.instanceMapper = instanceMapper;
+			this.configurator = configurator;
+			
+			repeatRandomizationRandomized = (RANDOM.nextDouble() * configurator.repeatRandomization) - (1d / 2d); // [ -0.5, 0.5 [
+		}
+
+		protected abstract void repeat();
+		protected abstract void timeout(double t);
+		public abstract void handle(int errorStatus, int errorIndex, Iterable<Result> results, int length); // length of the whole packet
+		public abstract boolean isFinished();
+		
+		// To be called on each send, the repeat is rescheduled, the timeout runs from the first send
+		public final void sent() {
+			if (configurator.authEngine != null) {
+				generation = configurator.authEngine.getGeneration();
+			}
+			if (repeatTimer != null) {
+				repeatTimer.cancel();
+			}
+			repeatTimer = configurator.queue.schedule(configurator.minTimeToRepeat + repeatRandomizationRandomized, new Runnable() {
+				@Override
+				public void run() {
+					repeatTimer = null;
+					if (isFinished()) {
+						return;
+					}
+					repeat();
+					sent();
+				}
+			});
+			
+			if (timeoutTimer == null) {
+				timeoutTimer = configurator.queue.schedule(configurator.timeoutFromBeginning, new Runnable() {
+					@Override
+					public void run() {
+						if (isFinished()) {
+							return;
+						}
+						cancel();
+						instanceMapper.unmap(Request.this);
+						timeout((System.nanoTime() - beginning) / 1000000000d);
+					}
+				});
+			}
+		}
+		
+		public final void cancel() {
+			if (repeatTimer != null) {
+				repeatTimer.cancel();
+				repeatTimer = null;
+			}
+			if (timeoutTimer != null) {
+				timeoutTimer.cancel();
+			}
+		}
+	}
+	
 	private static final class InstanceMapper {
 		private final SnmpClientConfigurator configurator;
-		private final Map<Integer, Instance> instances = new HashMap<>();
+		private final Map<Integer, Request> instances = new HashMap<>();
 		private RequestIdProvider requestIdProvider;
+		private final int headerLength;
+		private int bulkSize;
+		private int walking = 0;
+		private final Deque<Runnable> waitingWalks = new ArrayDeque<>();
 		
 		public InstanceMapper(SnmpClientConfigurator configurator, RequestIdProvider requestIdProvider) {
 			this.configurator = configurator;
 			this.requestIdProvider = requestIdProvider;
+			headerLength = BatchInstance.HEADER_LENGTH + ((configurator.community == null) ? 0 : configurator.community.length());
+			bulkSize = Math.max(1, Math.min(configurator.bulkSize, configurator.maxBulkSize));
 		}
 		
-		public void map(Instance instance) {
+		// The GETBULK cursors of all the walks on this agent share configurator.walkConcurrency slots
+		public void acquire(Runnable start) {
+			if (walking < Math.max(1, configurator.walkConcurrency)) {
+				walking++;
+				start.run();
+			} else {
+				waitingWalks.add(start);
+			}
+		}
+		// Not queued, the waiting walks go first
+		public boolean tryAcquire() {
+			if ((walking < Math.max(1, configurator.walkConcurrency)) && waitingWalks.isEmpty()) {
+				walking++;
+				return true;
+			}
+			return false;
+		}
+		public void release() {
+			Runnable next = waitingWalks.poll();
+			if (next == null) {
+				walking--;
+			} else {
+				next.run();
+			}
+		}
+		
+		// Max-repetitions shared by the walks on this agent, aimed at responses of configurator.maxPduSize
+		public int bulkSize() {
+			return bulkSize;
+		}
+		public void bulkReceived(int bulkLength, int count, int length) {
+			if (count == 0) {
+				return;
+			}
+			int varbindLength = Math.max(1, ((length - headerLength) + count - 1) / count);
+			int adapted = Math.max(1, (configurator.maxPduSize - headerLength) / varbindLength);
+			if (count < bulkLength) {
+				// Cut by the agent (or the end of its MIB), no reason to ask for more
+				adapted = Math.min(adapted, bulkSize);
+			}
+			bulkSize = Math.max(1, Math.min(Math.min(adapted, bulkSize * 2), configurator.maxBulkSize));
+		}
+		// On tooBig, and when a response is not received (large responses are fragmented, and more likely to be lost)
+		public void bulkTooBig(int bulkLength) {
+			bulkSize = Math.min(bulkSize, Math.max(1, bulkLength / 2));
+		}
+		
+		public void map(Request instance) {
 			int instanceId = requestIdProvider.get();
 
 			if (instances.containsKey(instanceId)) {
@@ -184,6 +343,12 @@ public final class SnmpClient implements Closeable {
 			instance.instanceId = instanceId;
 		}
 		
+		public void unmap(Request instance) {
+			if (instances.get(instance.instanceId) == instance) {
+				instances.remove(instance.instanceId);
+			}
+		}
+		
 		/*%%
 		public void closedByUser() {
 			instances.clear();
@@ -196,296 +361,736 @@ public final class SnmpClient implements Closeable {
 		}
 		*/
 		
-		public void handle(int instanceId, int errorStatus, int errorIndex, Iterable<Result> results) {
-			Instance i = instances.remove(instanceId);
+		public void handle(int instanceId, int errorStatus, int errorIndex, Iterable<Result> results, int length) {
+			Request i = instances.remove(instanceId);
 			//%% LOGGER.debug("Instances in MEM = {}", instances.size());
 			if (i == null) {
+				if (errorStatus == BerConstants.ERROR_STATUS_RETRY) {
+					// Reports from an encrypted request may not carry its request id, the pending requests sent with the outdated engine are sent again (once per engine update)
+					int generation = configurator.authEngine.getGeneration();
+					LOGGER.trace("Repeating outdated requests after receiving auth engine update");
+					for (Request r : new ArrayList<>(instances.values())) {
+						if (!r.isFinished() && (r.generation != generation)) {
+							r.repeat();
+							r.sent();
+						}
+					}
+				}
 				return;
 			}
-			i.handle(errorStatus, errorIndex, results);
-		}
-		
-		public void repeat(Date now) {
-			for (Instance i : instances.values()) {
-				i.repeat(now);
-			}
-			
-			Iterator<Instance> ii = instances.values().iterator();
-			while (ii.hasNext()) {
-				Instance i = ii.next();
-				if (i.callback == null) {
-					ii.remove();
-				}
+			i.handle(errorStatus, errorIndex, results, length);
+			if (i.isFinished()) {
+				i.cancel();
 			}
 		}
 	}
 	
+	// GET requests are encoded once and kept in the templates, the same oids polled again are not encoded again
+	// Walk requests (GETNEXT, GETBULK) move forward at each step, they are encoded once for the step (and its repeats) but not kept
 	private static final class SnmpWriter {
 		private final CloseableByteBufferHandler write;
+		private final ByteBufferAllocator allocator;
 		private final String community;
+		private final ByteBuffer communityBytes;
 		private final AuthRemoteEngine authEngine;
-		public SnmpWriter(CloseableByteBufferHandler write, String community, AuthRemoteEngine authEngine) {
+		private final Map<List<Oid>, RequestTemplate> templates;
+		public SnmpWriter(CloseableByteBufferHandler write, ByteBufferAllocator allocator, String community, AuthRemoteEngine authEngine, Map<List<Oid>, RequestTemplate> templates) {
 			this.write = write;
+			this.allocator = allocator;
 			this.community = community;
+			communityBytes = (community == null) ? null : BerPacketUtils.bytes(community);
 			this.authEngine = authEngine;
+			this.templates = templates;
 		}
 		
-		public void get(int instanceId, Oid oid) {
+		private RequestTemplate template(int type, int bulkLength, List<Oid> oids) {
 			if (authEngine == null) {
-				Version2cPacketBuilder builder = Version2cPacketBuilder.get(community, instanceId, oid);
-				LOGGER.trace("Writing GET: {} #{} ({})", oid, instanceId, community);
-				write.handle(null, builder.getBuffer());
+				return Version2cPacketBuilder.template(communityBytes, oids, type, bulkLength);
 			} else {
-				Version3PacketBuilder builder = Version3PacketBuilder.get(authEngine, instanceId, oid);
-				write.handle(null, builder.getBuffer());
+				return Version3PacketBuilder.template(authEngine, oids, type, bulkLength);
 			}
 		}
-		public void getNext(int instanceId, Oid oid) {
-			if (authEngine == null) {
-				Version2cPacketBuilder builder = Version2cPacketBuilder.getNext(community, instanceId, oid);
-				LOGGER.trace("Writing GETNEXT: {} #{} ({})", oid, instanceId, community);
-				write.handle(null, builder.getBuffer());
-			} else {
-				Version3PacketBuilder builder = Version3PacketBuilder.getNext(authEngine, instanceId, oid);
-				write.handle(null, builder.getBuffer());
+		
+		public RequestTemplate get(Oid oid) {
+			return get(Collections.singletonList(oid));
+		}
+		public RequestTemplate get(List<Oid> oids) {
+			RequestTemplate t = templates.get(oids);
+			if (t == null) {
+				t = template(BerConstants.GET, 0, oids);
+				templates.put(oids, t);
 			}
+			return t;
 		}
-		public void getBulk(int instanceId, Oid oid, int bulkLength) {
-			if (authEngine == null) {
-				Version2cPacketBuilder builder = Version2cPacketBuilder.getBulk(community, instanceId, oid, bulkLength);
-				LOGGER.trace("Writing GETBULK: {} #{} ({})", oid, instanceId, community);
-				write.handle(null, builder.getBuffer());
-			} else {
-				Version3PacketBuilder builder = Version3PacketBuilder.getBulk(authEngine, instanceId, oid, bulkLength);
-				write.handle(null, builder.getBuffer());
+		public RequestTemplate getNext(Oid oid) {
+			return template(BerConstants.GETNEXT, 0, Collections.singletonList(oid));
+		}
+		public RequestTemplate getBulk(Oid oid, int bulkLength) {
+			return template(BerConstants.GETBULK, bulkLength, Collections.singletonList(oid));
+		}
+		
+		public void send(int instanceId, RequestTemplate template) {
+			LOGGER.trace("Writing #{} ({})", instanceId, community);
+			write.handle(null, template.build(allocator, instanceId));
+		}
+	}
+	
+	// Shared by all the requests of a batched GET
+	private static final class BatchCallback {
+		private final SnmpClientHandler.Callback.GetCallback callback;
+		private int remaining;
+		private boolean done = false;
+		
+		public BatchCallback(SnmpClientHandler.Callback.GetCallback callback, int remaining) {
+			this.callback = callback;
+			this.remaining = remaining;
+		}
+		
+		public boolean isDone() {
+			return done;
+		}
+		
+		public void result(Result result) {
+			if (done) {
+				return;
+			}
+			callback.result(result);
+		}
+		public void oidDone() {
+			if (done) {
+				return;
+			}
+			remaining--;
+			if (remaining == 0) {
+				done = true;
+				callback.close();
+			}
+		}
+		public void failed(IOException e) {
+			if (done) {
+				return;
 			}
+			done = true;
+			callback.failed(e);
+		}
+		
+		public SnmpClientHandler.Callback.GetCallback single() {
+			return new SnmpClientHandler.Callback.GetCallback() {
+				@Override
+				public void result(Result result) {
+					BatchCallback.this.result(result);
+				}
+				@Override
+				public void close() {
+					oidDone();
+				}
+				@Override
+				public void failed(IOException e) {
+					BatchCallback.this.failed(e);
+				}
+			};
 		}
 	}
 	
-	private static final class Instance {
-		private final InstanceMapper instanceMapper;
+	private static final class BatchInstance extends Request {
+		// Message, community excluded, and PDU headers
+		public static final int HEADER_LENGTH = 32;
+		
+		public static int varbindLength(Oid oid) {
+			int[] raw = oid.getRaw();
+			int length = 1;
+			for (int i = 2; i < raw.length; i++) {
+				int v = raw[i];
+				do {
+					length++;
+					v >>>= 7;
+				} while (v != 0);
+			}
+			return length + 8; // Sequence, OID and NULL headers
+		}
+
+		private final BatchCallback batch;
+		private final SnmpWriter write;
+		private final List<Oid> oids;
+		private final RequestTemplate template;
+		private final OidTrie<Integer> requested = new OidTrie<>(); // Index of the first occurrence of each oid
+		private final int[] duplicates; // Index of the next occurrence of the same oid, -1 if none
+		private boolean finished = false;
+
+		public BatchInstance(InstanceMapper instanceMapper, BatchCallback batch, SnmpWriter write, List<Oid> oids, SnmpClientConfigurator configurator) {
+			super(instanceMapper, configurator);
+			this.batch = batch;
+			this.write = write;
+			this.oids = oids;
+			template = write.get(oids);
+			duplicates = new int[oids.size()];
+			for (int i = oids.size() - 1; i >= 0; i--) {
+				Integer next = requested.put(oids.get(i), i);
+				duplicates[i] = (next == null) ? -1 : next;
+			}
+		}
+		
+		public void send() {
+			instanceMapper.map(this);
+			sent();
+			write.send(instanceId, template);
+		}
+		
+		private void fallback(Oid oid) {
+			new Walk(instanceMapper, batch.single(), write, oid, configurator).start();
+		}
+		
+		@Override
+		public boolean isFinished() {
+			return finished || batch.isDone();
+		}
+		
+		@Override
+		protected void timeout(double t) {
+			finished = true;
+			batch.failed(new IOException("Timeout from beginning [" + t + " seconds] requesting: " + configurator.address + " (" + configurator.community + ") " + oids));
+		}
+		
+		@Override
+		protected void repeat() {
+			LOGGER.trace("Repeating {} {}", configurator.address, oids);
+			write.send(instanceId, template);
+		}
+		
+		@Override
+		public void handle(int errorStatus, int errorIndex, Iterable<Result> results, int length) {
+			if (isFinished()) {
+				return;
+			}
+			
+			if (errorStatus == BerConstants.ERROR_STATUS_AUTHENTICATION_FAILED) {
+				finished = true;
+				batch.failed(new IOException("Authentication failed"));
+				return;
+			}
+			if (errorStatus == BerConstants.ERROR_STATUS_RETRY) {
+				LOGGER.trace("Retrying batched GET after receiving auth engine completion message");
+				send();
+				return;
+			}
+
+			finished = true;
+
+			if (errorStatus == BerConstants.ERROR_STATUS_TOO_BIG) {
+				if (oids.size() == 1) {
+					fallback(oids.get(0));
+				} else {
+					LOGGER.trace("Splitting batched GET of {} OIDs after receiving tooBig", oids.size());
+					int half = oids.size() / 2;
+					new BatchInstance(instanceMapper, batch, write, new ArrayList<>(oids.subList(0, half)), configurator).send();
+					new BatchInstance(instanceMapper, batch, write, new ArrayList<>(oids.subList(half, oids.size())), configurator).send();
+				}
+				return;
+			}
+			
+			if (errorStatus != 0) {
+				LOGGER.trace("Fallbacking to GETNEXT/GETBULK after receiving error: {}/{}", errorStatus, errorIndex);
+				for (Oid oid : oids) {
+					fallback(oid);
+				}
+				return;
+			}
+			
+			// Varbinds are matched by OID, whatever the order the agent returns them in
+			boolean[] found = new boolean[oids.size()];
+			for (Result r : results) {
+				if (r.getValue() == null) {
+					continue;
+				}
+				Integer first = requested.get(r.getOid());
+				if (first == null) {
+					continue;
+				}
+				for (int i = first; i >= 0; i = duplicates[i]) {
+					if (!found[i]) {
+						LOGGER.trace("Scalar found: {}", r);
+						found[i] = true;
+						batch.result(r);
+						batch.oidDone();
+					}
+				}
+			}
+			for (int i = 0; i < found.length; i++) {
+				if (!found[i]) {
+					fallback(oids.get(i));
+				}
+			}
+		}
+	}
+	
+	// A GET, the oid is walked if it is not a scalar
+	private static final class Instance extends Request {
 		private SnmpClientHandler.Callback.GetCallback callback;
 		private final SnmpWriter write;
-		private final Oid initialRequestOid;
-		private Oid requestOid;
-		//%% private List<Result> allResults = null;
-		private int countResults = 0;
-		private final SnmpClientConfigurator configurator;
-		private final Date beginningTimestamp = new Date();
-		//%% private Date receptionTimestamp = null;
-		private Date sendTimestamp = new Date();
-		private int shouldRepeatWhat = 0;
-		public int instanceId;
-		private final double repeatRandomizationRandomized;
+		private final Oid requestOid;
+		private final RequestTemplate template; // Sent again on repeat
 
 		public Instance(InstanceMapper instanceMapper, SnmpClientHandler.Callback.GetCallback callback, SnmpWriter write, Oid requestOid, SnmpClientConfigurator configurator) {
-			this.instanceMapper = instanceMapper;
+			super(instanceMapper, configurator);
 			this.callback = callback;
 			this.write = write;
 			this.requestOid = requestOid;
-			initialRequestOid = requestOid;
-			this.configurator = configurator;
-			
-			repeatRandomizationRandomized = (RANDOM.nextDouble() * configurator.repeatRandomization) - (1d / 2d); // [ -0.5, 0.5 [
+			template = write.get(requestOid);
 		}
 		
-		/*%%
-		public void closedByPeer() {
+		@Override
+		public boolean isFinished() {
+			return callback == null;
+		}
+		
+		public void send() {
+			instanceMapper.map(this);
+			sent();
+			write.send(instanceId, template);
+		}
+		
+		private void fallback() {
+			SnmpClientHandler.Callback.GetCallback c = callback;
+			callback = null;
+			new Walk(instanceMapper, c, write, requestOid, configurator).start();
+		}
+		
+		@Override
+		protected void timeout(double t) {
+			SnmpClientHandler.Callback.GetCallback c = callback;
+			callback = null;
+			c.failed(new IOException("Timeout from beginning [" + t + " seconds] requesting: " + configurator.address + " (" + configurator.community + ") " + requestOid));
+		}
+		
+		@Override
+		protected void repeat() {
+			LOGGER.trace("Repeating {} {}", configurator.address, requestOid);
+			write.send(instanceId, template);
+		}
+		
+		@Override
+		public void handle(int errorStatus, int errorIndex, Iterable<Result> results, int length) {
 			if (callback == null) {
+				LOGGER.trace("Received more but finished");
+				return;
+			}
+
+			if (errorStatus == BerConstants.ERROR_STATUS_AUTHENTICATION_FAILED) {
+				SnmpClientHandler.Callback.GetCallback c = callback;
+				callback = null;
+				c.failed(new IOException("Authentication failed"));
+				return;
+			}
+			if (errorStatus == BerConstants.ERROR_STATUS_RETRY) {
+				LOGGER.trace("Retrying GET after receiving auth engine completion message");
+				send();
 				return;
 			}
-			if (requestOid == null) {
+			if (errorStatus != 0) {
+				LOGGER.trace("Fallbacking to GETNEXT/GETBULK after receiving error: {}/{}", errorStatus, errorIndex);
+				fallback();
 				return;
 			}
 			
-			shouldRepeatWhat = -1;
-			requestOid = null;
+			Result found = null;
+			for (Result r : results) {
+				if (r.getValue() == null) {
+					LOGGER.trace(r.getOid() + " fallback to GETNEXT/GETBULK");
+					fallback();
+					return;
+				} else if (!requestOid.equals(r.getOid())) {
+					LOGGER.trace("{} not as expected: {}, fallbacking to GETNEXT/GETBULK", r.getOid(), requestOid);
+					fallback();
+					return;
+				}
+				
+				// Cannot return more than one
+				LOGGER.trace("Scalar found: {}", r);
+				found = r;
+			}
+			if (found == null) {
+				fallback();
+				return;
+			}
 			SnmpClientHandler.Callback.GetCallback c = callback;
 			callback = null;
-			c.failed(new IOException("Closed by peer"));
+			c.result(found);
+			c.close();
+		}
+	}
+	
+	// A subtree walked by GETBULK cursors, each one over a range of the subtree
+	// When the first response stays in a single child of the subtree (a table entry, a column...), the next siblings are looked for (a GETNEXT after each found one) and walked by new cursors, along the previous ones
+	private static final class Walk {
+		private final InstanceMapper instanceMapper;
+		private final SnmpClientConfigurator configurator;
+		private final SnmpWriter write;
+		private final Oid root;
+		private SnmpClientHandler.Callback.GetCallback callback;
+		private final List<Cursor> cursors = new ArrayList<>();
+		private Cursor last = null; // Up to the end of the subtree
+		private int running = 0;
+		private int countResults = 0;
+		private boolean discovering = false;
+		private int depth; // Siblings are looked for at this depth
+		private int maxDepth;
+		private Probe probe = null;
+
+		public Walk(InstanceMapper instanceMapper, SnmpClientHandler.Callback.GetCallback callback, SnmpWriter write, Oid root, SnmpClientConfigurator configurator) {
+			this.instanceMapper = instanceMapper;
+			this.configurator = configurator;
+			this.write = write;
+			this.root = root;
+			this.callback = callback;
+		}
+		
+		public boolean isFinished() {
+			return callback == null;
+		}
+		
+		public void start() {
+			final Cursor c = new Cursor(this, root);
+			cursors.add(c);
+			last = c;
+			running++;
+			instanceMapper.acquire(new Runnable() {
+				@Override
+				public void run() {
+					if (isFinished()) {
+						instanceMapper.release();
+						return;
+					}
+					c.started = true;
+					c.send();
+				}
+			});
+		}
+		
+		// The first response of the first cursor, from first to lastReceived
+		public void firstReceived(Oid first, Oid lastReceived) {
+			int[] a = first.getRaw();
+			int[] b = lastReceived.getRaw();
+			int common = 0;
+			while ((common < a.length) && (common < b.length) && (a[common] == b[common])) {
+				common++;
+			}
+			depth = root.getRaw().length + 1;
+			maxDepth = Math.min(common, a.length - 1);
+			if (depth > maxDepth) {
+				// Small children, the first cursor goes through several of them at a time
+				return;
+			}
+			discovering = true;
+			discover();
+		}
+		
+		// The first oid after the subtree of oid at depth, null if none
+		private static Oid after(Oid oid, int depth) {
+			int[] raw = oid.getRaw();
+			if (raw.length < depth) {
+				return oid;
+			}
+			if (raw[depth - 1] == -1) {
+				return null;
+			}
+			int[] next = Arrays.copyOf(raw, depth);
+			next[depth - 1]++;
+			return new Oid(next);
+		}
+		
+		private void discover() {
+			if (!discovering || (probe != null) || (callback == null)) {
+				return;
+			}
+			Oid oid = after(last.position, depth);
+			if (oid == null) {
+				levelDone();
+				return;
+			}
+			if (!instanceMapper.tryAcquire()) {
+				// Resumed when a cursor is done
+				return;
+			}
+			probe = new Probe(this, oid);
+			probe.send();
 		}
-		*/
 		
-		public void repeat(Date now) {
+		private void levelDone() {
+			if ((cursors.size() == 1) && (depth < maxDepth)) {
+				// A single child (the entry of a table), its own children are looked for
+				depth++;
+				discover();
+				return;
+			}
+			discovering = false;
+		}
+		
+		public void probed(Result r) {
+			probe = null;
 			if (callback == null) {
 				return;
 			}
-			if (requestOid == null) {
+			if ((r == null) || (r.getValue() == null) || !root.isPrefix(r.getOid())) {
+				instanceMapper.release();
+				levelDone();
 				return;
 			}
-			
-			double n = DateUtils.from(now);
-			
-			double t = n - DateUtils.from(beginningTimestamp);
-			if (t >= (configurator.timeoutFromBeginning)) {
-				shouldRepeatWhat = -1;
-				requestOid = null;
-				SnmpClientHandler.Callback.GetCallback c = callback;
+			Oid oid = r.getOid();
+			if (oid.compareTo(last.position) <= 0) {
+				// Already walked by the last cursor
+				instanceMapper.release();
+				discover();
+				return;
+			}
+			LOGGER.trace("Walking {} from {} in parallel", root, oid);
+			last.end = oid;
+			Cursor c = new Cursor(this, oid);
+			c.started = true; // The slot of the probe is kept
+			cursors.add(c);
+			last = c;
+			running++;
+			if (!result(r)) {
+				return;
+			}
+			c.send();
+			discover();
+		}
+		
+		public void cursorDone(Cursor c) {
+			c.finished = true;
+			running--;
+			instanceMapper.release();
+			if (c == last) {
+				// The end of the subtree is reached
+				discovering = false;
+				stopProbe();
+			} else {
+				discover();
+			}
+			if ((callback != null) && (running == 0)) {
+				SnmpClientHandler.Callback.GetCallback cb = callback;
 				callback = null;
-				//%% allResults = null;
-				c.failed(new IOException("Timeout from beginning [" + t + " seconds] requesting: " + instanceMapper.configurator.address + " (" + instanceMapper.configurator.community + ") " + initialRequestOid));
+				cb.close();
+			}
+		}
+		
+		public boolean result(Result r) {
+			if ((configurator.getLimit > 0) && (countResults >= configurator.getLimit)) {
+				LOGGER.warn("{} reached limit", root);
+				SnmpClientHandler.Callback.GetCallback c = callback;
+				stop();
+				c.close();
+				return false;
+			}
+			countResults++;
+			callback.result(r);
+			return true;
+		}
+		
+		public void failed(IOException e) {
+			if (callback == null) {
 				return;
 			}
-
-			/*%%%%%%%
-			if (receptionTimestamp != null) {
-				double t = n - DateUtils.from(receptionTimestamp);
-				if (t >= configurator.timeoutFromLastReception) {
-					requestOid = null;
-					SnmpClientHandler.Callback.GetCallback c = callback;
-					callback = null;
-					//%% allResults = null;
-					c.failed(new IOException("Timeout [" + t + " seconds] from last reception requesting: " + initialRequestOid));
-					return;
+			SnmpClientHandler.Callback.GetCallback c = callback;
+			stop();
+			c.failed(e);
+		}
+		
+		private void stop() {
+			callback = null;
+			for (Cursor c : cursors) {
+				if (c.started && !c.finished) {
+					c.finished = true;
+					c.cancel();
+					instanceMapper.unmap(c);
+					instanceMapper.release();
 				}
 			}
-			*/
-			
-			if ((n - DateUtils.from(sendTimestamp)) >= (configurator.minTimeToRepeat + repeatRandomizationRandomized)) {
-				LOGGER.trace("Repeating {} {}", instanceMapper.configurator.address, requestOid);
-				switch (shouldRepeatWhat) { 
-				case 0:
-					write.get(instanceId, requestOid);
-					break;
-				case 1:
-					write.getNext(instanceId, requestOid);
-					break;
-				case 2:
-					write.getBulk(instanceId, requestOid, configurator.bulkSize);
-					break;
-				default:
-					break;
-				}
+			stopProbe();
+		}
+		
+		private void stopProbe() {
+			if (probe != null) {
+				probe.finished = true;
+				probe.cancel();
+				instanceMapper.unmap(probe);
+				instanceMapper.release();
+				probe = null;
 			}
-			return;
+		}
+	}
+	
+	// GETBULK from position, up to end (or the end of the subtree)
+	private static final class Cursor extends Request {
+		private final Walk walk;
+		public Oid position; // The last oid received, the start of the range before
+		public Oid end = null; // Excluded
+		public boolean started = false; // Holding a slot
+		public boolean finished = false;
+		private int bulkLength;
+		private RequestTemplate template = null; // Sent again on repeat
+		
+		public Cursor(Walk walk, Oid position) {
+			super(walk.instanceMapper, walk.configurator);
+			this.walk = walk;
+			this.position = position;
 		}
 		
-		private void handle(int errorStatus, int errorIndex, Iterable<Result> results) {
-			if (callback == null) {
+		@Override
+		public boolean isFinished() {
+			return finished || walk.isFinished();
+		}
+		
+		public void send() {
+			bulkLength = instanceMapper.bulkSize();
+			template = walk.write.getBulk(position, bulkLength);
+			instanceMapper.map(this);
+			sent();
+			walk.write.send(instanceId, template);
+		}
+		
+		@Override
+		protected void timeout(double t) {
+			walk.failed(new IOException("Timeout from beginning [" + t + " seconds] requesting: " + configurator.address + " (" + configurator.community + ") " + walk.root));
+		}
+		
+		@Override
+		protected void repeat() {
+			LOGGER.trace("Repeating {} {}", configurator.address, position);
+			instanceMapper.bulkTooBig(bulkLength);
+			if (instanceMapper.bulkSize() != bulkLength) {
+				bulkLength = instanceMapper.bulkSize();
+				template = walk.write.getBulk(position, bulkLength);
+			}
+			walk.write.send(instanceId, template);
+		}
+		
+		@Override
+		public void handle(int errorStatus, int errorIndex, Iterable<Result> results, int length) {
+			if (isFinished()) {
 				LOGGER.trace("Received more but finished");
 				return;
 			}
-			if (requestOid == null) {
+			
+			if (errorStatus == BerConstants.ERROR_STATUS_AUTHENTICATION_FAILED) {
+				walk.failed(new IOException("Authentication failed"));
+				return;
+			}
+			if (errorStatus == BerConstants.ERROR_STATUS_RETRY) {
+				LOGGER.trace("Retrying GETBULK after receiving auth engine completion message");
+				send();
+				return;
+			}
+			if ((errorStatus == BerConstants.ERROR_STATUS_TOO_BIG) && (bulkLength > 1)) {
+				LOGGER.trace("Reducing GETBULK max-repetitions after receiving tooBig: {}", bulkLength);
+				instanceMapper.bulkTooBig(bulkLength);
+				send();
+				return;
+			}
+			if (errorStatus != 0) {
+				walk.failed(new IOException("Request failed with error: " + errorStatus + "/" + errorIndex));
+				return;
+			}
+			
+			boolean first = (position == walk.root);
+			Oid firstOid = null;
+			int count = 0;
+			boolean done = false;
+			for (Result r : results) {
+				count++;
+				if (done || (r.getValue() == null)) {
+					continue;
+				}
+				Oid oid = r.getOid();
+				if (!walk.root.isPrefix(oid) || ((end != null) && (oid.compareTo(end) >= 0)) || (oid.compareTo(position) <= 0)) {
+					LOGGER.trace("{} out of ]{}, {}[ in {}", oid, position, end, walk.root);
+					done = true;
+					continue;
+				}
+				position = oid;
+				if (firstOid == null) {
+					firstOid = oid;
+				}
+				if (!walk.result(r)) {
+					return;
+				}
+			}
+			instanceMapper.bulkReceived(bulkLength, count, length);
+			
+			if (done || (firstOid == null)) {
+				walk.cursorDone(this);
+				return;
+			}
+			
+			LOGGER.trace("Continuing from: {}", position);
+			send();
+			if (first) {
+				walk.firstReceived(firstOid, position);
+			}
+		}
+	}
+	
+	// GETNEXT after a subtree, to find its next sibling (the next column of a table)
+	private static final class Probe extends Request {
+		private final Walk walk;
+		private final Oid oid;
+		private final RequestTemplate template;
+		public boolean finished = false;
+		
+		public Probe(Walk walk, Oid oid) {
+			super(walk.instanceMapper, walk.configurator);
+			this.walk = walk;
+			this.oid = oid;
+			template = walk.write.getNext(oid);
+		}
+		
+		@Override
+		public boolean isFinished() {
+			return finished || walk.isFinished();
+		}
+		
+		public void send() {
+			instanceMapper.map(this);
+			sent();
+			walk.write.send(instanceId, template);
+		}
+		
+		@Override
+		protected void timeout(double t) {
+			walk.failed(new IOException("Timeout from beginning [" + t + " seconds] requesting: " + configurator.address + " (" + configurator.community + ") " + walk.root));
+		}
+		
+		@Override
+		protected void repeat() {
+			LOGGER.trace("Repeating {} {}", configurator.address, oid);
+			walk.write.send(instanceId, template);
+		}
+		
+		@Override
+		public void handle(int errorStatus, int errorIndex, Iterable<Result> results, int length) {
+			if (isFinished()) {
 				return;
 			}
-
-			//%% receptionTimestamp = new Date();
 			
 			if (errorStatus == BerConstants.ERROR_STATUS_AUTHENTICATION_FAILED) {
-				//%% shouldRepeatWhat = -1;
-				requestOid = null;
-				SnmpClientHandler.Callback.GetCallback c = callback;
-				callback = null;
-				//%% allResults = null;
-				c.failed(new IOException("Authentication failed"));
+				walk.failed(new IOException("Authentication failed"));
+				return;
+			}
+			if (errorStatus == BerConstants.ERROR_STATUS_RETRY) {
+				LOGGER.trace("Retrying GETNEXT after receiving auth engine completion message");
+				send();
 				return;
 			}
 			
-			if (shouldRepeatWhat == 0) {
-				if (errorStatus == BerConstants.ERROR_STATUS_RETRY) {
-					LOGGER.trace("Retrying GET after receiving auth engine completion message");
-					instanceMapper.map(this);
-					sendTimestamp = new Date();
-					write.get(instanceId, requestOid);
-				} else {
-					boolean fallback = false;
-					if (errorStatus != 0) {
-						LOGGER.trace("Fallbacking to GETNEXT/GETBULK after receiving error: {}/{}", errorStatus, errorIndex);
-						fallback = true;
-					} else {
-						Result found = null;
-						for (Result r : results) {
-							if (r.getValue() == null) {
-								LOGGER.trace(r.getOid() + " fallback to GETNEXT/GETBULK");
-								fallback = true;
-								break;
-							} else if (!requestOid.equals(r.getOid())) {
-								LOGGER.trace("{} not as expected: {}, fallbacking to GETNEXT/GETBULK", r.getOid(), requestOid);
-								fallback = true;
-								break;
-							}
-							
-							// Cannot return more than one
-							LOGGER.trace("Scalar found: {}", r);
-							found = r;
-						}
-						if (found != null) {
-							//%% shouldRepeatWhat = -1;
-							requestOid = null;
-							SnmpClientHandler.Callback.GetCallback c = callback;
-							callback = null;
-							//%% allResults = null;
-							c.result(found);
-							c.close();
-							return;
-						}
-					}
-					if (fallback) {
-						//%% allResults = new LinkedList<>();
-						instanceMapper.map(this);
-						sendTimestamp = new Date();
-						shouldRepeatWhat = 1;
-						write.getNext(instanceId, requestOid);
-					}
-				}
-			} else {
-				if (errorStatus != 0) {
-					//%% shouldRepeatWhat = -1;
-					requestOid = null;
-					SnmpClientHandler.Callback.GetCallback c = callback;
-					callback = null;
-					//%% allResults = null;
-					c.failed(new IOException("Request failed with error: " + errorStatus + "/" + errorIndex));
-				} else {
-					Oid lastOid = null;
-					for (Result r : results) {
-						LOGGER.trace("Received in bulk: {}", r);
-					}
-					for (Result r : results) {
-						if (r.getValue() == null) {
-							continue;
-						}
-						if (!initialRequestOid.isPrefix(r.getOid())) {
-							LOGGER.trace("{} not prefixed by {}", r.getOid(), initialRequestOid);
-							lastOid = null;
-							break;
-						}
-						LOGGER.trace("Addind to results: {}", r);
-						if ((configurator.getLimit > 0) && (countResults >= configurator.getLimit)) {
-						//%% if ((getLimit > 0) && (allResults.size() == getLimit)) {
-							LOGGER.warn("{} reached limit", requestOid);
-							lastOid = null;
-							break;
-						}
-						countResults++;
-						callback.result(r);
-						//%% allResults.add(r);
-						lastOid = r.getOid();
-					}
-					if (lastOid != null) {
-						LOGGER.trace("Continuing from: {}", lastOid);
-						
-						requestOid = lastOid;
-						
-						instanceMapper.map(this);
-						sendTimestamp = new Date();
-						shouldRepeatWhat = 2;
-						write.getBulk(instanceId, requestOid, configurator.bulkSize);
-					} else {
-						// Stop here
-						//%% shouldRepeatWhat = -1;
-						requestOid = null;
-						SnmpClientHandler.Callback.GetCallback c = callback;
-						callback = null;
-						/*%%
-						List<Result> r = allResults;
-						allResults = null;
-						c.finished(r);
-						*/
-						c.close();
-					}
+			finished = true;
+			Result found = null;
+			if (errorStatus == 0) {
+				for (Result r : results) {
+					found = r;
+					break;
 				}
 			}
+			walk.probed(found);
 		}
 	}
 }
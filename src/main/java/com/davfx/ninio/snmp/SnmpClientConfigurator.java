@@ -1,15 +1,16 @@
 package com.davfx.ninio.snmp;
 
 import java.io.IOException;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
 import com.davfx.ninio.common.Address;
-import com.davfx.ninio.common.ClassThreadFactory;
 import com.davfx.ninio.common.Closeable;
 import com.davfx.ninio.common.DatagramReadyFactory;
 import com.davfx.ninio.common.Queue;
+import com.davfx.ninio.common.QueueGroup;
+import com.davfx.ninio.common.QueueGroupReadyFactory;
 import com.davfx.ninio.common.ReadyFactory;
+import com.davfx.ninio.common.SharedDatagramReadyFactory;
 import com.davfx.util.ConfigUtils;
 import com.typesafe.config.Config;
 
@@ -19,16 +20,23 @@ public final class SnmpClientConfigurator implements Closeable {
 
 	public final Queue queue;
 	private final boolean queueToClose;
+	// Not used anymore (requests are repeated by timers on the queue), null unless given by the caller (who shuts it down)
+	@Deprecated
 	public final ScheduledExecutorService repeatExecutor;
-	private final boolean repeatExecutorToShutdown;
 	
 	public String community = "community";
 	public AuthRemoteEngine authEngine = null;
 	public Address address = new Address("localhost", DEFAULT_PORT);
 	public int bulkSize = CONFIG.getInt("snmp.bulkSize");
+	public int maxBulkSize = CONFIG.getInt("snmp.maxBulkSize");
+	public int walkConcurrency = CONFIG.getInt("snmp.walkConcurrency");
 	public double minTimeToRepeat = ConfigUtils.getDuration(CONFIG, "snmp.minTimeToRepeat");
 	public int getLimit = CONFIG.getInt("snmp.getLimit");;
+	public int getBatchSize = CONFIG.getInt("snmp.getBatchSize");
+	public int maxPduSize = CONFIG.getBytes("snmp.maxPduSize").intValue();
+	public int templates = CONFIG.getInt("snmp.templates");
 
+	// Not used anymore, requests are repeated by timers on the queue (see Queue.schedule)
 	public double repeatTime = ConfigUtils.getDuration(CONFIG, "snmp.repeatTime");
 
 	public double timeoutFromBeginning = ConfigUtils.getDuration(CONFIG, "snmp.timeoutFromBeginning");
@@ -38,23 +46,24 @@ public final class SnmpClientConfigurator implements Closeable {
 	
 	public ReadyFactory readyFactory = new DatagramReadyFactory();
 
-	private SnmpClientConfigurator(Queue queue, boolean queueToClose, ScheduledExecutorService repeatExecutor, boolean repeatExecutorToShutdown) {
+	@SuppressWarnings("deprecation")
+	private SnmpClientConfigurator(Queue queue, boolean queueToClose, ScheduledExecutorService repeatExecutor) {
 		this.queue = queue;
 		this.queueToClose = queueToClose;
 		this.repeatExecutor = repeatExecutor;
-		this.repeatExecutorToShutdown = repeatExecutorToShutdown;
 	}
 	
 	public SnmpClientConfigurator() throws IOException {
-		this(new Queue(), true, Executors.newSingleThreadScheduledExecutor(new ClassThreadFactory(SnmpClientConfigurator.class)), true);
+		this(new Queue(), true, null);
 	}
 
 	public SnmpClientConfigurator(Queue queue) {
-		this(queue, false, Executors.newSingleThreadScheduledExecutor(new ClassThreadFactory(SnmpClientConfigurator.class)), true);
+		this(queue, false, null);
 	}
 
+	@Deprecated
 	public SnmpClientConfigurator(Queue queue, ScheduledExecutorService repeatExecutor) {
-		this(queue, false, repeatExecutor, false);
+		this(queue, false, repeatExecutor);
 	}
 
 	@Override
@@ -62,21 +71,23 @@ public final class SnmpClientConfigurator implements Closeable {
 		if (queueToClose) {
 			queue.close();
 		}
-		if (repeatExecutorToShutdown) {
-			repeatExecutor.shutdown();
-		}
 	}
 	
+	@SuppressWarnings("deprecation")
 	public SnmpClientConfigurator(SnmpClientConfigurator configurator) {
 		queueToClose = false;
-		repeatExecutorToShutdown = false;
 		queue = configurator.queue;
 		community = configurator.community;
 		authEngine = configurator.authEngine;
 		address = configurator.address;
 		bulkSize = configurator.bulkSize;
+		maxBulkSize = configurator.maxBulkSize;
+		walkConcurrency = configurator.walkConcurrency;
 		minTimeToRepeat = configurator.minTimeToRepeat;
 		getLimit = configurator.getLimit;
+		getBatchSize = configurator.getBatchSize;
+		maxPduSize = configurator.maxPduSize;
+		templates = configurator.templates;
 		repeatTime = configurator.repeatTime;
 		repeatExecutor = configurator.repeatExecutor;
 		timeoutFromBeginning = configurator.timeoutFromBeginning;
@@ -134,10 +145,40 @@ public final class SnmpClientConfigurator implements Closeable {
 		this.bulkSize = bulkSize;
 		return this;
 	}
+	public SnmpClientConfigurator withMaxBulkSize(int maxBulkSize) {
+		this.maxBulkSize = maxBulkSize;
+		return this;
+	}
+	public SnmpClientConfigurator withWalkConcurrency(int walkConcurrency) {
+		this.walkConcurrency = walkConcurrency;
+		return this;
+	}
 	public SnmpClientConfigurator withGetLimit(int getLimit) {
 		this.getLimit = getLimit;
 		return this;
 	}
+	public SnmpClientConfigurator withGetBatchSize(int getBatchSize) {
+		this.getBatchSize = getBatchSize;
+		return this;
+	}
+	public SnmpClientConfigurator withMaxPduSize(int maxPduSize) {
+		this.maxPduSize = maxPduSize;
+		return this;
+	}
+	
+	// All the clients built from this configurator (or its copies) share the same bound channels instead of one channel per agent
+	public SnmpClientConfigurator withSharedChannel() {
+		return withSharedChannel(new SharedDatagramReadyFactory());
+	}
+	public SnmpClientConfigurator withSharedChannel(SharedDatagramReadyFactory sharedReadyFactory) {
+		readyFactory = sharedReadyFactory;
+		return this;
+	}
+	
+	public SnmpClientConfigurator withQueueGroup(QueueGroup queueGroup) {
+		readyFactory = new QueueGroupReadyFactory(queueGroup, readyFactory);
+		return this;
+	}
 	
 	public SnmpClientConfigurator override(ReadyFactory readyFactory) {
 		this.readyFactory = readyFactory;
@@ -8,7 +8,10 @@ public interface SnmpClientHandler extends Closeable, Failable {
 		interface GetCallback extends Closeable, Failable {
 			void result(Result result);
 		}
+		// A non-scalar OID is walked by several GETBULK requests at a time (one per column of a table), the results of different columns are interleaved
 		void get(Oid oid, GetCallback callback);
+		// Scalars are requested together, non-scalar OIDs are walked, the callback is closed when all of them are done
+		void get(Iterable<Oid> oids, GetCallback callback);
 	}
 	void launched(Callback callback);
 }
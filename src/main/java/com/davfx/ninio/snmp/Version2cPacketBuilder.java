@@ -1,38 +1,83 @@
 package com.davfx.ninio.snmp;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
 
+import com.davfx.ninio.common.ByteBufferAllocator;
+
+// Written backward in a single buffer, from the last oid to the version
 final class Version2cPacketBuilder {
-	private final ByteBuffer buffer;
+	private static final int MAX_HEADER_LENGTH = 64;
+
+	// The whole packet is kept, a copy is sent each time with its request id patched
+	private static final class Template implements RequestTemplate {
+		private final ByteBuffer community;
+		private final List<Oid> oids;
+		private final int type;
+		private final int bulkLength;
+		private final ByteBuffer packet;
+		private final int requestIdIndex; // From the start of packet
 
-	private Version2cPacketBuilder(String community, int requestId, Oid oid, int type, int bulkLength) {
-		SequenceBerPacket root = new SequenceBerPacket(BerConstants.SEQUENCE)
-			.add(new IntegerBerPacket(BerConstants.VERSION_2C))
-			.add(new BytesBerPacket(BerPacketUtils.bytes(community)))
-			.add(new SequenceBerPacket(type)
-				.add(new IntegerBerPacket(requestId))
-				.add(new IntegerBerPacket(0))
-				.add(new IntegerBerPacket(bulkLength))
-				.add(new SequenceBerPacket(BerConstants.SEQUENCE)
-					.add(new SequenceBerPacket(BerConstants.SEQUENCE)
-						.add(new OidBerPacket(oid))
-						.add(new NullBerPacket()))));
+		public Template(ByteBuffer community, List<Oid> oids, int type, int bulkLength) {
+			this.community = community;
+			this.oids = oids;
+			this.type = type;
+			this.bulkLength = bulkLength;
+
+			BerWriter ber = new BerWriter(ByteBuffer.allocate(MAX_HEADER_LENGTH + community.remaining() + BerWriter.requestPduLength(oids)));
+			int root = ber.mark();
+			int index = ber.writeRequestPduTemplate(type, bulkLength, oids);
+			ber.writeBytes(community);
+			ber.writeInteger(BerConstants.VERSION_2C);
+			ber.writeSequence(BerConstants.SEQUENCE, root);
+			packet = ber.finish();
+			requestIdIndex = index - packet.position();
+		}
+
+		@Override
+		public ByteBuffer build(ByteBufferAllocator allocator, int requestId) {
+			if (!BerWriter.isFixedInteger(requestId)) {
+				return new Version2cPacketBuilder(allocator, community, requestId, oids, type, bulkLength).getBuffer();
+			}
+			ByteBuffer b = BerWriter.allocate(allocator, packet.remaining());
+			b.put(packet.duplicate());
+			b.flip();
+			BerWriter.patchFixedInteger(b, requestIdIndex, requestId);
+			return b;
+		}
+	}
 
-		buffer = ByteBuffer.allocate(BerPacketUtils.typeAndLengthBufferLength(root.lengthBuffer()) + root.length());
-		root.write(buffer);
-		buffer.flip();
+	public static RequestTemplate template(ByteBuffer community, List<Oid> oids, int type, int bulkLength) {
+		return new Template(community, oids, type, bulkLength);
 	}
 
-	public static Version2cPacketBuilder getBulk(String community, int requestId, Oid oid, int bulkLength) {
-		return new Version2cPacketBuilder(community, requestId, oid, BerConstants.GETBULK, bulkLength);
+	private final ByteBuffer buffer;
+
+	private Version2cPacketBuilder(ByteBufferAllocator allocator, ByteBuffer community, int requestId, List<Oid> oids, int type, int bulkLength) {
+		BerWriter ber = new BerWriter(BerWriter.allocate(allocator, MAX_HEADER_LENGTH + community.remaining() + BerWriter.requestPduLength(oids)));
+		int root = ber.mark();
+		ber.writeRequestPdu(type, requestId, bulkLength, oids);
+		ber.writeBytes(community);
+		ber.writeInteger(BerConstants.VERSION_2C);
+		ber.writeSequence(BerConstants.SEQUENCE, root);
+		buffer = ber.finish();
+	}
+
+	public static Version2cPacketBuilder getBulk(ByteBufferAllocator allocator, ByteBuffer community, int requestId, Oid oid, int bulkLength) {
+		return new Version2cPacketBuilder(allocator, community, requestId, Collections.singletonList(oid), BerConstants.GETBULK, bulkLength);
+	}
+	public static Version2cPacketBuilder get(ByteBufferAllocator allocator, ByteBuffer community, int requestId, Oid oid) {
+		return new Version2cPacketBuilder(allocator, community, requestId, Collections.singletonList(oid), BerConstants.GET, 0);
 	}
-	public static Version2cPacketBuilder get(String community, int requestId, Oid oid) {
-		return new Version2cPacketBuilder(community, requestId, oid, BerConstants.GET, 0);
+	public static Version2cPacketBuilder get(ByteBufferAllocator allocator, ByteBuffer community, int requestId, List<Oid> oids) {
+		return new Version2cPacketBuilder(allocator, community, requestId, oids, BerConstants.GET, 0);
 	}
-	public static Version2cPacketBuilder getNext(String community, int requestId, Oid oid) {
-		return new Version2cPacketBuilder(community, requestId, oid, BerConstants.GETNEXT, 0);
+	public static Version2cPacketBuilder getNext(ByteBufferAllocator allocator, ByteBuffer community, int requestId, Oid oid) {
+		return new Version2cPacketBuilder(allocator, community, requestId, Collections.singletonList(oid), BerConstants.GETNEXT, 0);
 	}
 
+	// Between its position and its limit (the buffer may be larger)
 	public ByteBuffer getBuffer() {
 		return buffer;
 	}
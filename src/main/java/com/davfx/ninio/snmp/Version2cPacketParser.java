@@ -52,9 +52,7 @@ final class Version2cPacketParser {
 						ber.beginReadSequence();
 						{
 							Oid oid = ber.readOid();
-							String value = ber.readValue();
-							// OidValue value = ber.readOidValue();
-							results.add(new Result(oid, value));
+							results.add(ber.readResult(oid));
 						}
 						ber.endReadSequence();
 					}
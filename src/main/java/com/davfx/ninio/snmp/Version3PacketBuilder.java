@@ -1,59 +1,61 @@
 package com.davfx.ninio.snmp;
 
 import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
 
+import com.davfx.ninio.common.ByteBufferAllocator;
+import com.davfx.ninio.common.PooledByteBufferAllocator;
+
+// Written backward in a single buffer, from the scoped PDU (encrypted first if required) to the version
 final class Version3PacketBuilder {
-	private final ByteBuffer buffer;
+	private static final int MAX_HEADER_LENGTH = 128;
+	private static final int AUTH_LENGTH = 12;
+	private static final int PRIV_LENGTH = 8;
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
 
-	private static final class AuthBerPacket implements BerPacket {
-		private static final int LENGTH = 12;
-		private final ByteBuffer lengthBuffer = BerPacketUtils.lengthBuffer(LENGTH);
-		private int position = -1;
-		public AuthBerPacket() {
-		}
-		
-		@Override
-		public void write(ByteBuffer buffer) {
-			BerPacketUtils.writeHeader(BerConstants.OCTETSTRING, lengthBuffer, buffer);
-			position = buffer.position();
-			buffer.put(new byte[LENGTH]);
-		}
-		@Override
-		public ByteBuffer lengthBuffer() {
-			return lengthBuffer;
+	// The scoped PDU is kept (the header, its authentication and the encryption change on each message), its request id is patched in place
+	private static final class Template implements RequestTemplate {
+		private final AuthRemoteEngine authEngine;
+		private final List<Oid> oids;
+		private final int type;
+		private final int bulkLength;
+		private final ByteBuffer pdu;
+		private final int requestIdIndex; // From the start of pdu
+
+		public Template(AuthRemoteEngine authEngine, List<Oid> oids, int type, int bulkLength) {
+			this.authEngine = authEngine;
+			this.oids = oids;
+			this.type = type;
+			this.bulkLength = bulkLength;
+			BerWriter ber = new BerWriter(ByteBuffer.allocate(BerWriter.requestPduLength(oids) + MAX_HEADER_LENGTH));
+			int scoped = ber.mark();
+			int index = ber.writeRequestPduTemplate(type, bulkLength, oids);
+			writeScopedPdu(ber, scoped);
+			pdu = ber.finish();
+			requestIdIndex = index - pdu.position();
 		}
+
 		@Override
-		public int length() {
-			return LENGTH;
+		public ByteBuffer build(ByteBufferAllocator allocator, int requestId) {
+			if (!BerWriter.isFixedInteger(requestId)) {
+				return encode(allocator, authEngine, requestId, oids, type, bulkLength).getBuffer();
+			}
+			BerWriter.patchFixedInteger(pdu, pdu.position() + requestIdIndex, requestId);
+			return new Version3PacketBuilder(allocator, authEngine, pdu).getBuffer();
 		}
 	}
-	
-	private static final class PrivacyBerPacket implements BerPacket {
-		private static final int LENGTH = 8;
-		private final ByteBuffer lengthBuffer = BerPacketUtils.lengthBuffer(LENGTH);
-		private int position = -1;
-		public PrivacyBerPacket() {
-		}
-		
-		@Override
-		public void write(ByteBuffer buffer) {
-			BerPacketUtils.writeHeader(BerConstants.OCTETSTRING, lengthBuffer, buffer);
-			position = buffer.position();
-			buffer.put(new byte[LENGTH]);
-		}
-		@Override
-		public ByteBuffer lengthBuffer() {
-			return lengthBuffer;
-		}
-		@Override
-		public int length() {
-			return LENGTH;
-		}
+
+	public static RequestTemplate template(AuthRemoteEngine authEngine, List<Oid> oids, int type, int bulkLength) {
+		return new Template(authEngine, oids, type, bulkLength);
 	}
 
-	private Version3PacketBuilder(AuthRemoteEngine authEngine, int requestId, Oid oid, int type, int bulkLength) {
+	private final ByteBuffer buffer;
+
+	// pdu is the encoded scoped PDU, copied (or encrypted) in the message
+	private Version3PacketBuilder(ByteBufferAllocator allocator, AuthRemoteEngine authEngine, ByteBuffer pdu) {
 		authEngine.renewTime();
-		
+
 		boolean encrypt = false;
 		int securityFlags = 0x0;
 		if (authEngine.getAuthLogin() != null) {
@@ -66,75 +68,89 @@ final class Version3PacketBuilder {
 			}
 		}
 		securityFlags |= BerConstants.VERSION_3_REPORTABLE_FLAG;
-		
-		SequenceBerPacket root = new SequenceBerPacket(BerConstants.SEQUENCE)
-			.add(new IntegerBerPacket(BerConstants.VERSION_3))
-			.add(new SequenceBerPacket(BerConstants.SEQUENCE)
-				.add(new IntegerBerPacket(authEngine.incPacketNumber())) // Packet number
-				.add(new IntegerBerPacket(65535)) // Max packet size
-				.add(new BytesBerPacket(ByteBuffer.wrap(new byte[] { (byte) securityFlags })))
-				.add(new IntegerBerPacket(BerConstants.VERSION_3_USM_SECURITY_MODEL)));
-
-		AuthBerPacket auth = new AuthBerPacket();
-		PrivacyBerPacket priv = new PrivacyBerPacket();
-		
-		root.add(new BytesSequenceBerPacket(new SequenceBerPacket(BerConstants.SEQUENCE)
-				.add(new BytesBerPacket(ByteBuffer.wrap(authEngine.getId())))
-				.add(new IntegerBerPacket(authEngine.getBootCount()))
-				.add(new IntegerBerPacket(authEngine.getTime()))
-				.add(new BytesBerPacket(BerPacketUtils.bytes(authEngine.getAuthLogin())))
-				.add(auth)
-				.add(priv)));
-
-		BerPacket pduPacket = new SequenceBerPacket(BerConstants.SEQUENCE)
-			.add(new BytesBerPacket(ByteBuffer.allocate(0)))
-			.add(new BytesBerPacket(ByteBuffer.allocate(0)))
-			.add(new SequenceBerPacket(type)
-				.add(new IntegerBerPacket(requestId))
-				.add(new IntegerBerPacket(0))
-				.add(new IntegerBerPacket(bulkLength))
-				.add(new SequenceBerPacket(BerConstants.SEQUENCE)
-					.add(new SequenceBerPacket(BerConstants.SEQUENCE)
-						.add(new OidBerPacket(oid))
-						.add(new NullBerPacket()))));
 
-		if (encrypt) {
-			ByteBuffer decryptedBuffer = ByteBuffer.allocate(BerPacketUtils.typeAndLengthBufferLength(pduPacket.lengthBuffer()) + pduPacket.length());
-			pduPacket.write(decryptedBuffer);
-			decryptedBuffer.flip();
-			root.add(new BytesBerPacket(authEngine.encrypt(decryptedBuffer)));
+		ByteBuffer encrypted = encrypt ? authEngine.encrypt(pdu.duplicate()) : null;
+		int pduLength = (encrypted == null) ? pdu.remaining() : (encrypted.remaining() + MAX_HEADER_LENGTH);
+
+		byte[] id = authEngine.getId();
+		ByteBuffer login = BerPacketUtils.bytes(authEngine.getAuthLogin());
+		BerWriter ber = new BerWriter(BerWriter.allocate(allocator, MAX_HEADER_LENGTH + id.length + login.remaining() + pduLength));
+
+		int root = ber.mark();
+		if (encrypted == null) {
+			ber.writeRaw(pdu);
 		} else {
-			root.add(pduPacket);
+			ber.writeBytes(encrypted);
 		}
-		
-		buffer = ByteBuffer.allocate(BerPacketUtils.typeAndLengthBufferLength(root.lengthBuffer()) + root.length());
-		root.write(buffer);
-		buffer.flip();
-		
+
+		int security = ber.mark();
+		int sequence = ber.mark();
+		int priv = ber.writeBytes(PRIV_LENGTH);
+		int auth = ber.writeBytes(AUTH_LENGTH);
+		ber.writeBytes(login);
+		ber.writeInteger(authEngine.getTime());
+		ber.writeInteger(authEngine.getBootCount());
+		ber.writeBytes(ByteBuffer.wrap(id));
+		ber.writeSequence(BerConstants.SEQUENCE, sequence);
+		ber.writeBytesSequence(security);
+
+		int global = ber.mark();
+		ber.writeInteger(BerConstants.VERSION_3_USM_SECURITY_MODEL);
+		ber.writeBytes(ByteBuffer.wrap(new byte[] { (byte) securityFlags }));
+		ber.writeInteger(65535); // Max packet size
+		ber.writeInteger(authEngine.incPacketNumber()); // Packet number
+		ber.writeSequence(BerConstants.SEQUENCE, global);
+
+		ber.writeInteger(BerConstants.VERSION_3);
+		ber.writeSequence(BerConstants.SEQUENCE, root);
+		buffer = ber.finish();
+
+		// Indexes are absolute, the bytes have been written in place
 		if (encrypt) {
-			writeInside(buffer, priv.position, authEngine.getEncryptionParameters());
+			writeInside(buffer, priv, authEngine.getEncryptionParameters());
 		}
 
-		writeInside(buffer, auth.position, authEngine.hash(buffer));
+		writeInside(buffer, auth, authEngine.hash(buffer));
+	}
+
+	// The request PDU has been written since mark
+	private static void writeScopedPdu(BerWriter ber, int mark) {
+		ber.writeBytes(EMPTY); // Context name
+		ber.writeBytes(EMPTY); // Context engine id
+		ber.writeSequence(BerConstants.SEQUENCE, mark);
+	}
+
+	private static Version3PacketBuilder encode(ByteBufferAllocator allocator, AuthRemoteEngine authEngine, int requestId, List<Oid> oids, int type, int bulkLength) {
+		ByteBuffer pduBuffer = BerWriter.allocate(allocator, BerWriter.requestPduLength(oids) + MAX_HEADER_LENGTH);
+		BerWriter ber = new BerWriter(pduBuffer);
+		int scoped = ber.mark();
+		ber.writeRequestPdu(type, requestId, bulkLength, oids);
+		writeScopedPdu(ber, scoped);
+		Version3PacketBuilder builder = new Version3PacketBuilder(allocator, authEngine, ber.finish());
+		PooledByteBufferAllocator.release(pduBuffer);
+		return builder;
 	}
-	
+
 	private static void writeInside(ByteBuffer buffer, int position, byte[] bytes) {
-		int p = buffer.position();
-		buffer.position(position);
-		buffer.put(bytes);
-		buffer.position(p);
+		for (int i = 0; i < bytes.length; i++) {
+			buffer.put(position + i, bytes[i]);
+		}
 	}
 
-	public static Version3PacketBuilder getBulk(AuthRemoteEngine authEngine, int requestId, Oid oid, int bulkLength) {
-		return new Version3PacketBuilder(authEngine, requestId, oid, BerConstants.GETBULK, bulkLength);
+	public static Version3PacketBuilder getBulk(ByteBufferAllocator allocator, AuthRemoteEngine authEngine, int requestId, Oid oid, int bulkLength) {
+		return encode(allocator, authEngine, requestId, Collections.singletonList(oid), BerConstants.GETBULK, bulkLength);
+	}
+	public static Version3PacketBuilder get(ByteBufferAllocator allocator, AuthRemoteEngine authEngine, int requestId, Oid oid) {
+		return encode(allocator, authEngine, requestId, Collections.singletonList(oid), BerConstants.GET, 0);
 	}
-	public static Version3PacketBuilder get(AuthRemoteEngine authEngine, int requestId, Oid oid) {
-		return new Version3PacketBuilder(authEngine, requestId, oid, BerConstants.GET, 0);
+	public static Version3PacketBuilder get(ByteBufferAllocator allocator, AuthRemoteEngine authEngine, int requestId, List<Oid> oids) {
+		return encode(allocator, authEngine, requestId, oids, BerConstants.GET, 0);
 	}
-	public static Version3PacketBuilder getNext(AuthRemoteEngine authEngine, int requestId, Oid oid) {
-		return new Version3PacketBuilder(authEngine, requestId, oid, BerConstants.GETNEXT, 0);
+	public static Version3PacketBuilder getNext(ByteBufferAllocator allocator, AuthRemoteEngine authEngine, int requestId, Oid oid) {
+		return encode(allocator, authEngine, requestId, Collections.singletonList(oid), BerConstants.GETNEXT, 0);
 	}
 
+	// Between its position and its limit (the buffer may be larger)
 	public ByteBuffer getBuffer() {
 		return buffer;
 	}
@@ -13,6 +13,8 @@ final class Version3PacketParser {
 	private static final Logger LOGGER = LoggerFactory.getLogger(Version3PacketParser.class);
 	
 	private static final Oid AUTH_ERROR_OID = new Oid("1.3.6.1.6.3.15.1.1");
+	private static final Oid NOT_IN_TIME_WINDOW_OID = new Oid("1.3.6.1.6.3.15.1.1.2");
+	private static final Oid UNKNOWN_ENGINE_ID_OID = new Oid("1.3.6.1.6.3.15.1.1.4");
 	
 	private final int requestId;
 	private final int errorStatus;
@@ -94,8 +96,7 @@ final class Version3PacketParser {
 							pdu.beginReadSequence();
 							{
 								pdu.readOid();
-								pdu.readValue();
-								// pdu.readOidValue();
+								pdu.readResult(null);
 							}
 							pdu.endReadSequence();
 						}
@@ -116,15 +117,21 @@ final class Version3PacketParser {
 							pdu.beginReadSequence();
 							{
 								Oid oid = pdu.readOid();
-								if (AUTH_ERROR_OID.isPrefix(oid)) {
+								if (NOT_IN_TIME_WINDOW_OID.isPrefix(oid) || UNKNOWN_ENGINE_ID_OID.isPrefix(oid)) {
+									// The engine was outdated (restored from AuthCache, or the agent has restarted), it has just been updated from this report
+									LOGGER.debug("Auth engine outdated ({}), requestId = {}", oid, requestId);
+									errorStatus = BerConstants.ERROR_STATUS_RETRY;
+									errorIndex = 0;
+									if (UNKNOWN_ENGINE_ID_OID.isPrefix(oid)) {
+										authEngine.setUnknown();
+									}
+								} else if (AUTH_ERROR_OID.isPrefix(oid)) {
 									LOGGER.error("Authentication failed ({}), requestId = {}", oid, requestId);
 									// There is no wait to report it to the user because requestId is 0
 									errorStatus = BerConstants.ERROR_STATUS_AUTHENTICATION_FAILED;
 									errorIndex = 0;
 								}
-								String value = pdu.readValue();
-								// OidValue value = pdu.readOidValue();
-								results.add(new Result(oid, value));
+								results.add(pdu.readResult(oid));
 							}
 							pdu.endReadSequence();
 						}
@@ -147,9 +154,7 @@ final class Version3PacketParser {
 							pdu.beginReadSequence();
 							{
 								Oid oid = pdu.readOid();
-								String value = pdu.readValue();
-								// OidValue value = pdu.readOidValue();
-								results.add(new Result(oid, value));
+								results.add(pdu.readResult(oid));
 							}
 							pdu.endReadSequence();
 						}
@@ -127,6 +127,10 @@ public final class SnmpClientCache implements AutoCloseable {
 									public void get(Oid oid, GetCallback getCallback) {
 										callback.get(oid, getCallback);
 									}
+									@Override
+									public void get(Iterable<Oid> oids, GetCallback getCallback) {
+										callback.get(oids, getCallback);
+									}
 								});
 							}
 						}
@@ -146,6 +150,10 @@ public final class SnmpClientCache implements AutoCloseable {
 							public void get(Oid oid, GetCallback getCallback) {
 								cc.launchedCallback.get(oid, getCallback);
 							}
+							@Override
+							public void get(Iterable<Oid> oids, GetCallback getCallback) {
+								cc.launchedCallback.get(oids, getCallback);
+							}
 						});
 					}
 				}
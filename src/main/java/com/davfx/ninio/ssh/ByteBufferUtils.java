@@ -7,9 +7,10 @@ final class ByteBufferUtils {
 	}
 	
 	public static void transfer(ByteBuffer b, ByteBuffer to) {
-		int p = b.position();
-		b.get(to.array(), to.position(), Math.min(b.remaining(), to.capacity() - to.position()));
-		int l = b.position() - p;
-		to.position(to.position() + l);
+		int l = Math.min(b.remaining(), to.remaining());
+		ByteBuffer d = b.duplicate();
+		d.limit(d.position() + l);
+		to.put(d);
+		b.position(b.position() + l);
 	}
 }
@@ -27,8 +27,15 @@ final class ZlibCompressingCloseableByteBufferHandler implements CloseableByteBu
 			wrappee.handle(address, buffer);
 			return;
 		}
-		deflater.setInput(buffer.array(), buffer.position(), buffer.remaining());
-		buffer.position(buffer.limit());
+		if (buffer.hasArray()) {
+			deflater.setInput(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+		} else {
+			// The deflater keeps a reference to its input, a copy is given
+			byte[] b = new byte[buffer.remaining()];
+			buffer.get(b);
+			deflater.setInput(b);
+		}
 		write(address);
 	}
 
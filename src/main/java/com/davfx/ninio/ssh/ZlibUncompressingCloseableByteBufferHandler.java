@@ -37,8 +37,15 @@ final class ZlibUncompressingCloseableByteBufferHandler implements CloseableByte
 		int r = deflated.remaining();
 
 		if (r > 0) {
-			inflater.setInput(deflated.array(), deflated.position(), r);
-			deflated.position(deflated.position() + r);
+			if (deflated.hasArray()) {
+				inflater.setInput(deflated.array(), deflated.arrayOffset() + deflated.position(), r);
+				deflated.position(deflated.position() + r);
+			} else {
+				// The inflater keeps a reference to its input, a copy is given
+				byte[] d = new byte[r];
+				deflated.get(d);
+				inflater.setInput(d);
+			}
 
 			while (true) { // !inflater.needsInput() && !inflater.finished()) {
 				ByteBuffer inflated = ByteBuffer.allocate(BUFFER_SIZE);
@@ -7,6 +7,7 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 
 import com.davfx.ninio.common.Address;
+import com.davfx.ninio.common.ByteBuffers;
 import com.davfx.ninio.common.CloseableByteBufferHandler;
 import com.davfx.ninio.common.Failable;
 import com.davfx.ninio.common.FailableCloseableByteBufferHandler;
@@ -71,7 +72,7 @@ public final class ScpClient {
 					}
 				} else {
 					try {
-						size = Long.parseLong(Splitter.on(' ').splitToList(new String(buffer.array(), buffer.position(), buffer.remaining())).get(1));
+						size = Long.parseLong(Splitter.on(' ').splitToList(new String(ByteBuffers.toArray(buffer))).get(1));
 					} catch (Exception e) {
 						write.close();
 						closed = true;
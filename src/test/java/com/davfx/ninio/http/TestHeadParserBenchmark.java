@@ -0,0 +1,100 @@
+package com.davfx.ninio.http;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+// Manual benchmark of HttpHeadParser against the former LineReader-based parsing (in this package, the parser is not public)
+// A plain main rather than JMH: the build has no JMH dependency, and the manual runners of this project are mains; each round is timed after the previous ones warmed it up
+public class TestHeadParserBenchmark {
+	private static final byte[] HEAD = ("GET /api/v1/items?id=42 HTTP/1.1\r\n"
+			+ "Host: backend.local\r\n"
+			+ "User-Agent: poller/1.0\r\n"
+			+ "Accept: */*\r\n"
+			+ "Accept-Encoding: gzip, deflate\r\n"
+			+ "Connection: keep-alive\r\n"
+			+ "X-Request-Id: 0123456789abcdef\r\n"
+			+ "Content-Length: 0\r\n"
+			+ "\r\n").getBytes(Http.USASCII_CHARSET);
+	private static final int COUNT = 1000000;
+	private static final int ROUNDS = 5;
+
+	// The former LineReader: one char appended at a time, a String per line
+	private static final class OldLineReader {
+		private final StringBuilder line = new StringBuilder();
+		private boolean lastCharCR = false;
+
+		public String handle(ByteBuffer buffer) {
+			while (true) {
+				if (!buffer.hasRemaining()) {
+					return null;
+				}
+				char c = (char) buffer.get();
+				if (lastCharCR) {
+					lastCharCR = false;
+					if (c == Http.LF) {
+						String l = line.toString();
+						line.setLength(0);
+						return l;
+					} else {
+						line.append(Http.CR);
+					}
+				} else if (c == Http.CR) {
+					lastCharCR = true;
+				} else {
+					line.append(c);
+				}
+			}
+		}
+	}
+
+	private static int oldParse() {
+		int x = 0;
+		ByteBuffer b = ByteBuffer.wrap(HEAD);
+		OldLineReader lineReader = new OldLineReader();
+		Map<String, String> headers = new HashMap<>();
+		String line = lineReader.handle(b);
+		String method = line.substring(0, line.indexOf(Http.START_LINE_SEPARATOR));
+		for (HttpRequest.Method m : HttpRequest.Method.values()) {
+			if (m.toString().equals(method)) {
+				x++;
+			}
+		}
+		while (!(line = lineReader.handle(b)).isEmpty()) {
+			int k = line.indexOf(Http.HEADER_KEY_VALUE_SEPARATOR);
+			headers.put(line.substring(0, k).toLowerCase(), line.substring(k + 1).trim());
+		}
+		return x + headers.get(Http.HOST.toLowerCase()).length() + headers.size();
+	}
+
+	private static int newParse() {
+		int x = 0;
+		ByteBuffer b = ByteBuffer.wrap(HEAD);
+		HttpHeadParser parser = new HttpHeadParser();
+		HttpHeaders headers = new HttpHeaders();
+		parser.readLine(b);
+		if (parser.method(0, parser.indexOf(Http.START_LINE_SEPARATOR, 0)) != null) {
+			x++;
+		}
+		while (parser.readLine(b) && !parser.isLineEmpty()) {
+			parser.header(headers);
+		}
+		return x + headers.get(Http.HOST).length() + headers.size(); // Host is decoded, as a handler would
+	}
+
+	public static void main(String[] args) {
+		for (int r = 0; r < ROUNDS; r++) {
+			int x = 0;
+			long t0 = System.nanoTime();
+			for (int i = 0; i < COUNT; i++) {
+				x += oldParse();
+			}
+			long t1 = System.nanoTime();
+			for (int i = 0; i < COUNT; i++) {
+				x += newParse();
+			}
+			long t2 = System.nanoTime();
+			System.out.println("LineReader " + ((t1 - t0) / COUNT) + " ns/head, HttpHeadParser " + ((t2 - t1) / COUNT) + " ns/head (" + x + ")");
+		}
+	}
+}
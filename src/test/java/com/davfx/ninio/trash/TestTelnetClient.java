@@ -12,7 +12,8 @@ import com.davfx.ninio.telnet.TelnetClientConfigurator;
 
 public class TestTelnetClient {
 	public static void main(String[] args) throws Exception {
-		new WaitingRemoteClient(new WaitingRemoteClientConfigurator().withTimeout(1d), new TelnetRemoteConnector(new TelnetClientConfigurator())).connect(new WaitingRemoteClientHandler() {
+		final TelnetClientConfigurator telnetConfigurator = new TelnetClientConfigurator();
+		new WaitingRemoteClient(new WaitingRemoteClientConfigurator().withTimeout(1d), telnetConfigurator.queue, new TelnetRemoteConnector(telnetConfigurator)).connect(new WaitingRemoteClientHandler() {
 			@Override
 			public void failed(IOException e) {
 				System.out.println("FAILED");
@@ -35,18 +36,29 @@ public class TestTelnetClient {
 								if (line.equals("^C")) {
 									break;
 								}
-								callback.send(line, 2d, new WaitingRemoteClientHandler.Callback.SendCallback() {
+								final String l = line;
+								telnetConfigurator.queue.post(new Runnable() {
 									@Override
-									public void failed(IOException e) {
-										System.out.println("# FAILED");
-									}
-									@Override
-									public void received(String text) {
-										System.out.println("#@@ " + text);
+									public void run() {
+										callback.send(l, 2d, new WaitingRemoteClientHandler.Callback.SendCallback() {
+											@Override
+											public void failed(IOException e) {
+												System.out.println("# FAILED");
+											}
+											@Override
+											public void received(String text) {
+												System.out.println("#@@ " + text);
+											}
+										});
 									}
 								});
 							}
-							callback.close();
+							telnetConfigurator.queue.post(new Runnable() {
+								@Override
+								public void run() {
+									callback.close();
+								}
+							});
 						} catch (IOException ioe) {
 							ioe.printStackTrace();
 						}